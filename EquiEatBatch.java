@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+// Headless Batch Mode
+// Import -> duplicate check -> distribute -> analyze -> export with no window, for nightly runs on a server or in a container.
+// Only the static nested engine classes of SmartRationGUI are used, never the window itself. The JVM still
+// loads (but never initializes) the JFrame class chain when it resolves the nest host for the lambdas, so
+// no Toolkit, no display, no EDT. Prints one JSON object with the counts and timings on stdout.
+//   java -cp . EquiEatBatch --registry registry.csv --inventory inventory.csv --out results/
+// --sites N splits the families into N local sites (by Family ID) and runs the sharded coordinator over them:
+// each site gets its own packing list and stubs in out/site-K/, the center keeps the reserve report.
+public class EquiEatBatch {
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true"); // para sure, kahit may maligaw na AWT call
+        Path registry = null, inventoryFile = null, out = Paths.get(".");
+        boolean audit = true;
+        int sites = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--registry": registry = Paths.get(value(args, ++i)); break;
+                case "--inventory": inventoryFile = Paths.get(value(args, ++i)); break;
+                case "--out": out = Paths.get(value(args, ++i)); break;
+                case "--no-audit": audit = false; break;
+                case "--sites":
+                    try {
+                        sites = Integer.parseInt(value(args, ++i));
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                    break;
+                default: registry = null; i = args.length; // falls through to usage
+            }
+        }
+        if (registry == null || inventoryFile == null || sites < 1) usage();
+
+        try {
+            System.out.println(run(registry, inventoryFile, out, audit, sites));
+        } catch (Exception e) {
+            System.out.println("{\"ok\":false,\"error\":" + json(e.toString()) + "}");
+            System.exit(1);
+        }
+    }
+
+    static void usage() {
+        System.err.println("Usage: EquiEatBatch --registry registry.csv --inventory inventory.csv [--out dir] [--sites N] [--no-audit]");
+        System.exit(2);
+    }
+
+    // The argument after a flag; a flag at the very end has none
+    static String value(String[] args, int i) {
+        if (i >= args.length) usage();
+        return args[i];
+    }
+
+    static String run(Path registry, Path inventoryFile, Path out, boolean audit) throws IOException, InterruptedException {
+        return run(registry, inventoryFile, out, audit, 1);
+    }
+
+    static String run(Path registry, Path inventoryFile, Path out, boolean audit, int sites) throws IOException, InterruptedException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Long> millis = new LinkedHashMap<>();
+        result.put("ok", true);
+        // JVM start -> main, so startup cost shows up next to the work itself
+        millis.put("startup", ManagementFactory.getRuntimeMXBean().getUptime());
+        long start = System.nanoTime(), t = start;
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        SmartRationGUI.AuditLogger logger = audit ? new SmartRationGUI.AuditLogger() : null;
+
+        // 1. Import
+        SmartRationGUI.CsvImporter.ImportResult imported = SmartRationGUI.CsvImporter.importFileParallel(
+                registry.toString(), pool, SmartRationGUI.CsvImporter.Progress.NONE, true);
+        List<SmartRationGUI.Family> families = imported.families;
+        List<SmartRationGUI.Supply> inventory = SmartRationGUI.InventoryFile.read(inventoryFile);
+        millis.put("import", ms(t)); t = System.nanoTime();
+        result.put("families", families.size());
+        result.put("rejected", imported.rejected);
+        result.put("unknownPriorities", imported.unknownPriorities);
+        result.put("supplies", inventory.size());
+
+        // 1b. Possible double registrations, reported before anything is distributed
+        SmartRationGUI.FamilyStore store = SmartRationGUI.FamilyStore.backing(families);
+        SmartRationGUI.DuplicateDetector.Report duplicates = SmartRationGUI.DuplicateDetector.scan(store, pool);
+        Files.createDirectories(out);
+        if (!duplicates.isEmpty()) Files.write(out.resolve("Duplicate_Report.txt"), duplicates.toText(store).getBytes(StandardCharsets.UTF_8));
+        millis.put("duplicates", ms(t)); t = System.nanoTime();
+        result.put("duplicateGroups", duplicates.groups.size());
+        result.put("duplicateRows", duplicates.extraRows());
+        if (logger != null) logger.log("DATA_LOAD", "Batch: loaded demographics from " + registry.getFileName() + " (" + imported.summary() + "; " + duplicates.summary() + ")");
+
+        // 2. Distribute
+        List<SmartRationGUI.ShardedDistribution.LocalSiteWorker> workers = new ArrayList<>();
+        StringBuilder siteJson = new StringBuilder("[");
+        if (sites > 1) {
+            List<SmartRationGUI.FamilyStore> parts = SmartRationGUI.ShardedDistribution.partitionById(store, sites);
+            for (int k = 0; k < sites; k++) {
+                workers.add(new SmartRationGUI.ShardedDistribution.LocalSiteWorker("site-" + (k + 1), parts.get(k), new SmartRationGUI.RationEngine(pool)));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(sites);
+            SmartRationGUI.ShardedDistribution.Result sharded;
+            try {
+                sharded = SmartRationGUI.ShardedDistribution.run(workers, inventory, executor, SmartRationGUI.ShardedDistribution.DEFAULT_TIMEOUT_MS, true);
+            } finally {
+                executor.shutdownNow();
+            }
+            result.put("population", sharded.totalPopulation);
+            result.put("rebalanced", sharded.rebalanced());
+            result.put("held", sharded.held());
+            for (SmartRationGUI.ShardedDistribution.SiteOutcome o : sharded.sites) {
+                if (siteJson.length() > 1) siteJson.append(',');
+                siteJson.append("{\"site\":").append(json(o.site)).append(",\"status\":").append(json(o.status.name()));
+                if (o.census != null) siteJson.append(",\"population\":").append(o.census.population);
+                if (o.error != null) siteJson.append(",\"error\":").append(json(o.error));
+                siteJson.append('}');
+            }
+            if (logger != null) logger.log("DISTRIBUTION_RUN", "Batch: computed rations for " + families.size() + " families, " + sharded.summary());
+        } else {
+            SmartRationGUI.EligibilityIndex index = SmartRationGUI.EligibilityIndex.build(families);
+            new SmartRationGUI.RationEngine(pool).distributeWithRounding(families, inventory, (int) index.totalPopulation(), index);
+            result.put("population", index.totalPopulation());
+            if (logger != null) logger.log("DISTRIBUTION_RUN", "Batch: computed rations for " + families.size() + " families.");
+        }
+        siteJson.append(']');
+        millis.put("distribute", ms(t)); t = System.nanoTime();
+
+        // 3. Analyze
+        String census = SmartRationGUI.DemographicAnalyzer.analyze(families);
+        Files.write(out.resolve("Census_Report.txt"), census.getBytes(StandardCharsets.UTF_8));
+        millis.put("analyze", ms(t)); t = System.nanoTime();
+
+        // 4. Export (sharded: the center's reserve report, then every site's own packing list and stubs)
+        List<SmartRationGUI.ExportPipeline.FileStats> files;
+        if (workers.isEmpty()) {
+            files = SmartRationGUI.ExportPipeline.exportAll(families, inventory, out, pool, SmartRationGUI.CsvImporter.Progress.NONE);
+        } else {
+            files = new ArrayList<>();
+            long reserveStart = System.nanoTime();
+            Path reserve = out.resolve(SmartRationGUI.ExportPipeline.RESERVE_REPORT);
+            SmartRationGUI.ReportGenerator.generateReserveReport(inventory, reserve.toString(), SmartRationGUI.CsvImporter.Progress.NONE);
+            files.add(new SmartRationGUI.ExportPipeline.FileStats(reserve, Files.size(reserve), System.nanoTime() - reserveStart));
+            for (SmartRationGUI.ShardedDistribution.LocalSiteWorker w : workers) {
+                if (w.inventory().isEmpty()) continue; // excluded or failed before distributing
+                Path dir = Files.createDirectories(out.resolve(w.site()));
+                files.addAll(SmartRationGUI.ExportPipeline.exportAll(w.store().asList(), w.inventory(), dir, pool, SmartRationGUI.CsvImporter.Progress.NONE));
+            }
+        }
+        millis.put("export", ms(t));
+        StringBuilder exported = new StringBuilder("[");
+        for (SmartRationGUI.ExportPipeline.FileStats f : files) {
+            if (exported.length() > 1) exported.append(',');
+            exported.append("{\"file\":").append(json(f.file.toString()))
+                    .append(",\"bytes\":").append(f.bytes)
+                    .append(",\"ms\":").append(f.nanos / 1_000_000);
+            if (f.detail != null) exported.append(",\"detail\":").append(json(f.detail));
+            exported.append('}');
+        }
+        exported.append(']');
+        if (logger != null) {
+            logger.log("EXPORT", "Batch: files generated in " + out.toAbsolutePath());
+            SmartRationGUI.AuditLogger.flush();
+        }
+        millis.put("total", ms(start));
+
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> e : result.entrySet()) sb.append(json(e.getKey())).append(':').append(e.getValue()).append(',');
+        sb.append("\"ms\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> e : millis.entrySet()) {
+            if (!first) sb.append(',');
+            sb.append(json(e.getKey())).append(':').append(e.getValue());
+            first = false;
+        }
+        sb.append('}');
+        if (!workers.isEmpty()) sb.append(",\"sites\":").append(siteJson);
+        return sb.append(",\"files\":").append(exported).append('}').toString();
+    }
+
+    private static long ms(long since) { return (System.nanoTime() - since) / 1_000_000; }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -1,15 +1,71 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.plaf.basic.BasicTabbedPaneUI;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 
 
@@ -33,17 +89,38 @@ public class SmartRationGUI extends JFrame { // Creates our GUI/Window
     // You Can't Add It Directly As A Data To A Table Or You Can But Mahirap and Hassle
     // MVC: Model-View-Controller (Java Swing)
     private DefaultTableModel inventoryTableModel;
-    private DefaultTableModel resultsTableModel;
+    private ResultsTableModel resultsTableModel;
     private DefaultTableModel reserveTableModel;
     private JLabel statusLabel; // Our UI Feedback: Status of Waiting for Data Or Received
+    private CsvImporter.ImportResult lastImport; // Row counts and speed of the last CSV import
+    private JProgressBar progressBar; // Progress of the running background task
+    private JButton cancelBtn;
+    private SwingWorker<?, ?> currentTask;
+    private final List<JComponent> actionControls = new ArrayList<>(); // Disabled while a task is running
+    private DistributionSession session; // Allocation state of the last run, for incremental updates
+    private final List<Supply> reserveSupplies = new ArrayList<>(); // Supply shown in each reserve table row
+    private boolean revertingEdit; // Set while an invalid inventory edit is being undone
+    private boolean dirty; // Families, inventory or results changed since the last snapshot
+    private String sessionLabel = ""; // Registry file the loaded families came from, kept in the snapshot
+    private DuplicateDetector.Report duplicates; // Possible double registrations in loadedFamilies (null = not checked yet)
+    private ClaimLedger claimLedger; // Redemptions against the current session's store (null until the Claim Desk opens)
+    private volatile ApiServer apiServer; // Local JSON API for kiosks and dashboards (null while stopped)
+    private static final int AUTOSAVE_MS = 60_000;
 
     // ENGINES | BRAINS
     // Private Final Variable So That It Will Not Be Change ANYWHERE
     // Private so that only this class will be able to touch it or modify
     // BUT usage of final so that it CANNOT be modified as it will be absolute
     // And we only need one brain or engine within our program
-    private final RationEngine engine = new RationEngine();
+    private final RationEngine engine = new RationEngine(ForkJoinPool.commonPool());
     private final AuditLogger logger = new AuditLogger();
+
+    // One background worker thread; tasks queue up instead of running on the EDT
+    private final ExecutorService taskExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "EquiEat-Worker");
+        t.setDaemon(true);
+        return t;
+    });
     
     // try-catch method
     // try { unsure input / risky input } catch {what you do after an error occurs}
@@ -53,8 +130,9 @@ public class SmartRationGUI extends JFrame { // Creates our GUI/Window
         SwingUtilities.invokeLater(() -> new bootStrapper().setVisible(true)); // Prevents the GUI to crash
     } // Lets the background thread do the math while the EDT provides the user GUI
 
-    // Bootstrap/Loading Screen Class 
-    // This makes an illusion that something is processing while the program is loading the main GUI
+    // Bootstrap/Loading Screen Class
+    // Shows the splash while StartupPipeline does the real startup work in the background;
+    // the progress bar follows the finished steps and the main GUI opens as soon as the last one is done
 static class bootStrapper extends JFrame {
 
     static ImageIcon[] frames; // Array of frames for animation
@@ -62,37 +140,33 @@ static class bootStrapper extends JFrame {
     static int currentFrame = 0; // Current frame index
 
     public bootStrapper() {
-        AuditLogger tempLogger = new AuditLogger();
-        tempLogger.log("SYSTEM_STARTUP", "Application launched.");
-
-        
         setTitle("BootStrapper - Smart Rationing System");
         setSize(1000, 500);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         setUndecorated(true); // Makes no border or titlebar
         setShape(new RoundRectangle2D.Double(0, 0, getWidth(), getHeight(), 20, 20)); // Roundds the corners of the window
-        
+
 
         // Inputs background image and sets it as the content pane, allowing us to add components on top of it
-        JLabel background = new JLabel(new ImageIcon("resources\\bootStrapBG.png"));
+        JLabel background = new JLabel(ImageCache.get("bootStrapBG.png"));
         background.setLayout(new BorderLayout());
         setContentPane(background);
 
-        
+
         //initializes the labels of this loading screen
         JLabel label = new JLabel("Loading EquiEat Smart Rationing System...", SwingConstants.CENTER);
         label.setFont(new Font("Arial", Font.BOLD, 14));
-        
-        
+
+
         JPanel bottomPanel = new JPanel(new BorderLayout());
         JLabel loadingStatus = new JLabel("Loading... ", SwingConstants.LEFT);
         JProgressBar progressBar = new JProgressBar(0, 100); // Uses the progress bar to visually show the loading progress
-        
+
         progressBar.setStringPainted(true);
         loadingStatus.setFont(new Font("Arial", Font.PLAIN, 15));
         progressBar.setFont(new Font("Arial", Font.PLAIN, 15));
-        
+
         bottomPanel.add(loadingStatus, BorderLayout.WEST);
         bottomPanel.add(progressBar, BorderLayout.CENTER);
         background.add(label, BorderLayout.CENTER);
@@ -100,12 +174,8 @@ static class bootStrapper extends JFrame {
 
         // uses array to store the file of each frames
         frames = new ImageIcon[5];
-        frames[0] = new ImageIcon("resources\\frame1.png");
-        frames[1] = new ImageIcon("resources\\frame2.png");
-        frames[2] = new ImageIcon("resources\\frame3.png");
-        frames[3] = new ImageIcon("resources\\frame4.png");
-        frames[4] = new ImageIcon("resources\\frame5.png");
-        
+        for (int i = 0; i < frames.length; i++) frames[i] = ImageCache.get("frame" + (i + 1) + ".png");
+
         // animation starts at frame 1
         animationLabel = new JLabel(frames[0]);
         add(animationLabel, BorderLayout.CENTER);
@@ -114,10 +184,10 @@ static class bootStrapper extends JFrame {
 
         // Uses timer t to create the looping animation
         Timer timer = new Timer(200, new ActionListener(){
-            @Override 
+            @Override
             public void actionPerformed(ActionEvent e){
-                currentFrame++; // increments array index 
-                
+                currentFrame++; // increments array index
+
                 if(currentFrame >= frames.length){ // checks if the current frame is greater than to the frames length
                     currentFrame =0; // resets the frame to 0
                 }
@@ -127,80 +197,195 @@ static class bootStrapper extends JFrame {
         });
 
         timer.start();
-        
 
-        // Uses the array to allow modification inside the lambda expression of the timer
-        int[] progress = {0};
-            Timer progressTimer = new Timer(50, e -> {
-            progress[0]++;
-            progressBar.setValue(progress[0]);
+        // The checks, asset decoding and warm-up all run off the EDT; every callback below comes back through invokeLater
+        StartupPipeline.start((step, done, total) -> SwingUtilities.invokeLater(() -> {
+            progressBar.setValue(done * 100 / total);
+            loadingStatus.setText(step + " done (" + done + "/" + total + ")");
+        })).whenComplete((steps, error) -> SwingUtilities.invokeLater(() -> {
+            timer.stop();
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                JOptionPane.showMessageDialog(this, cause instanceof StartupPipeline.StartupException
+                        ? cause.getMessage() : "Startup failed: " + cause);
+                System.exit(1);
+            }
+            // Checks when all the steps are done, disposes the loading screen, and opens the main GUI -v-
+            new SmartRationGUI().setVisible(true);
+            dispose();
+            new AuditLogger().log("SYSTEM_STARTUP", StartupPipeline.describe(steps));
+        }));
+    }
+}
+
+    // Image Cache
+    // Each PNG is decoded once with ImageIO and each size is scaled once into a BufferedImage, so the tab icons
+    // are not decoded and rescaled again (ImageIcon + getScaledInstance) every time the GUI asks for them
+    static class ImageCache {
+        static final Path RESOURCES = Paths.get("resources");
+        private static final ConcurrentHashMap<String, ImageIcon> CACHE = new ConcurrentHashMap<>();
+
+        static ImageIcon get(String file) { return get(file, 0, 0); }
 
-            // Updates teh status when percentage reaches certain percentage
-            if(progress[0] == 10) {
-                loadingStatus.setText("Checking directories...");
-                File resourcesDir = new File("resources"); 
-                if (!resourcesDir.exists()){ // Checks if resource folder is existing
-                    JOptionPane.showMessageDialog(this, "Error 1: Missing 'resources' folder. Please reinstall!");
-                    System.exit(1);
-                }  
+        // width/height 0 = original size; null if the file is missing or unreadable
+        static ImageIcon get(String file, int width, int height) {
+            String key = file + "@" + width + "x" + height;
+            ImageIcon icon = CACHE.get(key);
+            if (icon == null) {
+                // Decoded outside the map lock so different files can load at the same time
+                icon = load(file, width, height);
+                if (icon != null) {
+                    ImageIcon raced = CACHE.putIfAbsent(key, icon);
+                    if (raced != null) icon = raced;
+                }
             }
+            return icon;
+        }
 
-            else if(progress[0] == 20) {
-                loadingStatus.setText("Loading assets...");
-                ImageIcon bg = new ImageIcon("resources\\bootStrapBG.png"); // Preloads the image to ensure it's cached
-                setIconImage(new ImageIcon("resources\\icon.png").getImage());
-                setIconImage(new ImageIcon("resources\\control.png").getImage());
-                setIconImage(new ImageIcon("resources\\distribution.png").getImage());
-                setIconImage(new ImageIcon("resources\\reserve.png").getImage());
-                if (bg.getIconWidth() == -1){
-                    JOptionPane.showMessageDialog(this, "Error 2: Missing file in resources. Please reinstall!"); //if one of the file is missing, error 2 will show up
-                    System.exit(1);
+        private static ImageIcon load(String file, int width, int height) {
+            try {
+                if (width <= 0 || height <= 0) {
+                    BufferedImage image = ImageIO.read(RESOURCES.resolve(file).toFile());
+                    return image == null ? null : new ImageIcon(image);
                 }
+                ImageIcon original = get(file);
+                return original == null ? null : new ImageIcon(scale((BufferedImage) original.getImage(), width, height));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        // Halves step by step, then one last step to the exact size: a single bilinear jump from a
+        // 1000 px PNG down to 50 px would skip most of the pixels and look jagged
+        static BufferedImage scale(BufferedImage image, int width, int height) {
+            while (true) {
+                int w = image.getWidth() / 2 >= width ? image.getWidth() / 2 : width;
+                int h = image.getHeight() / 2 >= height ? image.getHeight() / 2 : height;
+                BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = next.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(image, 0, 0, w, h, null);
+                g.dispose();
+                image = next;
+                if (w == width && h == height) return image;
             }
+        }
+    }
+
+    // Startup Pipeline
+    // What the bootstrapper really waits for, as separate tasks on the common pool: directory check, asset
+    // decoding into ImageCache, write permission probe, audit log open, and a small import + distribution so
+    // the parsers and the engine are loaded and warm before the first real file. Every step is timed.
+    static class StartupPipeline {
+        // Fatal startup problem; the message is what the user sees before the app closes
+        static class StartupException extends RuntimeException {
+            StartupException(String message) { super(message); }
+        }
+
+        static final class Step {
+            final String name;
+            final long nanos;
+            Step(String name, long nanos) { this.name = name; this.nanos = nanos; }
+        }
+
+        interface Listener { void stepDone(String step, int done, int total); }
+
+        // Tab icons are optional (the tab then shows text only); the background is not
+        private static final String REQUIRED_ASSET = "bootStrapBG.png";
+        private static final String[] ASSETS = {"icon.png"};
+        private static final String[] TAB_ICONS = {"control.png", "distribution.png", "reserve.png"};
+        static final int TAB_ICON_SIZE = 50;
+        private static final int WARMUP_FAMILIES = 2_000;
 
-            else if(progress[0] == 50){
-                loadingStatus.setText("Loading system resources...");
-                new RationEngine();
+        static CompletableFuture<List<Step>> start(Listener listener) {
+            List<Step> steps = new CopyOnWriteArrayList<>();
+            int total = 5 + ASSETS.length + TAB_ICONS.length; // directories, background, permissions, audit log, warm-up + images
+            Function<String, Consumer<Runnable>> timed = name -> work -> {
+                long start = System.nanoTime();
+                work.run();
+                steps.add(new Step(name, System.nanoTime() - start));
+                listener.stepDone(name, steps.size(), total);
+            };
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+            // Assets need the folder, so they chain after the directory check; everything else starts right away
+            CompletableFuture<Void> directories = CompletableFuture.runAsync(() -> timed.apply("Checking directories").accept(() -> {
+                if (!Files.isDirectory(ImageCache.RESOURCES)) throw new StartupException("Error 1: Missing 'resources' folder. Please reinstall!");
+            }));
+            tasks.add(directories);
+            tasks.add(directories.thenRunAsync(() -> timed.apply("Loading " + REQUIRED_ASSET).accept(() -> {
+                if (ImageCache.get(REQUIRED_ASSET) == null) throw new StartupException("Error 2: Missing file in resources. Please reinstall!");
+            })));
+            for (String asset : ASSETS) {
+                tasks.add(directories.thenRunAsync(() -> timed.apply("Loading " + asset).accept(() -> ImageCache.get(asset))));
+            }
+            for (String icon : TAB_ICONS) {
+                tasks.add(directories.thenRunAsync(() -> timed.apply("Scaling " + icon).accept(() -> ImageCache.get(icon, TAB_ICON_SIZE, TAB_ICON_SIZE))));
             }
+            tasks.add(directories.thenRunAsync(() -> timed.apply("Verifying permissions").accept(StartupPipeline::checkWritable)));
+            tasks.add(CompletableFuture.runAsync(() -> timed.apply("Opening audit log").accept(() ->
+                    new AuditLogger().log("SYSTEM_STARTUP", "Application launched."))));
+            tasks.add(CompletableFuture.runAsync(() -> timed.apply("Warming up engine").accept(StartupPipeline::warmUp)));
 
-            else if (progress[0] == 70){
-                loadingStatus.setText("Verifying permissions...");
-                File testFile = new File("resources\\test.tmp"); // create temp file to make sure that the system has permission
-                try {
-                    boolean created = testFile.createNewFile();
-                    if(created){
-                        testFile.delete(); // deletes the file immediately
-                    } else 
-                    {
-                        testFile.delete();
-                    }
-                } catch (IOException ioException) {
-                    JOptionPane.showMessageDialog(this, "Error 3: Insufficient write permissions in application directory.");
-                    System.exit(1);
-                } 
-                    
-            }
-
-            else if(progress[0] == 90){
-                loadingStatus.setText("Finalizing setup...");
-            }
-            
-            // Checks when the progress has reached 100%, disposes the loading screen, and opens the main GUI -v-
-            if (progress[0] >= 100) {
-                ((javax.swing.Timer)e.getSource()).stop();
-                new SmartRationGUI().setVisible(true);
-                dispose();
+            return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(v -> new ArrayList<>(steps));
+        }
+
+        // create temp file to make sure that the system has permission, deleted right away
+        private static void checkWritable() {
+            try {
+                Files.delete(Files.createTempFile(ImageCache.RESOURCES, "test", ".tmp"));
+            } catch (IOException e) {
+                throw new StartupException("Error 3: Insufficient write permissions in application directory.");
             }
-        });
+        }
 
-        progressTimer.start();
+        // Runs a tiny generated registry through both importers, the engine, the index and the census once.
+        // Not fatal: a failed warm-up only means the first real run starts cold.
+        private static void warmUp() {
+            Path registry = null, stock = null;
+            try {
+                registry = Files.createTempFile("equieat-warmup", ".csv");
+                stock = Files.createTempFile("equieat-warmup-inventory", ".csv");
+                RegistryGenerator.Options o = new RegistryGenerator.Options();
+                o.families = WARMUP_FAMILIES;
+                o.threads = 1;
+                long population = RegistryGenerator.writeRegistry(registry, o);
+                CsvImporter.importFile(registry.toString());
+                List<Family> families = CsvImporter.importFileParallel(registry.toString(), ForkJoinPool.commonPool(),
+                        CsvImporter.Progress.NONE, true).families;
+                RegistryGenerator.writeInventory(stock, o, population);
+                List<Supply> inventory = InventoryFile.read(stock);
+                EligibilityIndex index = EligibilityIndex.build(families);
+                new RationEngine(ForkJoinPool.commonPool()).distributeWithRounding(families, inventory, (int) population, index);
+                ResultIndex.build(families, index);
+                DemographicAnalyzer.analyze(families);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Engine warm-up skipped: " + e);
+            } finally {
+                if (registry != null) registry.toFile().delete();
+                if (stock != null) stock.toFile().delete();
+            }
+        }
+
+        // "Startup ready (slowest step 212 ms, JVM start to window 980 ms): Checking directories 1 ms, ..."
+        static String describe(List<Step> steps) {
+            StringBuilder sb = new StringBuilder();
+            long slowest = 0;
+            for (Step s : steps) {
+                slowest = Math.max(slowest, s.nanos);
+                sb.append(sb.length() == 0 ? "" : ", ").append(s.name).append(' ').append(s.nanos / 1_000_000).append(" ms");
+            }
+            return "Startup ready (slowest step " + slowest / 1_000_000 + " ms, JVM start to window "
+                    + ManagementFactory.getRuntimeMXBean().getUptime() + " ms): " + sb;
+        }
     }
-}
 
     public SmartRationGUI() {
         logger.log("SYSTEM_STARTUP", "Main Application launched.");
 
-        setIconImage(new ImageIcon("resources\\icon.png").getImage());
+        ImageIcon appIcon = ImageCache.get("icon.png");
+        if (appIcon != null) setIconImage(appIcon.getImage());
         setTitle("EquiEat -Smart Rationing System (SRS) - Integer Mode");
         setSize(1100, 700);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // X = Close the program :D
@@ -251,20 +436,96 @@ static class bootStrapper extends JFrame {
             BorderFactory.createEmptyBorder(10, 20, 10, 20)            // Padding
         ));
         
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        cancelBtn = new JButton("Cancel");
+        cancelBtn.setVisible(false);
+        cancelBtn.addActionListener(e -> { if (currentTask != null) currentTask.cancel(true); });
+        JButton auditBtn = new JButton("Audit Log");
+        auditBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        auditBtn.addActionListener(e -> showAuditQuery());
+        JButton refreshBtn = new JButton("Refresh Registry");
+        refreshBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        refreshBtn.setToolTipText("Re-import a newer export of the loaded registry; only added, removed and changed households are applied");
+        refreshBtn.addActionListener(e -> refreshRegistry());
+        JButton restoreBtn = new JButton("Restore Session");
+        restoreBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        restoreBtn.setToolTipText("Reload the last autosaved families, inventory and results from " + SessionSnapshot.DEFAULT_FILE);
+        restoreBtn.addActionListener(e -> restoreSession());
+        JButton duplicatesBtn = new JButton("Duplicates");
+        duplicatesBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        duplicatesBtn.setToolTipText("Households that look registered more than once (same ID, or same/similar name and size)");
+        duplicatesBtn.addActionListener(e -> withDuplicateReport(this::showDuplicates));
+        JButton demographicsBtn = new JButton("Demographics");
+        demographicsBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        demographicsBtn.setToolTipText("Cross-tab the loaded families by priority needs and family size");
+        demographicsBtn.addActionListener(e -> showDemographics());
+        JButton claimsBtn = new JButton("Claim Desk");
+        claimsBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        claimsBtn.setToolTipText("Scan or type the Family ID on a claim stub to mark the pack as collected (" + ClaimLedger.DEFAULT_FILE + ")");
+        claimsBtn.addActionListener(e -> showClaimDesk());
+        JButton apiBtn = new JButton("Start API");
+        apiBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        apiBtn.setToolTipText("Serve families, packing lists, reserve, demographics and claims as JSON for kiosks and dashboards");
+        apiBtn.addActionListener(e -> toggleApi(apiBtn));
+
         topPanel.add(loadBtn);
+        topPanel.add(refreshBtn);
         topPanel.add(statusLabel);
+        topPanel.add(progressBar);
+        topPanel.add(cancelBtn);
+        topPanel.add(auditBtn);
+        topPanel.add(demographicsBtn);
+        topPanel.add(duplicatesBtn);
+        topPanel.add(claimsBtn);
+        topPanel.add(apiBtn);
+        topPanel.add(restoreBtn);
+        actionControls.add(loadBtn);
+        actionControls.add(demographicsBtn);
+        actionControls.add(duplicatesBtn);
+        actionControls.add(claimsBtn);
+        actionControls.add(restoreBtn);
+        actionControls.add(refreshBtn);
         operationsPanel.add(topPanel, BorderLayout.NORTH);
         
 
         JPanel formPanel = createInventoryForm();
 
         String[] invCols = {"Category", "Item Name", "Qty", "Target Priority"};
-        inventoryTableModel = new DefaultTableModel(invCols, 0);
+        inventoryTableModel = new DefaultTableModel(invCols, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) { return column == 1 || column == 2; } // Name and Qty only
+        };
+        inventoryTableModel.addTableModelListener(e -> {
+            if (e.getType() == TableModelEvent.UPDATE && !revertingEdit && e.getFirstRow() >= 0
+                    && e.getFirstRow() == e.getLastRow() && (e.getColumn() == 1 || e.getColumn() == 2)) {
+                editInventoryRow(e.getFirstRow());
+            }
+        });
         JTable invTable = new JTable(inventoryTableModel);
         JScrollPane invScroll = new JScrollPane(invTable);
-        invScroll.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(new Color(255, 255, 255), 2), "2. Warehouse Inventory"));
 
-        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, formPanel, invScroll);
+        JButton removeBtn = new JButton("Remove Selected Item");
+        removeBtn.addActionListener(e -> {
+            int row = invTable.getSelectedRow();
+            if (row < 0) return;
+            if (invTable.isEditing()) invTable.getCellEditor().cancelCellEditing();
+            Supply removed = inventoryList.remove(row);
+            inventoryTableModel.removeRow(row);
+            dirty = true;
+            logger.log("INVENTORY_REMOVE", "Removed " + removed.qty + "x " + removed.name);
+            redistribute(removed, null, ses -> ses.removeSupply(row));
+        });
+        actionControls.add(removeBtn);
+        actionControls.add(invTable);
+
+        JPanel invPanel = new JPanel(new BorderLayout());
+        invPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(new Color(255, 255, 255), 2), "2. Warehouse Inventory"));
+        invPanel.add(invScroll, BorderLayout.CENTER);
+        invPanel.add(removeBtn, BorderLayout.SOUTH);
+
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, formPanel, invPanel);
         splitPane.setDividerLocation(350);
         operationsPanel.add(splitPane, BorderLayout.CENTER);
 
@@ -287,13 +548,14 @@ static class bootStrapper extends JFrame {
         ));       
         
         runBtn.addActionListener(e -> runDistribution(tabbedPane));
+        actionControls.add(runBtn);
 
         operationsPanel.add(runBtn, BorderLayout.SOUTH);
 
         // Load icons for tabs (create small icons, e.g., 20x20 pixels)
-        ImageIcon controlIcon = createScaledIcon("resources\\control.png", 50,50);
-        ImageIcon resultsIcon = createScaledIcon("resources\\distribution.png", 50, 50);
-        ImageIcon reserveIcon = createScaledIcon("resources\\reserve.png", 50, 50);
+        ImageIcon controlIcon = ImageCache.get("control.png", StartupPipeline.TAB_ICON_SIZE, StartupPipeline.TAB_ICON_SIZE);
+        ImageIcon resultsIcon = ImageCache.get("distribution.png", StartupPipeline.TAB_ICON_SIZE, StartupPipeline.TAB_ICON_SIZE);
+        ImageIcon reserveIcon = ImageCache.get("reserve.png", StartupPipeline.TAB_ICON_SIZE, StartupPipeline.TAB_ICON_SIZE);
 
         tabbedPane.addTab("Control Center", controlIcon, operationsPanel);
         tabbedPane.setBackgroundAt(0, new Color(26, 62, 66)); // Blue background
@@ -301,18 +563,50 @@ static class bootStrapper extends JFrame {
 
         // RESULTS
         JPanel resultsPanel = new JPanel(new BorderLayout());
-        String[] resCols = {"Family ID", "Head of Family", "Size", "Needs", "RATION PACK CONTENT"};
-        resultsTableModel = new DefaultTableModel(resCols, 0);
+        resultsTableModel = new ResultsTableModel();
         JTable resultsTable = new JTable(resultsTableModel);
         resultsTable.setRowHeight(30);
         resultsTable.getColumnModel().getColumn(4).setPreferredWidth(500);
+        resultsTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                resultsTableModel.sortBy(resultsTable.columnAtPoint(e.getPoint()));
+            }
+        });
         resultsPanel.add(new JScrollPane(resultsTable), BorderLayout.CENTER);
 
+        // Search bar, answered from the ResultIndex built with the distribution
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField searchField = new JTextField(40);
+        searchField.setToolTipText("e.g. HAS_INFANT AND name:\"Dela Cruz\"   id:F-10   NOT PWD santos");
+        JLabel searchStatus = new JLabel(" ");
+        JButton clearBtn = new JButton("Clear");
+        searchField.addActionListener(e -> {
+            ResultIndex index = resultsTableModel.getIndex();
+            if (index == null) return;
+            String query = searchField.getText().trim();
+            long start = System.nanoTime();
+            BitSet rows = query.isEmpty() ? null : index.search(query);
+            resultsTableModel.setFilter(rows);
+            searchStatus.setText(query.isEmpty() ? " " : String.format("%,d matches (%.2f ms)", rows.cardinality(), (System.nanoTime() - start) / 1e6));
+        });
+        clearBtn.addActionListener(e -> {
+            searchField.setText("");
+            resultsTableModel.setFilter(null);
+            searchStatus.setText(" ");
+        });
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(searchField);
+        searchPanel.add(clearBtn);
+        searchPanel.add(searchStatus);
+        resultsPanel.add(searchPanel, BorderLayout.NORTH);
+
         JButton exportBtn = new JButton("Export Reports & Tickets");
         exportBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         exportBtn.setOpaque(true);
         exportBtn.setBorderPainted(false);
         exportBtn.addActionListener(e -> exportResults());
+        actionControls.add(exportBtn);
         resultsPanel.add(exportBtn, BorderLayout.SOUTH);
 
         tabbedPane.addTab("Distribution Results", resultsIcon, resultsPanel);
@@ -334,7 +628,7 @@ static class bootStrapper extends JFrame {
 
         add(tabbedPane);
 
-        
+        new Timer(AUTOSAVE_MS, e -> autosave()).start();
     }
 
     private JPanel createInventoryForm() {
@@ -381,374 +675,6227 @@ static class bootStrapper extends JFrame {
                 inventoryList.add(s);
                 inventoryTableModel.addRow(new Object[]{cat, name, qty, (prio == null ? "ALL" : prio)});
                 logger.log("INVENTORY_ADD", "Added " + qty + "x " + name);
+                dirty = true;
                 nameField.setText(""); qtyField.setText("");
+
+                int supply = inventoryList.size() - 1;
+                redistribute(null, s, ses -> ses.addSupply(supply, s));
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Invalid Input.");
             }
         });
+        actionControls.add(addBtn);
         panel.add(new JLabel("")); panel.add(addBtn);
         return panel;
     }
 
-    private void loadCSV() {
-        JFileChooser fileChooser = new JFileChooser();
-        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            loadedFamilies = importCSV(file.getAbsolutePath());
-            if (!loadedFamilies.isEmpty()) {
-                statusLabel.setText("Status: Ready (" + loadedFamilies.size() + " Families Loaded)");
-                statusLabel.setForeground(new Color(0, 150, 0));
-                logger.log("DATA_LOAD", "Loaded demographics from: " + file.getName());
-            }
+    // Name/Qty typed into the inventory table: swap in an updated Supply and recompute only its column
+    private void editInventoryRow(int row) {
+        Supply old = inventoryList.get(row);
+        try {
+            String name = String.valueOf(inventoryTableModel.getValueAt(row, 1));
+            int qty = Integer.parseInt(String.valueOf(inventoryTableModel.getValueAt(row, 2)).trim());
+            Supply updated = new Supply(name, old.cat, qty, old.target);
+            inventoryList.set(row, updated);
+            logger.log("INVENTORY_EDIT", "Changed " + old.qty + "x " + old.name + " to " + qty + "x " + name);
+            dirty = true;
+            redistribute(old, updated, ses -> ses.replaceSupply(row, updated));
+        } catch (NumberFormatException ex) {
+            revertingEdit = true;
+            inventoryTableModel.setValueAt(old.name, row, 1);
+            inventoryTableModel.setValueAt(old.qty, row, 2);
+            revertingEdit = false;
+            JOptionPane.showMessageDialog(this, "Invalid Input.");
         }
     }
 
-    private List<Family> importCSV(String filePath) {
-        List<Family> list = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine();
-            if (line == null) return list;
-            line = line.replace("\uFEFF", "");
-            String delimiter = line.contains(";") ? ";" : ",";
-            String[] headers = line.split(delimiter);
+    // Applies one inventory change to the last distribution (if any) on the worker thread,
+    // then refreshes only the result rows and reserve row that changed
+    private void redistribute(Supply before, Supply after, Function<DistributionSession, BitSet> change) {
+        publishApiModel(); // the inventory changed either way
+        DistributionSession current = session;
+        if (current == null) return; // Nothing distributed yet: the next RUN DISTRIBUTION picks it up
+        ClaimLedger ledger = claimLedger;
 
-            int idIndex = -1, nameIndex = -1, sizeIndex = -1, priorityIndex = -1;
-            for (int i = 0; i < headers.length; i++) {
-                String h = headers[i].trim().toLowerCase().replace("\"", "");
-                if (h.equals("id")) idIndex = i;
-                else if (h.contains("head") || h.contains("name")) nameIndex = i;
-                else if (h.contains("size")) sizeIndex = i;
-                else if (h.contains("priorit")) priorityIndex = i;
-            }
-            if (sizeIndex == -1) {
-                JOptionPane.showMessageDialog(this, "Error: Could not find 'Size' column.");
-                return list;
-            }
-            while ((line = br.readLine()) != null) {
-                if(line.trim().isEmpty()) continue;
-                String[] data = line.split(delimiter);
-                if (data.length <= sizeIndex) continue;
+        resultsTableModel.beginUpdate();
+        taskExecutor.execute(new SwingWorker<RowUpdate, Void>() {
+            @Override
+            protected RowUpdate doInBackground() {
+                long start = System.nanoTime();
+                // With the Claim Desk open, claims wait while the allocations change and the counts are redone after
+                BitSet changed = changeModel(() -> ledger != null ? ledger.update(() -> change.apply(current)) : change.apply(current));
+                RowUpdate update = new RowUpdate(changed.cardinality());
+                int k = 0;
+                for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1), k++) {
+                    update.rows[k] = i;
+                    update.packs[k] = current.getStore().getFormattedPackingList(i);
+                }
+                update.nanos = System.nanoTime() - start;
+                return update;
+            }
+
+            @Override
+            protected void done() {
+                resultsTableModel.endUpdate();
+                if (session != current) return; // A newer import/run replaced these results
                 try {
-                    String id = (idIndex != -1 && idIndex < data.length) ? data[idIndex].replace("\"", "").trim() : "Unknown";
-                    String name = (nameIndex != -1 && nameIndex < data.length) ? data[nameIndex].replace("\"", "").trim() : "Unknown";
-                    int size = Integer.parseInt(data[sizeIndex].replace("\"", "").trim());
-                    Set<PriorityAttribute> attributes = new HashSet<>();
-                    if (priorityIndex != -1 && priorityIndex < data.length) {
-                        String rawPrio = data[priorityIndex].replace("\"", "");
-                        for (String p : rawPrio.split(";")) {
-                            String key = p.trim().toUpperCase().replace(" ", "_");
-                            if (!key.isEmpty() && !key.equals("NONE")) {
-                                try { attributes.add(PriorityAttribute.valueOf(key)); } catch(Exception ignored){}
-                            }
-                        }
-                    }
-                    list.add(new Family(id, name, size, attributes));
-                } catch (Exception ignored) {}
+                    RowUpdate update = get();
+                    resultsTableModel.rowsUpdated(update.rows, update.packs);
+                    updateReserveRow(before, after);
+                    publishApiModel();
+                    statusLabel.setText(String.format("Status: Updated %d families in %.1f ms", update.rows.length, update.nanos / 1e6));
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(SmartRationGUI.this, "Error updating distribution: " + e.getMessage());
+                }
             }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error reading file: " + e.getMessage());
-        }
-        return list;
+        });
     }
 
-    private void runDistribution(JTabbedPane tabs) {
-        if (loadedFamilies.isEmpty() || inventoryList.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Missing Data.");
-            return;
-        }
-
+    // Packing lists recomputed by one incremental update
+    private static class RowUpdate {
+        final int[] rows;
+        final String[] packs;
+        long nanos;
 
-        // Reset
-        for (Family f : loadedFamilies) f.clearReceived();
-        for (Supply s : inventoryList) s.setLeftover(0);
-        int totalPop = loadedFamilies.stream().mapToInt(Family::getMemberCount).sum();
+        RowUpdate(int count) { rows = new int[count]; packs = new String[count]; }
+    }
 
-        // 2. Run Engine (Updated to Whole Numbers)
-        engine.distributeWithRounding(loadedFamilies, inventoryList, totalPop);
+    // Results tab model: reads the families (or their FamilyStore view) only for the rows JTable paints.
+    // Packing lists are formatted on first paint and kept in a small LRU cache, the "Needs" text
+    // once per attribute combination, so showing a million families costs about as much as showing 30.
+    static class ResultsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Family ID", "Head of Family", "Size", "Needs", "RATION PACK CONTENT"};
+        private static final int PACK_CACHE_SIZE = 4096; // a few screens worth of rows
 
-        // The Analysis of Demographic Data
-        String censusReport = DemographicAnalyzer.analyze(loadedFamilies);
+        private List<Family> families = Collections.emptyList();
+        private ResultIndex index;
+        private BitSet filter;     // null = all families
+        private int sortColumn = -1;
+        private boolean descending;
+        private int[] view;        // table row -> family row, null = families in file order
+        private final Map<Long, String> needsByMask = new HashMap<>();
+        private final Map<Integer, String> packs = new LinkedHashMap<Integer, String>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) { return size() > PACK_CACHE_SIZE; }
+        };
+        // Inventory updates queued or running on the worker; while any is left, the allocations may be changing
+        // (a second quick edit is often still queued when the first one's done() runs), so only cached packs are shown
+        private int pendingUpdates;
 
-        // Update UI
-        resultsTableModel.setRowCount(0);
-        for (Family f : loadedFamilies) {
-            String pack = f.getFormattedPackingList();
-            resultsTableModel.addRow(new Object[]{
-                    f.getId(), f.getHeadOfFamily(), f.getMemberCount(), f.attributes.toString().replace(",", " "), pack
-            });
+        void setFamilies(List<Family> families, ResultIndex index) {
+            this.families = families;
+            this.index = index;
+            filter = null;
+            sortColumn = -1;
+            view = null;
+            packs.clear();
+            fireTableDataChanged();
         }
 
-        reserveTableModel.setRowCount(0);
-        for (Supply s : inventoryList) {
-            if (s.cat == SupplyCategory.SPECIALIZED_MED || s.leftover > 0) {
-                String status = (s.cat == SupplyCategory.SPECIALIZED_MED) ? "Medical Stock" : "Rounding Excess";
-                // Formatting for display: Whole numbers only
-                String displayQty = String.format("%d", (int)s.leftover);
-                reserveTableModel.addRow(new Object[]{ s.cat, s.name, displayQty, status });
-            }
-        }
+        ResultIndex getIndex() { return index; }
 
-        logger.log("DISTRIBUTION_RUN", "Computed rations for " + loadedFamilies.size() + " families.");
+        // Index finished after the rows were already shown (restored sessions); search and sort start working
+        void setIndex(ResultIndex index) { this.index = index; }
 
-        tabs.setSelectedIndex(1);
+        // Shows only these family rows (null = all); keeps the current sort
+        void setFilter(BitSet filter) {
+            this.filter = filter;
+            rebuildView();
+        }
 
-        // Show result with Demographic Info
-        JOptionPane.showMessageDialog(this, censusReport);
+        // Clicking the same column again flips the direction
+        void sortBy(int column) {
+            if (index == null || index.order(column) == null) return;
+            descending = column == sortColumn && !descending;
+            sortColumn = column;
+            rebuildView();
+        }
 
-    }
+        private void rebuildView() {
+            int[] order = sortColumn >= 0 ? index.order(sortColumn) : null;
+            if (order == null && filter == null) {
+                view = null;
+            } else if (order == null) {
+                view = filter.stream().toArray();
+            } else {
+                int[] rows = new int[filter == null ? order.length : filter.cardinality()];
+                int n = 0;
+                for (int r : order) if (filter == null || filter.get(r)) rows[n++] = r;
+                if (descending) {
+                    for (int i = 0, j = n - 1; i < j; i++, j--) { int t = rows[i]; rows[i] = rows[j]; rows[j] = t; }
+                }
+                view = rows;
+            }
+            fireTableDataChanged();
+        }
 
-    private void exportResults() {
-        try {
-            ReportGenerator.generatePackingList(loadedFamilies, "Final_Packing_List.html");
-            ReportGenerator.generateReserveReport(inventoryList, "Reserve_Stock_Report.txt");
-            StubGenerator.generateHTMLStubs(loadedFamilies, "Claim_Stubs.html");
-            logger.log("EXPORT", "Files generated: HTML, TXT, HTML.");
+        void beginUpdate() { pendingUpdates++; }
+        void endUpdate() { pendingUpdates--; }
 
-            JOptionPane.showMessageDialog(this, "Files Generated:\n1. Final_Packing_List.html\n2. Reserve_Stock_Report.txt\n3. Claim_Stubs.html");
-            Desktop.getDesktop().open(new File("Claim_Stubs.html"));
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error exporting: " + e.getMessage());
+        // Rows recomputed by an incremental update, with their new packing lists
+        void rowsUpdated(int[] rows, String[] newPacks) {
+            for (int k = 0; k < rows.length; k++) {
+                if (packs.containsKey(rows[k])) packs.put(rows[k], newPacks[k]);
+            }
+            // Repaints the visible rows only; some of them may show the placeholder from during the update
+            if (getRowCount() > 0) fireTableRowsUpdated(0, getRowCount() - 1);
         }
-    }
 
-    // Helper method to load and scale icons for tabs
-    private ImageIcon createScaledIcon(String path, int width, int height) {
-        try {
-            ImageIcon icon = new ImageIcon(path);
-            if (icon.getIconWidth() > 0) {
-                Image scaledImage = icon.getImage().getScaledInstance(width, height, Image.SCALE_SMOOTH);
-                return new ImageIcon(scaledImage);
+        @Override public int getRowCount() { return view != null ? view.length : families.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int column) { return COLUMNS[column]; }
+
+        @Override
+        public Object getValueAt(int tableRow, int column) {
+            int row = view != null ? view[tableRow] : tableRow;
+            if (column == 4) {
+                String pack = packs.get(row);
+                if (pack == null) {
+                    if (pendingUpdates > 0) return "Updating...";
+                    pack = families.get(row).getFormattedPackingList();
+                    packs.put(row, pack);
+                }
+                return pack;
+            }
+            Family f = families.get(row);
+            switch (column) {
+                case 0: return f.getId();
+                case 1: return f.getHeadOfFamily();
+                case 2: return f.getMemberCount();
+                default: return needsByMask.computeIfAbsent(f.getAttributeMask(), m -> PriorityAttribute.fromMask(m).toString().replace(",", " "));
             }
-        } catch (Exception e) {
-            System.err.println("Could not load icon: " + path);
         }
-        return null; // Return null if icon can't be loaded (tab will show text only)
     }
 
-    // Demographic Analysis
-
-    public static class DemographicAnalyzer {
-        public static String analyze(List<Family> families) {
-            int totalFamilies = families.size();
-            int totalPop = families.stream().mapToInt(Family::getMemberCount).sum();
-
-            // Vulnerability Counters (Households containing X)
-            int hasInfant = 0;
-            int hasSenior = 0;
-            int hasInjured = 0; // Includes INJURED
-            int hasPWD = 0;     // Includes PWD
+    private static Object[] reserveRow(Supply s) {
+        String status = (s.cat == SupplyCategory.SPECIALIZED_MED) ? "Medical Stock" : "Rounding Excess";
+        // Formatting for display: Whole numbers only
+        String displayQty = String.format("%d", (int)s.leftover);
+        return new Object[]{ s.cat, s.name, displayQty, status };
+    }
 
-            for (Family f : families) {
-                if (f.hasAttribute(PriorityAttribute.HAS_INFANT)) hasInfant++;
-                if (f.hasAttribute(PriorityAttribute.HAS_SENIOR)) hasSenior++;
-                if (f.hasAttribute(PriorityAttribute.INJURED)) hasInjured++;
-                if (f.hasAttribute(PriorityAttribute.PWD)) hasPWD++;
-            }
+    private static boolean showsInReserve(Supply s) {
+        return s != null && (s.cat == SupplyCategory.SPECIALIZED_MED || s.leftover > 0);
+    }
 
-            // Build the Report String
-            StringBuilder sb = new StringBuilder();
-            sb.append("EquiEat Complete!\n\n");
-            sb.append("Demographic Analysis Summary:\n");
-            sb.append("----------------------------------\n");
-            sb.append("Total Population:   ").append(totalPop).append(" citizens\n");
-            sb.append("Total Families:     ").append(totalFamilies).append("\n\n");
-            sb.append("Number of Vulnerable Persons:\n");
-            sb.append("   • With Infants:  ").append(hasInfant).append("\n");
-            sb.append("   • With Seniors:  ").append(hasSenior).append("\n");
-            sb.append("   • With Injured:  ").append(hasInjured).append("\n");
-            if (hasPWD > 0) sb.append("   • With PWDs:     ").append(hasPWD).append("\n");
+    // Reserve rows follow inventory order; updates, inserts or removes the single row for this supply
+    private void updateReserveRow(Supply before, Supply after) {
+        int row = -1;
+        for (int i = 0; i < reserveSupplies.size() && row < 0; i++) if (reserveSupplies.get(i) == before) row = i;
 
-            return sb.toString();
+        if (row >= 0 && showsInReserve(after)) {
+            reserveSupplies.set(row, after);
+            Object[] values = reserveRow(after);
+            for (int c = 0; c < values.length; c++) reserveTableModel.setValueAt(values[c], row, c);
+        } else if (row >= 0) {
+            reserveSupplies.remove(row);
+            reserveTableModel.removeRow(row);
+        } else if (showsInReserve(after)) {
+            int position = inventoryList.indexOf(after), at = 0;
+            while (at < reserveSupplies.size() && inventoryList.indexOf(reserveSupplies.get(at)) < position) at++;
+            reserveSupplies.add(at, after);
+            reserveTableModel.insertRow(at, reserveRow(after));
         }
     }
 
-    //  Audit Logger (For Transparency) NO TO CORRUPTION :P
-    //  Modified into HTML Format for better and easier reading 💪 
-    public static class AuditLogger {
-        private final String LOG_FILE = "audit_log.html";
-        
-        public void log(String action, String details) {
-            File logFile = new File(LOG_FILE);
-            boolean fileExists = logFile.exists();
-
-            try{
-                if(!fileExists){
-                    try (PrintWriter pw = new PrintWriter(new FileWriter(LOG_FILE))){ // creates HTML file
-                        pw.println("<!DOCTYPE html>");
-                        pw.println("<html><head><title>EquiEat - Audit Log</title>");
-                        pw.println("<meta charset='UTF-8'>");
-                        pw.println("<style>");
-                        pw.println("body{font-family: Arial, \"Times New Roman\", Times , serif; background: linear-gradient(to bottom, #47BECE, #F3F3EF); height: 100%; margin: 0; background-repeat: no-repeat; background-attachment: fixed; padding: 20px;}");
-                        pw.println("nav{position: fixed; display: flex; top:0; right:0; width:100%; background-color: #fff; padding: 1rem; flex-direction: column; gap:1rem; justify-content: center; z-index: 10;}");
-                        pw.println("h1 {color: #21AEC0; text-align: center; letter-spacing: 2px; font-style: Arial ;}");
-                        pw.println("table {width: 100%; border-collapse: collapse; background-color: #fff; box-shadow: 0 4px 8px rgba(0, 0, 0, 0.1); margin-top: 100px;}");
-                        pw.println("th {background: #21aec0; color: #fff; padding: 12px; text-align: left; border: 2px solid #fff;}");
-                        pw.println("td {padding: 10px; border-bottom: 1px solid #ddd;}");
-                        pw.println("tr:hover {background-color: #f1f1f1;}");
-                        pw.println(".Timestamp {color: #666; font-size: 14px;}");
-                        pw.println(".action {color: #333; font-weight: bold;}");
-                        pw.println(".details {color: #555; font-size: 14px;}");
-                        pw.println(".SYSTEM_STARTUP {color: #4CAF50;}");
-                        pw.println(".DATA_LOAD {color: #2196F3;}");
-                        pw.println(".INVENTORY_ADD {color:#FF9800;}");
-                        pw.println(".DISTRIBUTION_RUN {color: #9C27B0;}");
-                        pw.println(".EXPORT {color: #E91E63;}");
-                        pw.println("</style></head><body>");
-                        pw.println("<nav><h1>EquiEat Audit Log</h1></nav>");
-                        pw.println("<table><tr><th>Timestamp</th><th>Action</th><th>Details</th></tr>");
-                        pw.println("<!-- LOG_ENTRIES -->");
-                        pw.println("</table>");
-                        pw.println("</body></html>");
-                    }
+    private void loadCSV() {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            runTask("Importing " + file.getName() + "...", new UiTask<CsvImporter.ImportResult>("Error reading file: ") {
+                private DuplicateDetector.Report found;
+
+                @Override
+                protected CsvImporter.ImportResult work() throws Exception {
+                    SwingWorker<?, ?> task = this;
+                    long total = Math.max(file.length(), 1);
+                    AtomicLong parsed = new AtomicLong();
+                    CsvImporter.ImportResult result = importCSV(file.getAbsolutePath(), new CsvImporter.Progress() {
+                        public void advance(long bytes) { setProgress((int) Math.min(90, parsed.addAndGet(bytes) * 90 / total)); }
+                        public boolean isCancelled() { return task.isCancelled(); }
+                    });
+                    // Duplicate check is part of the import, so it is on screen before anyone runs a distribution
+                    FamilyStore store = FamilyStore.backing(result.families);
+                    if (store != null && !isCancelled()) found = DuplicateDetector.scan(store, ForkJoinPool.commonPool());
+                    setProgress(100);
+                    return result;
                 }
 
-                StringBuilder content = new StringBuilder();
-                try(BufferedReader br = new BufferedReader(new FileReader(LOG_FILE))){
-                    String line;
-                    while((line = br.readLine()) != null){
-                        content.append(line).append("\n");
+                @Override
+                protected void succeeded(CsvImporter.ImportResult result) {
+                    lastImport = result;
+                    loadedFamilies = result.families;
+                    duplicates = found;
+                    session = null; // Results on screen belong to the previous registry
+                    closeClaimLedger();
+                    sessionLabel = file.getName();
+                    publishApiModel();
+                    dirty = true;
+                    if (!loadedFamilies.isEmpty()) {
+                        String flagged = found == null || found.isEmpty() ? "" : ", " + found.groups.size() + " Possible Duplicates";
+                        statusLabel.setText("Status: Ready (" + loadedFamilies.size() + " Families Loaded, " + result.rejected + " Rejected" + flagged + ")");
+                        statusLabel.setForeground(found == null || found.isEmpty() ? new Color(0, 150, 0) : new Color(200, 120, 0));
+                        logger.log("DATA_LOAD", "Loaded demographics from: " + file.getName() + " (" + result.summary()
+                                + (found == null ? "" : "; " + found.summary()) + ")");
+                    } else {
+                        statusLabel.setText("Status: No families found in " + file.getName());
                     }
                 }
+            });
+        }
+    }
+
+    // Delta import of a newer export of the same registry: the loaded store takes only the added, removed and
+    // changed households, and a distributed session re-allocates only what they touch (DistributionSession.applyDelta)
+    private void refreshRegistry() {
+        FamilyStore store = FamilyStore.backing(loadedFamilies);
+        if (store == null || store.size() == 0) {
+            JOptionPane.showMessageDialog(this, "Import a registry first; the refresh compares the new file against it.");
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        DistributionSession current = session;
+        ResultIndex shownIndex = resultsTableModel.getIndex();
+        resultsTableModel.setFamilies(Collections.emptyList(), null); // the rows move while the delta is applied
+        closeClaimLedger();
+        if (apiServer != null) apiServer.publish(null); // so does the search index the API reads
 
-                String timeStamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-                String newEntry = String.format("<tr><td class='timestamp'>%s</td><td class='action %s'>%s</td><td class='details'>%s</td></tr>\n<!-- LOG_ENTRIES -->", timeStamp, action, action, details); // inputs new HTML table when new actions have performed 
+        runTask("Refreshing from " + file.getName() + "...", new UiTask<RegistryDelta>("Error refreshing registry: ") {
+            private CsvImporter.ImportResult imported;
+            private RegistryDelta applied; // set once the store has changed; a cancel after that still shows it
+            private BitSet reallocated;
+            private ResultIndex resultIndex;
+            private DuplicateDetector.Report found;
 
-                String updatedContent = content.toString().replaceFirst("<!-- LOG_ENTRIES -->", newEntry);
+            @Override
+            protected RegistryDelta work() throws Exception {
+                SwingWorker<?, ?> task = this;
+                long total = Math.max(file.length(), 1);
+                AtomicLong parsed = new AtomicLong();
+                imported = importCSV(file.getAbsolutePath(), new CsvImporter.Progress() {
+                    public void advance(long bytes) { setProgress((int) Math.min(70, parsed.addAndGet(bytes) * 70 / total)); }
+                    public boolean isCancelled() { return task.isCancelled(); }
+                });
+                FamilyStore next = FamilyStore.backing(imported.families);
+                RegistryDelta delta = RegistryDelta.compare(store, next, ForkJoinPool.commonPool());
+                setProgress(80);
+                // Last point to back out. A cancel from here on cannot stop the change; cancelled() only runs
+                // once work() has returned (see UiTask), so it always finds applied set and shows the new store.
+                if (isCancelled()) return null;
+                SwingUtilities.invokeLater(() -> cancelBtn.setVisible(false));
+                reallocated = changeModel(() -> {
+                    if (current != null) return current.applyDelta(delta, next);
+                    store.applyDelta(delta, next);
+                    return null;
+                });
+                applied = delta;
+                setProgress(90);
+                if (current != null) resultIndex = ResultIndex.build(store.asList(), current.getIndex());
+                setProgress(95);
+                found = DuplicateDetector.scan(store, ForkJoinPool.commonPool()); // new rows may repeat old ones
+                setProgress(100);
+                return delta;
+            }
 
-                try (PrintWriter pw = new PrintWriter(new FileWriter(LOG_FILE))) {
-                    pw.print(updatedContent);
+            @Override
+            protected void succeeded(RegistryDelta delta) {
+                loadedFamilies = store.asList();
+                duplicates = found;
+                lastImport = imported;
+                sessionLabel = file.getName();
+                dirty = true;
+                String summary = delta.summary();
+                if (current != null) {
+                    showRefreshedResults(resultIndex);
+                    summary += ", " + reallocated.cardinality() + " families re-allocated";
                 }
+                if (!found.isEmpty()) summary += ", " + found.groups.size() + " possible duplicates";
+                publishApiModel();
+                statusLabel.setText("Status: Refreshed (" + summary + ")");
+                statusLabel.setForeground(new Color(0, 150, 0));
+                logger.log("DATA_LOAD", "Refreshed demographics from: " + file.getName() + " (" + summary + "; " + imported.summary() + ")");
+            }
 
-            }catch(IOException e){
-                System.err.println("Logger Error: " + e.getMessage());
+            @Override
+            protected void cancelled() {
+                RegistryDelta delta = applied;
+                if (delta == null) {
+                    resultsTableModel.setFamilies(current != null ? loadedFamilies : Collections.emptyList(), shownIndex);
+                    publishApiModel();
+                    return;
+                }
+                // Too late to cancel: the store already changed, so show it as it is now
+                loadedFamilies = store.asList();
+                duplicates = null; // checked again before the next run
+                sessionLabel = file.getName();
+                dirty = true;
+                if (current != null) {
+                    showRefreshedResults(null);
+                    buildResultIndex(current, loadedFamilies);
+                }
+                publishApiModel();
+                statusLabel.setText("Status: Refreshed (" + delta.summary() + "), too late to cancel");
+                logger.log("DATA_LOAD", "Refreshed demographics from: " + file.getName() + " (" + delta.summary() + ")");
             }
 
-        }
+            private void showRefreshedResults(ResultIndex index) {
+                resultsTableModel.setFamilies(loadedFamilies, index);
+                reserveTableModel.setRowCount(0);
+                reserveSupplies.clear();
+                for (Supply s : inventoryList) {
+                    if (showsInReserve(s)) {
+                        reserveSupplies.add(s);
+                        reserveTableModel.addRow(reserveRow(s));
+                    }
+                }
+            }
+        });
     }
 
-    // Printable Stubs For Better Distribution
-    public static class StubGenerator {
-        public static void generateHTMLStubs(List<Family> families, String filename) throws IOException {
-            StringBuilder html = new StringBuilder();
-            html.append("<html><head><style>");
-            html.append("body { font-family: Arial, sans-serif; background: #f0f0f0; }");
-            html.append(".ticket { background: #fff; width: 300px; border: 2px dashed #333; padding: 15px; margin: 10px; display: inline-block; vertical-align: top; }");
-            html.append(".header { font-weight: bold; font-size: 16px; border-bottom: 2px solid black; margin-bottom: 10px; }");
-            html.append(".item { font-size: 14px; padding: 2px 0; }");
-            html.append(".footer { margin-top: 10px; font-size: 10px; color: grey; text-align: right; }");
-            html.append(".prio { color: red; font-weight: bold; font-size: 11px; }");
-            html.append("</style></head><body>");
-            html.append("<h2>Relief Distribution Claim Stubs</h2>");
-            for (Family f : families) {
-                String pack = f.getFormattedPackingList();
-                if (pack.isEmpty()) continue;
-                html.append("<div class='ticket'>");
-                html.append("<div class='header'>FAMILY: ").append(f.getHeadOfFamily()).append("</div>");
-                html.append("<div><strong>ID:</strong> ").append(f.getId()).append("</div>");
-                html.append("<div><strong>Members:</strong> ").append(f.getMemberCount()).append("</div>");
-                if (!f.attributes.isEmpty()) html.append("<div class='prio'>NOTES: ").append(f.attributes).append("</div>");
-                html.append("<hr>");
-                for (String item : pack.split("\\+")) html.append("<div class='item'>&#9744; ").append(item.trim()).append("</div>");
-                html.append("<div class='footer'>EquiEat Distribution</div></div>");
-            }
-            html.append("</body></html>");
-            try (PrintWriter pw = new PrintWriter(new FileWriter(filename))) { pw.print(html.toString()); }
-        }
+    // Autosave: when something changed, the worker thread writes a snapshot every AUTOSAVE_MS.
+    // It queues behind any inventory update already submitted, so it always saves a finished state;
+    // the EDT only collects the references and never waits for the disk.
+    private void autosave() {
+        if (!dirty || currentTask != null) return;
+        FamilyStore store = FamilyStore.backing(loadedFamilies);
+        if (store == null || store.size() == 0) return;
+        List<Supply> inventory = new ArrayList<>(inventoryList);
+        DistributionSession current = session;
+        String label = sessionLabel;
+        dirty = false;
+        taskExecutor.execute(() -> {
+            try {
+                boolean distributed = current != null && current.getStore() == store && store.supplyCount() == inventory.size();
+                SessionSnapshot.save(SessionSnapshot.DEFAULT_FILE, label, store, inventory, distributed);
+            } catch (IOException | RuntimeException e) {
+                SwingUtilities.invokeLater(() -> {
+                    dirty = true; // try again next round
+                    statusLabel.setText("Status: Autosave failed (" + e.getMessage() + ")");
+                });
+            }
+        });
     }
 
-    // Model & Engines
-    // enum helps us to only collect fixed inputs; ensures "type-safe" or proper error handling
-    public enum PriorityAttribute { HAS_INFANT, HAS_SENIOR, PREGNANT, LACTATING, PWD, DIABETIC, INJURED }
-    public enum SupplyCategory { STAPLE, PROTEIN, PRIORITY_NUTRITION, GENERAL_HEALTH, SPECIALIZED_MED }
+    // Brings back the last snapshot: families, inventory and, if it had a run, the results and reserve tabs.
+    // Search and sort on the results tab come a moment later, once the ResultIndex is built in the background.
+    private void restoreSession() {
+        Path file = SessionSnapshot.DEFAULT_FILE;
+        if (!Files.exists(file)) {
+            JOptionPane.showMessageDialog(this, "No saved session yet (" + file + ").");
+            return;
+        }
+        runTask("Restoring session...", new UiTask<SessionSnapshot.Session>("Error restoring session: ") {
+            private DistributionSession restored;
+            private long nanos;
 
-    // Private variables so that the class family is the only one that can touch/modify them
-    public static class Family {
-        private String id, headOfFamily;
-        private int memberCount;
-        public Set<PriorityAttribute> attributes;
+            @Override
+            protected SessionSnapshot.Session work() throws Exception {
+                long start = System.nanoTime();
+                SessionSnapshot.Session snapshot = SessionSnapshot.load(file, ForkJoinPool.commonPool());
+                if (snapshot.distributed) restored = DistributionSession.resume(engine, snapshot.store);
+                nanos = System.nanoTime() - start;
+                return snapshot;
+            }
 
-        //Map Integer instead of Double for Whole Numbers
-        private Map<String, Integer> itemsReceived = new LinkedHashMap<>();
-        // is inserted to the inventory (Remembers our input in order)
+            @Override
+            protected void succeeded(SessionSnapshot.Session snapshot) {
+                loadedFamilies = snapshot.store.asList();
+                inventoryList = new ArrayList<>(snapshot.inventory);
+                sessionLabel = snapshot.label;
+                lastImport = null;
+                duplicates = null; // checked before the next run, the restore itself stays quick
+                session = restored;
+                closeClaimLedger();
+                dirty = false;
 
+                inventoryTableModel.setRowCount(0);
+                for (Supply s : inventoryList) inventoryTableModel.addRow(new Object[]{s.cat, s.name, s.qty, (s.target == null ? "ALL" : s.target)});
+                reserveTableModel.setRowCount(0);
+                reserveSupplies.clear();
+                resultsTableModel.setFamilies(Collections.emptyList(), null);
+                if (restored != null) {
+                    for (Supply s : inventoryList) {
+                        if (showsInReserve(s)) {
+                            reserveSupplies.add(s);
+                            reserveTableModel.addRow(reserveRow(s));
+                        }
+                    }
+                    resultsTableModel.setFamilies(loadedFamilies, null);
+                    buildResultIndex(restored, loadedFamilies);
+                }
+                publishApiModel();
 
-        // Constructor
-        public Family(String id, String name, int size, Set<PriorityAttribute> attrs) {
-            this.id = id; this.headOfFamily = name; this.memberCount = size; this.attributes = attrs; // One liner for clear code
-        }
-        // Receive item takes int qty
-        public void receiveItem(String item, int qty) { itemsReceived.put(item, itemsReceived.getOrDefault(item, 0) + qty); }
+                String saved = Instant.ofEpochMilli(snapshot.savedAt).atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+                statusLabel.setText(String.format("Status: Restored %d families from %s (%.0f ms)", loadedFamilies.size(), saved, nanos / 1e6));
+                statusLabel.setForeground(new Color(0, 150, 0));
+                logger.log("DATA_LOAD", "Restored session " + snapshot.label + " saved " + saved + " (" + loadedFamilies.size()
+                        + " families, " + inventoryList.size() + " supplies" + (restored != null ? ", with results" : "") + ")");
+            }
+        });
+    }
 
-        // we look at/get the private classes values but not change it
-        public void clearReceived() { itemsReceived.clear(); }
-        public boolean hasAttribute(PriorityAttribute attr) { return attributes.contains(attr); }
-        public int getMemberCount() { return memberCount; }
-        public String getId() { return id; }
-        public String getHeadOfFamily() { return headOfFamily; }
+    private void buildResultIndex(DistributionSession current, List<Family> families) {
+        taskExecutor.execute(new SwingWorker<ResultIndex, Void>() {
+            @Override
+            protected ResultIndex doInBackground() {
+                current.getStore().decodeStrings(ForkJoinPool.commonPool());
+                return ResultIndex.build(families, current.getIndex());
+            }
 
-        // Checks every family received items then turns it into a table
-        public String getFormattedPackingList() {
-            List<String> s = new ArrayList<>();
-            for (Map.Entry<String, Integer> e : itemsReceived.entrySet()) {
-                // Simple integer formatting
-                s.add(String.format("%d pcs of %s", e.getValue(), e.getKey()));
+            @Override
+            protected void done() {
+                if (session != current) return; // Replaced by a newer import/run meanwhile
+                try { resultsTableModel.setIndex(get()); publishApiModel(); }
+                catch (Exception e) { statusLabel.setText("Status: Search unavailable (" + e.getMessage() + ")"); }
             }
-            return String.join(" + ", s); // i.e rather than "rice 5pcsmeat 6pcs" it will be "rice 5 pcs + meat 5 pcs"
-        }
+        });
     }
 
-    // all in one initialization and constructor
-    public static class Supply {
-        String name; SupplyCategory cat; int qty; PriorityAttribute target; double leftover;
-        public Supply(String n, SupplyCategory c, int q, PriorityAttribute t) { name=n; cat=c; qty=q; target=t; }
-        public void setLeftover(double l) { this.leftover = l; }
+    // Uses every core for big registries; small files stay on the single-pass parser
+    // Families land in a columnar FamilyStore (loadedFamilies is a view list over it)
+    private CsvImporter.ImportResult importCSV(String filePath, CsvImporter.Progress progress) throws IOException {
+        return CsvImporter.importFileParallel(filePath, ForkJoinPool.commonPool(), progress, true);
     }
 
-    public static class RationEngine {
-        public void distributeWithRounding(List<Family> families, List<Supply> inventory, int totalPop) {
-            for (Supply item : inventory) {
-                if (item.cat == SupplyCategory.SPECIALIZED_MED) {
-                    item.setLeftover(item.qty);
-                    continue;
-                }
-                List<Family> eligible = new ArrayList<>();
-                int eligiblePop = 0;
-                if (item.target != null) {
-                    for (Family f : families) if (f.hasAttribute(item.target)) eligible.add(f);
-                    eligiblePop = eligible.size();
-                } else {
-                    eligible.addAll(families);
-                    eligiblePop = totalPop;
-                }
+    private void runDistribution(JTabbedPane tabs) {
+        if (loadedFamilies.isEmpty() || inventoryList.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Missing Data.");
+            return;
+        }
+        if (duplicates == null && FamilyStore.backing(loadedFamilies) != null) {
+            withDuplicateReport(report -> runDistribution(tabs));
+            return;
+        }
+        if (duplicates != null && !duplicates.isEmpty()) {
+            Object[] options = {"Review", "Distribute Anyway", "Cancel"};
+            int choice = JOptionPane.showOptionDialog(this, duplicates.summary() + "\n\nThese households could receive double rations.",
+                    "Possible Duplicate Households", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+            if (choice == 0) showDuplicates(duplicates);
+            if (choice != 1) return;
+            logger.log("DISTRIBUTION_RUN", "Distribution confirmed with " + duplicates.summary());
+        }
 
-                // CHANGED: Tracking total distributed as Integer
-                int distributedTotal = 0;
+        resultsTableModel.setFamilies(Collections.emptyList(), null);
+        reserveTableModel.setRowCount(0);
+        List<Family> families = loadedFamilies;
+        List<Supply> inventory = inventoryList;
 
-                if (eligiblePop > 0) {
-                    double unitShare = (double) item.qty / eligiblePop;
-                    for (Family f : eligible) {
-                        double rawAllocation;
-                        if (item.target != null) rawAllocation = (double) item.qty / eligible.size();
-                        else rawAllocation = unitShare * f.getMemberCount();
+        session = null;
+        closeClaimLedger();
+        publishApiModel();
+        reserveSupplies.clear();
+        runTask("Distributing rations...", new UiTask<String>("Error distributing: ") {
+            private DistributionSession newSession;
+            private ResultIndex resultIndex;
+            private final List<Supply> reserveShown = new ArrayList<>();
 
-                        // Strict Floor to Integer
-                        int safeAllocation = (int) Math.floor(rawAllocation);
+            @Override
+            protected String work() {
+                // Reset (a FamilyStore resets its allocation columns inside the engine)
+                FamilyStore store = FamilyStore.backing(families);
+                if (store == null) for (Family f : families) f.clearReceived();
+                for (Supply s : inventory) s.setLeftover(0);
 
-                        if (safeAllocation > 0) {
-                            f.receiveItem(item.name, safeAllocation);
-                            distributedTotal += safeAllocation;
-                        }
+                // 2. Run Engine (Updated to Whole Numbers)
+                // A columnar run keeps its state in a DistributionSession so later inventory edits are incremental
+                EligibilityIndex index;
+                if (store != null) {
+                    newSession = changeModel(() -> new DistributionSession(engine, store, inventory));
+                    index = newSession.getIndex();
+                } else {
+                    index = EligibilityIndex.build(families);
+                    engine.distributeWithRounding(families, inventory, (int) index.totalPopulation(), index);
+                }
+                setProgress(40);
+
+                // The Analysis of Demographic Data
+                String censusReport = DemographicAnalyzer.analyze(families);
+                setProgress(60);
+                if (isCancelled()) return null;
+                resultIndex = ResultIndex.build(families, index); // for the search bar on the results tab
+                setProgress(90);
+                // No result rows are built here: the results table reads the families directly when it paints
+
+                List<Object[]> reserve = new ArrayList<>();
+                for (Supply s : inventory) {
+                    if (showsInReserve(s)) {
+                        reserve.add(reserveRow(s));
+                        reserveShown.add(s);
                     }
                 }
-                item.setLeftover(item.qty - distributedTotal); // Excess relief goods
+                publishRows(this, reserveTableModel, reserve);
+                setProgress(100);
+                return censusReport;
             }
-        }
-    }
 
-    // makes CVS into HTML for better reading and printting
-    public static class ReportGenerator {
-        public static void generatePackingList(List<Family> fList, String fname) throws IOException {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(fname))) {
+            @Override
+            protected void succeeded(String censusReport) {
+                resultsTableModel.setFamilies(families, resultIndex);
+                session = newSession;
+                reserveSupplies.addAll(reserveShown);
+                publishApiModel();
+                dirty = true;
+                logger.log("DISTRIBUTION_RUN", "Computed rations for " + families.size() + " families.");
+                statusLabel.setText("Status: Distribution complete (" + families.size() + " Families)");
+
+                tabs.setSelectedIndex(1);
+
+                // Show result with Demographic Info
+                JOptionPane.showMessageDialog(SmartRationGUI.this, censusReport);
+            }
+
+            @Override
+            protected void cancelled() {
+                resultsTableModel.setFamilies(Collections.emptyList(), null);
+                reserveTableModel.setRowCount(0);
+            }
+        });
+    }
+
+    private void exportResults() {
+        List<Family> families = loadedFamilies;
+        List<Supply> inventory = inventoryList;
+
+        runTask("Exporting reports...", new UiTask<List<ExportPipeline.FileStats>>("Error exporting: ") {
+            @Override
+            protected List<ExportPipeline.FileStats> work() throws Exception {
+                // All three files are written at once; progress counts families in both family reports plus supplies
+                SwingWorker<?, ?> task = this;
+                long total = Math.max(2L * families.size() + inventory.size(), 1);
+                AtomicLong written = new AtomicLong();
+                return ExportPipeline.exportAll(families, inventory, Paths.get("."), ForkJoinPool.commonPool(), new CsvImporter.Progress() {
+                    public void advance(long rows) { setProgress((int) Math.min(100, written.addAndGet(rows) * 100 / total)); }
+                    public boolean isCancelled() { return task.isCancelled(); }
+                });
+            }
+
+            @Override
+            protected void succeeded(List<ExportPipeline.FileStats> stats) throws Exception {
+                StringBuilder files = new StringBuilder("Files Generated:");
+                for (int i = 0; i < stats.size(); i++) files.append("\n").append(i + 1).append(". ").append(stats.get(i));
+                logger.log("EXPORT", "Files generated: " + stats.stream().map(Object::toString).collect(java.util.stream.Collectors.joining(", ")));
+                statusLabel.setText("Status: Reports exported");
+
+                JOptionPane.showMessageDialog(SmartRationGUI.this, files.toString());
+                Desktop.getDesktop().open(stats.get(2).file.toFile());
+            }
+        });
+    }
+
+    // Audit Log search: time range + actions, answered from the segment indexes
+    // Runs on its own SwingWorker, it only reads the journal so it can overlap an import or run
+    private void showAuditQuery() {
+        JDialog dialog = new JDialog(this, "Audit Log Search", false);
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        LocalDateTime now = LocalDateTime.now();
+        JTextField fromField = new JTextField(now.minusDays(7).format(format), 14);
+        JTextField toField = new JTextField(now.plusMinutes(1).format(format), 14);
+        JPanel actionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        List<JCheckBox> boxes = new ArrayList<>();
+        for (String action : AuditLogger.ACTIONS) {
+            JCheckBox box = new JCheckBox(action, true);
+            boxes.add(box);
+            actionPanel.add(box);
+        }
+        JButton searchBtn = new JButton("Search");
+        JButton verifyBtn = new JButton("Verify Integrity");
+        JLabel resultLabel = new JLabel(" ");
+
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Timestamp", "Action", "Details"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) { return false; }
+        };
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(2).setPreferredWidth(500);
+
+        searchBtn.addActionListener(e -> {
+            long from, to;
+            try {
+                from = LocalDateTime.parse(fromField.getText().trim(), format).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                to = LocalDateTime.parse(toField.getText().trim(), format).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(dialog, "Use the format yyyy-MM-dd HH:mm");
+                return;
+            }
+            Set<String> actions = new HashSet<>();
+            for (JCheckBox box : boxes) if (box.isSelected()) actions.add(box.getText());
+            if (actions.size() == boxes.size()) actions.clear(); // everything, including custom actions
+            int limit = 10_000;
+            searchBtn.setEnabled(false);
+            resultLabel.setText("Searching...");
+            new SwingWorker<List<AuditLogger.Entry>, Void>() {
+                long nanos;
+
+                @Override
+                protected List<AuditLogger.Entry> doInBackground() throws Exception {
+                    long start = System.nanoTime();
+                    List<AuditLogger.Entry> found = AuditLogger.query(from, to, actions, limit);
+                    nanos = System.nanoTime() - start;
+                    return found;
+                }
+
+                @Override
+                protected void done() {
+                    searchBtn.setEnabled(true);
+                    try {
+                        List<AuditLogger.Entry> found = get();
+                        model.setRowCount(0);
+                        for (AuditLogger.Entry entry : found) model.addRow(new Object[]{entry.getTimestamp(), entry.getAction(), entry.getDetails()});
+                        resultLabel.setText(found.size() + (found.size() == limit ? "+" : "") + " entries in " + (nanos / 1_000_000) + " ms");
+                    } catch (Exception ex) {
+                        resultLabel.setText("Search failed: " + ex.getMessage());
+                    }
+                }
+            }.execute();
+        });
+
+        verifyBtn.addActionListener(e -> {
+            verifyBtn.setEnabled(false);
+            resultLabel.setText("Verifying...");
+            new SwingWorker<AuditLogger.Verification, Void>() {
+                @Override
+                protected AuditLogger.Verification doInBackground() throws Exception {
+                    return AuditLogger.verify(ForkJoinPool.commonPool());
+                }
+
+                @Override
+                protected void done() {
+                    verifyBtn.setEnabled(true);
+                    try {
+                        AuditLogger.Verification result = get();
+                        resultLabel.setText(result.intact ? "Intact" : "TAMPERED");
+                        JOptionPane.showMessageDialog(dialog, result.summary(), "Audit Log Integrity",
+                                result.intact ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE);
+                    } catch (Exception ex) {
+                        resultLabel.setText("Verification failed: " + ex.getMessage());
+                    }
+                }
+            }.execute();
+        });
+
+        JPanel rangePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        rangePanel.add(new JLabel("From:")); rangePanel.add(fromField);
+        rangePanel.add(new JLabel("To:")); rangePanel.add(toField);
+        rangePanel.add(searchBtn); rangePanel.add(verifyBtn); rangePanel.add(resultLabel);
+        JPanel north = new JPanel(new BorderLayout());
+        north.add(rangePanel, BorderLayout.NORTH);
+        north.add(actionPanel, BorderLayout.SOUTH);
+
+        dialog.add(north, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.setSize(1000, 600);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    // Hands over the duplicate report of loadedFamilies, checking first when nobody did yet (restored session)
+    private void withDuplicateReport(Consumer<DuplicateDetector.Report> then) {
+        FamilyStore store = FamilyStore.backing(loadedFamilies);
+        if (store == null || store.size() == 0) {
+            JOptionPane.showMessageDialog(this, "Please upload demographic data first!");
+            return;
+        }
+        if (duplicates != null) { then.accept(duplicates); return; }
+        runTask("Checking for duplicate households...", new UiTask<DuplicateDetector.Report>("Error checking duplicates: ") {
+            @Override
+            protected DuplicateDetector.Report work() {
+                return DuplicateDetector.scan(store, ForkJoinPool.commonPool());
+            }
+
+            @Override
+            protected void succeeded(DuplicateDetector.Report report) {
+                duplicates = report;
+                statusLabel.setText("Status: " + report.summary());
+                then.accept(report);
+            }
+        });
+    }
+
+    private void showDuplicates(DuplicateDetector.Report report) {
+        if (report.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No possible duplicate households found.\n" + report.summary());
+            return;
+        }
+        FamilyStore store = FamilyStore.backing(loadedFamilies);
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Group", "Reason", "ID", "Head of Family", "Size", "Needs"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) { return false; }
+        };
+        for (int g = 0; g < report.groups.size(); g++) {
+            DuplicateDetector.Group group = report.groups.get(g);
+            for (int row : group.rows) {
+                model.addRow(new Object[]{g + 1, group.reason(), store.getId(row), store.getHeadOfFamily(row), store.getMemberCount(row),
+                        PriorityAttribute.fromMask(store.getAttributeMask(row)).toString()});
+            }
+        }
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(3).setPreferredWidth(250);
+        table.getColumnModel().getColumn(5).setPreferredWidth(250);
+
+        JDialog dialog = new JDialog(this, "Possible Duplicate Households", false);
+        dialog.add(new JLabel(" " + report.summary()), BorderLayout.NORTH);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.setSize(1000, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    // Cross-tab of the loaded families: tick the needs to split by, one row per yes/no combination and one
+    // column per family size. Straight from the store's DemographicCube, so every tick answers instantly.
+    private void showDemographics() {
+        if (loadedFamilies.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Please upload demographic data first!");
+            return;
+        }
+        JDialog dialog = new JDialog(this, "Demographics Cross-tab", false);
+        JPanel attrPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        List<JCheckBox> boxes = new ArrayList<>();
+        for (PriorityAttribute attr : PriorityAttribute.values()) {
+            JCheckBox box = new JCheckBox(attr.name(), attr == PriorityAttribute.PREGNANT || attr == PriorityAttribute.DIABETIC);
+            boxes.add(box);
+            attrPanel.add(box);
+        }
+        JLabel resultLabel = new JLabel(" ");
+        DefaultTableModel model = new DefaultTableModel() {
+            @Override
+            public boolean isCellEditable(int row, int column) { return false; }
+        };
+        JTable table = new JTable(model);
+
+        Runnable update = () -> {
+            if (currentTask != null) { // the worker may be changing the store right now
+                resultLabel.setText("Busy, wait for the current task to finish");
+                return;
+            }
+            List<PriorityAttribute> dims = new ArrayList<>();
+            for (int a = 0; a < boxes.size(); a++) if (boxes.get(a).isSelected()) dims.add(PriorityAttribute.values()[a]);
+            long start = System.nanoTime();
+            DemographicCube.CrossTab tab = DemographicCube.of(loadedFamilies).crossTab(dims.toArray(new PriorityAttribute[0]));
+            long micros = (System.nanoTime() - start) / 1_000;
+
+            List<String> cols = new ArrayList<>(Collections.singletonList("Needs"));
+            for (int b = 1; b < DemographicCube.SIZES; b++) cols.add(DemographicCube.bucketLabel(b));
+            cols.add("Families");
+            cols.add("Members");
+            List<Object[]> rows = new ArrayList<>();
+            for (int r = tab.rows() - 1; r >= 0; r--) {
+                Object[] row = new Object[cols.size()];
+                row[0] = tab.rowLabel(r);
+                for (int b = 1; b < DemographicCube.SIZES; b++) row[b] = tab.families[r][b];
+                row[DemographicCube.SIZES] = tab.rowFamilies(r);
+                row[DemographicCube.SIZES + 1] = tab.rowMembers(r);
+                rows.add(row);
+            }
+            model.setDataVector(rows.toArray(new Object[0][]), cols.toArray());
+            table.getColumnModel().getColumn(0).setPreferredWidth(320);
+            resultLabel.setText(rows.size() + " combinations, " + micros + " µs");
+        };
+        for (JCheckBox box : boxes) box.addActionListener(e -> update.run());
+        update.run();
+
+        JPanel north = new JPanel(new BorderLayout());
+        north.add(attrPanel, BorderLayout.CENTER);
+        north.add(resultLabel, BorderLayout.SOUTH);
+        dialog.add(north, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.setSize(1100, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    // Claim Desk: opens the ledger for the current results (asking first if claims.wal belongs to another registry)
+    private void showClaimDesk() {
+        DistributionSession current = session;
+        if (current == null) {
+            JOptionPane.showMessageDialog(this, "Run the distribution first; stubs are checked against its packing lists.");
+            return;
+        }
+        if (claimLedger != null) {
+            showClaimDialog(claimLedger);
+            return;
+        }
+        Path file = ClaimLedger.DEFAULT_FILE;
+        String label = sessionLabel;
+        try {
+            String existing = ClaimLedger.labelOf(file);
+            if (existing != null && !existing.equals(label)) {
+                Object[] options = {"Continue It", "Start New Ledger", "Cancel"};
+                int choice = JOptionPane.showOptionDialog(this, file + " holds the claims for " + existing + ".\nContinue it with "
+                                + label + ", or archive it and start a new one?",
+                        "Claim Ledger", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+                if (choice == 1) {
+                    Path old = ClaimLedger.archive(file);
+                    logger.log("CLAIMS", "Archived the claim ledger of " + existing + " as " + old.getFileName());
+                } else if (choice != 0) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error reading claim ledger: " + e.getMessage());
+            return;
+        }
+
+        runTask("Opening claim ledger...", new UiTask<ClaimLedger>("Error opening claim ledger: ") {
+            @Override
+            protected ClaimLedger work() throws Exception {
+                ClaimLedger ledger = ClaimLedger.open(file, current.getStore(), label);
+                if (isCancelled()) ledger.close(); // nobody would close it otherwise
+                return ledger;
+            }
+
+            @Override
+            protected void succeeded(ClaimLedger ledger) {
+                claimLedger = ledger;
+                publishApiModel();
+                String summary = ledger.counts().summary()
+                        + (ledger.truncatedBytes() > 0 ? ", torn record of " + ledger.truncatedBytes() + " bytes dropped" : "");
+                statusLabel.setText("Status: Claim ledger open (" + summary + ")");
+                logger.log("CLAIMS", "Opened claim ledger " + file + " for " + ledger.label() + " (" + summary + ")");
+                showClaimDialog(ledger);
+            }
+        });
+    }
+
+    // The ledger's rows belong to one store, so a new import/run/restore closes it; the claims stay in the log
+    // and come back (matched by Family ID) the next time the desk opens
+    private void closeClaimLedger() {
+        ClaimLedger ledger = claimLedger;
+        claimLedger = null;
+        if (ledger == null) return;
+        taskExecutor.execute(() -> { // before any task queued after this one, so a reopen finds the file free
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                System.err.println("Claim ledger close failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // One desk: Enter on the ID field redeems, Check only looks. The table below is the live count per supply.
+    private void showClaimDialog(ClaimLedger ledger) {
+        JDialog dialog = new JDialog(this, "Claim Desk", false);
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        JTextField deskField = new JTextField("Desk 1", 10);
+        JTextField idField = new JTextField(16);
+        JButton redeemBtn = new JButton("Redeem");
+        JButton checkBtn = new JButton("Check");
+        JLabel resultLabel = new JLabel(" ");
+        resultLabel.setFont(new Font("Arial", Font.BOLD, 22));
+        JLabel packLabel = new JLabel(" ");
+        JLabel countsLabel = new JLabel(" ");
+        DefaultTableModel model = new DefaultTableModel(new Object[]{"Item Name", "Families Redeemed", "Families Allocated",
+                "Units Redeemed", "Units Unredeemed"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) { return false; }
+        };
+
+        Consumer<ClaimLedger.Claim> show = c -> {
+            String when = c.time == 0 ? "" : Instant.ofEpochMilli(c.time).atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ofPattern("HH:mm:ss"));
+            packLabel.setText(" ");
+            switch (c.status) {
+                case REDEEMED:
+                    resultLabel.setText("REDEEMED: " + c.familyId);
+                    resultLabel.setForeground(new Color(0, 150, 0));
+                    packLabel.setText("Hand over: " + c.packingList);
+                    break;
+                case ALREADY_REDEEMED:
+                    resultLabel.setText("ALREADY CLAIMED: " + c.familyId + (c.desk == null ? "" : " at " + c.desk + ", " + when));
+                    resultLabel.setForeground(Color.RED);
+                    break;
+                case OPEN:
+                    resultLabel.setText("NOT YET CLAIMED: " + c.familyId);
+                    resultLabel.setForeground(new Color(26, 62, 66));
+                    break;
+                case NO_ALLOCATION:
+                    resultLabel.setText("NOTHING ALLOCATED: " + c.familyId);
+                    resultLabel.setForeground(new Color(200, 120, 0));
+                    break;
+                default:
+                    resultLabel.setText("UNKNOWN FAMILY ID: " + c.familyId);
+                    resultLabel.setForeground(Color.RED);
+            }
+        };
+        Runnable refreshCounts = () -> {
+            ClaimLedger.Counts c = ledger.counts();
+            model.setRowCount(0);
+            for (int s = 0; s < c.supplies.size(); s++) {
+                if (c.families[s] == 0) continue; // nothing of it went to families (reserve only)
+                model.addRow(new Object[]{c.supplies.get(s).name, c.redeemedFamilies[s], c.families[s], c.redeemedUnits[s], c.units[s] - c.redeemedUnits[s]});
+            }
+            countsLabel.setText(c.summary());
+        };
+        Consumer<Boolean> submit = redeem -> {
+            String id = idField.getText().trim(), desk = deskField.getText().trim();
+            if (id.isEmpty()) return;
+            if (claimLedger != ledger) {
+                resultLabel.setText("Results changed, close and reopen the Claim Desk");
+                resultLabel.setForeground(Color.RED);
+                return;
+            }
+            if (desk.isEmpty()) desk = "Desk";
+            idField.setText(""); // ready for the next stub
+            String deskName = desk;
+            new SwingWorker<ClaimLedger.Claim, Void>() { // waits for the log write, never on the EDT
+                @Override
+                protected ClaimLedger.Claim doInBackground() throws IOException {
+                    return redeem ? ledger.claim(id, deskName) : ledger.lookup(id);
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        show.accept(get());
+                    } catch (Exception e) {
+                        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                        resultLabel.setText("NOT RECORDED: " + id);
+                        resultLabel.setForeground(Color.RED);
+                        packLabel.setText(cause.getMessage());
+                    }
+                }
+            }.execute();
+        };
+        idField.addActionListener(e -> submit.accept(true));
+        redeemBtn.addActionListener(e -> submit.accept(true));
+        checkBtn.addActionListener(e -> submit.accept(false));
+
+        Timer timer = new Timer(1000, null);
+        timer.addActionListener(e -> {
+            if (!dialog.isDisplayable() || claimLedger != ledger) timer.stop();
+            else refreshCounts.run();
+        });
+        refreshCounts.run();
+        timer.start();
+
+        JPanel inputPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        inputPanel.add(new JLabel("Desk:"));
+        inputPanel.add(deskField);
+        inputPanel.add(new JLabel("Family ID:"));
+        inputPanel.add(idField);
+        inputPanel.add(redeemBtn);
+        inputPanel.add(checkBtn);
+        JPanel resultPanel = new JPanel(new GridLayout(0, 1));
+        resultPanel.add(resultLabel);
+        resultPanel.add(packLabel);
+        JPanel north = new JPanel(new BorderLayout());
+        north.add(inputPanel, BorderLayout.NORTH);
+        north.add(resultPanel, BorderLayout.CENTER);
+        dialog.add(north, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+        dialog.add(countsLabel, BorderLayout.SOUTH);
+        dialog.setSize(900, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+        idField.requestFocusInWindow();
+    }
+
+    // Local API on/off; host and port come from -Dequieat.api.host (default 127.0.0.1, use 0.0.0.0 for kiosks on
+    // the LAN) and -Dequieat.api.port
+    private void toggleApi(JButton button) {
+        ApiServer running = apiServer;
+        if (running != null) {
+            apiServer = null; // changeModel() and publishApiModel() leave it alone from now on
+            button.setEnabled(false);
+            button.setText("Stopping API...");
+            taskExecutor.execute(() -> { // stop() waits for open exchanges, not on the EDT
+                running.stop();
+                SwingUtilities.invokeLater(() -> {
+                    button.setText("Start API");
+                    button.setEnabled(true);
+                    logger.log("LOCAL_API", "Stopped the local API after " + running.requests() + " requests");
+                });
+            });
+            return;
+        }
+        String host = System.getProperty("equieat.api.host", "127.0.0.1");
+        int port = Integer.getInteger("equieat.api.port", ApiServer.DEFAULT_PORT);
+        try {
+            apiServer = ApiServer.start(new InetSocketAddress(host, port));
+        } catch (IOException | RuntimeException e) {
+            JOptionPane.showMessageDialog(this, "Error starting the local API on " + host + ":" + port + ": " + e.getMessage());
+            return;
+        }
+        publishApiModel();
+        String url = "http://" + host + ":" + apiServer.port() + "/api/status";
+        button.setText("Stop API");
+        button.setToolTipText(url);
+        statusLabel.setText("Status: API at " + url + (apiServer.usesVirtualThreads() ? " (virtual threads)" : ""));
+        logger.log("LOCAL_API", "Started the local API at " + url);
+    }
+
+    // Hands the current families, inventory, results and claim ledger to the API (nothing to do while it is off).
+    // Called on the EDT after every change; requests already running finish on the previous model.
+    private void publishApiModel() {
+        if (apiServer == null) return;
+        FamilyStore store = FamilyStore.backing(loadedFamilies);
+        if (store == null || store.size() == 0) {
+            apiServer.publish(null);
+            return;
+        }
+        DistributionSession current = session;
+        boolean distributed = current != null && current.getStore() == store && store.supplyCount() == inventoryList.size();
+        apiServer.publish(new ApiServer.Model(sessionLabel, store, new ArrayList<>(inventoryList), distributed,
+                distributed ? resultsTableModel.getIndex() : null, claimLedger));
+    }
+
+    // Worker-thread changes to a store the API may be reading right now wait for the pages in flight
+    private <T> T changeModel(Supplier<T> change) {
+        ApiServer server = apiServer;
+        return server != null ? server.update(change) : change.get();
+    }
+
+    // Background Task Pipeline
+    // Import, distribution and export run on one worker thread so the window never freezes
+    // and two phases can never touch loadedFamilies / inventoryList at the same time
+    // cancel(true) calls done() right away, while work() may still be running on the worker thread.
+    // The controls (and currentTask, which guards the store) are only released once work() has returned.
+    private abstract class UiTask<T> extends SwingWorker<T, Void> {
+        private static final int WAITING = 0, RUNNING = 1, RETURNED = 2;
+        private final String errorPrefix;
+        private final AtomicInteger stage = new AtomicInteger(WAITING);
+        private boolean doneCalled, settled; // EDT only
+
+        UiTask(String errorPrefix) { this.errorPrefix = errorPrefix; }
+
+        // Runs on the worker thread
+        protected abstract T work() throws Exception;
+
+        // Called on the EDT when work() finished without errors or cancellation
+        protected abstract void succeeded(T result) throws Exception;
+
+        // Called on the EDT after a cancel, once work() has returned (or never started)
+        protected void cancelled() { }
+
+        @Override
+        protected final T doInBackground() throws Exception {
+            if (!stage.compareAndSet(WAITING, RUNNING)) return null; // cancelled before it started
+            try {
+                return work();
+            } finally {
+                stage.set(RETURNED);
+                SwingUtilities.invokeLater(this::settle);
+            }
+        }
+
+        @Override
+        protected final void done() {
+            doneCalled = true;
+            // Not started yet: claiming the stage here keeps work() from ever running
+            if (stage.compareAndSet(WAITING, RETURNED) || stage.get() == RETURNED) settle();
+            else statusLabel.setText("Status: Cancelling...");
+        }
+
+        private void settle() {
+            if (!doneCalled || settled) return;
+            settled = true;
+            finishTask();
+            if (isCancelled()) {
+                statusLabel.setText("Status: Cancelled"); // cancelled() may say more
+                cancelled();
+                return;
+            }
+            try {
+                succeeded(get());
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(SmartRationGUI.this, errorPrefix + e.getCause().getMessage());
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(SmartRationGUI.this, errorPrefix + e.getMessage());
+            }
+        }
+    }
+
+    private void runTask(String status, UiTask<?> task) {
+        for (JComponent c : actionControls) c.setEnabled(false);
+        statusLabel.setText("Status: " + status);
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        cancelBtn.setVisible(true);
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) progressBar.setValue((Integer) e.getNewValue());
+        });
+        currentTask = task;
+        taskExecutor.execute(task);
+    }
+
+    private void finishTask() {
+        currentTask = null;
+        for (JComponent c : actionControls) c.setEnabled(true);
+        progressBar.setVisible(false);
+        cancelBtn.setVisible(false);
+    }
+
+    // Hands a batch of rows to the EDT; queued before done(), so rows always arrive before the task finishes
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void publishRows(SwingWorker<?, ?> task, DefaultTableModel model, List<Object[]> rows) {
+        if (rows.isEmpty()) return;
+        SwingUtilities.invokeLater(() -> {
+            if (task.isCancelled()) return;
+            int first = model.getRowCount();
+            Vector data = model.getDataVector();
+            for (Object[] row : rows) data.add(new Vector<>(Arrays.asList(row)));
+            model.fireTableRowsInserted(first, model.getRowCount() - 1);
+        });
+    }
+
+    // CSV Import Engine
+    // Parses the raw bytes of the file straight into Family objects (no split/replace/valueOf per row)
+    // Quoting follows RFC-4180: "Dela Cruz, Juan" stays one field and "" inside quotes is a literal quote
+    public static class CsvImporter {
+        private static final int BUFFER_SIZE = 1 << 20; // 1 MiB per channel read
+        private static final long MIN_CHUNK = 4L << 20; // Parallel chunks smaller than 4 MiB are not worth a task
+
+        // Precomputed token table: priority names as bytes, matched without creating Strings or throwing
+        private static final PriorityAttribute[] PRIORITIES = PriorityAttribute.values();
+        private static final byte[][] PRIORITY_TOKENS = new byte[PRIORITIES.length][];
+        private static final byte[] NONE_TOKEN = "NONE".getBytes(StandardCharsets.US_ASCII);
+        static {
+            for (int i = 0; i < PRIORITIES.length; i++) PRIORITY_TOKENS[i] = PRIORITIES[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        // What the import did, so rejected rows are reported instead of silently dropped
+        public static class ImportResult {
+            public final List<Family> families;
+            public final long rows, rejected, unknownPriorities, bytes, nanos;
+
+            ImportResult(List<Family> families, long rows, long rejected, long unknownPriorities, long bytes, long nanos) {
+                this.families = families; this.rows = rows; this.rejected = rejected;
+                this.unknownPriorities = unknownPriorities; this.bytes = bytes; this.nanos = nanos;
+            }
+
+            public double rowsPerSecond() { return nanos == 0 ? 0 : rows * 1_000_000_000.0 / nanos; }
+
+            public String summary() {
+                return String.format("%d rows, %d rejected, %d unknown priorities, %,.0f rows/sec", rows, rejected, unknownPriorities, rowsPerSecond());
+            }
+        }
+
+        // Column layout found in the header line
+        static class Header {
+            byte delimiter;
+            int idIndex = -1, nameIndex = -1, sizeIndex = -1, priorityIndex = -1;
+            long dataStart; // byte offset of the first data row
+        }
+
+        // Lets the caller follow the import and stop it (e.g. the Cancel button); may be called from several threads
+        public interface Progress {
+            void advance(long bytes);
+            boolean isCancelled();
+
+            Progress NONE = new Progress() {
+                public void advance(long bytes) { }
+                public boolean isCancelled() { return false; }
+            };
+        }
+
+        // Receives every accepted row; attributes come in as a PriorityAttribute bitmask
+        interface RecordSink { void accept(String id, String name, int size, long attributeMask); }
+
+        public static ImportResult importFile(String filePath) throws IOException { return importFile(filePath, Progress.NONE, false); }
+
+        // columnar = true parses straight into a FamilyStore; result.families is then a view list over it
+        public static ImportResult importFile(String filePath, Progress progress, boolean columnar) throws IOException {
+            long start = System.nanoTime();
+            try (FileChannel ch = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                long fileSize = ch.size();
+                Header header = readHeader(ch);
+                if (header == null) return new ImportResult(new Part(columnar).families(), 0, 0, 0, fileSize, System.nanoTime() - start);
+
+                Part part = new Part(columnar);
+                RecordParser parser = new RecordParser(header, part);
+                parseRange(ch, header.dataStart, fileSize, parser, progress);
+                parser.finish();
+                return new ImportResult(part.families(), parser.rows, parser.rejected, parser.unknownPriorities, fileSize, System.nanoTime() - start);
+            }
+        }
+
+        // Parallel mode: splits the data rows into quote-aware chunks and parses them on a fork-join pool
+        // The chunks are merged back in file order, so the result is the same as importFile
+        public static ImportResult importFileParallel(String filePath, ForkJoinPool pool) throws IOException {
+            return importFileParallel(filePath, pool, Progress.NONE, false);
+        }
+
+        public static ImportResult importFileParallel(String filePath, ForkJoinPool pool, Progress progress, boolean columnar) throws IOException {
+            long start = System.nanoTime();
+            try (FileChannel ch = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                long fileSize = ch.size();
+                Header header = readHeader(ch);
+                if (header == null) return new ImportResult(new Part(columnar).families(), 0, 0, 0, fileSize, System.nanoTime() - start);
+
+                long dataLen = fileSize - header.dataStart;
+                int chunks = (int) Math.min(pool.getParallelism() * 4L, dataLen / MIN_CHUNK);
+                if (chunks < 2) return importFile(filePath, progress, columnar);
+
+                // Pass 1: quote count per raw chunk, so every split point knows if it starts inside quotes
+                long[] rawStart = new long[chunks + 1];
+                for (int i = 0; i <= chunks; i++) rawStart[i] = header.dataStart + dataLen * i / chunks;
+                long[] quotes = new long[chunks];
+                List<Callable<Void>> counters = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) {
+                    final int c = i;
+                    counters.add(() -> { quotes[c] = countQuotes(ch, rawStart[c], rawStart[c + 1], progress); return null; });
+                }
+                invokeAll(pool, counters);
+
+                // Pass 2: move each split point to the first newline outside quotes, then parse the chunks
+                long[] boundary = new long[chunks + 1];
+                boundary[0] = header.dataStart;
+                boundary[chunks] = fileSize;
+                long quotesBefore = 0;
+                for (int i = 1; i < chunks; i++) {
+                    quotesBefore += quotes[i - 1];
+                    boundary[i] = nextRecordStart(ch, rawStart[i], fileSize, (quotesBefore & 1) == 1);
+                }
+
+                List<Part> parts = new ArrayList<>();
+                List<RecordParser> parsers = new ArrayList<>();
+                List<Callable<Void>> workers = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) {
+                    Part part = new Part(columnar);
+                    RecordParser parser = new RecordParser(header, part);
+                    parts.add(part);
+                    parsers.add(parser);
+                    final long from = Math.min(boundary[i], boundary[i + 1]), to = boundary[i + 1];
+                    workers.add(() -> { parseRange(ch, from, to, parser, progress); return null; });
+                }
+                invokeAll(pool, workers);
+
+                // Every chunk but the last must end cleanly on a record; stray quotes fall back to one pass
+                for (int i = 0; i < chunks - 1; i++) if (!parsers.get(i).atRecordStart()) return importFile(filePath, progress, columnar);
+                parsers.get(chunks - 1).finish();
+
+                long rows = 0, rejected = 0, unknown = 0;
+                for (RecordParser p : parsers) { rows += p.rows; rejected += p.rejected; unknown += p.unknownPriorities; }
+                return new ImportResult(Part.merge(parts, columnar), rows, rejected, unknown, fileSize, System.nanoTime() - start);
+            }
+        }
+
+        // Rows of one chunk, collected either as Family objects or straight into a FamilyStore
+        static class Part implements RecordSink {
+            final List<Family> list;
+            final FamilyStore store;
+
+            Part(boolean columnar) {
+                list = columnar ? null : new ArrayList<>();
+                store = columnar ? new FamilyStore() : null;
+            }
+
+            public void accept(String id, String name, int size, long attributeMask) {
+                if (store != null) store.add(id, name, size, attributeMask);
+                else list.add(new Family(id, name, size, PriorityAttribute.fromMask(attributeMask)));
+            }
+
+            List<Family> families() { return store != null ? store.asList() : list; }
+
+            static List<Family> merge(List<Part> parts, boolean columnar) {
+                if (columnar) {
+                    List<FamilyStore> stores = new ArrayList<>();
+                    for (Part p : parts) stores.add(p.store);
+                    return FamilyStore.concat(stores).asList();
+                }
+                int total = 0;
+                for (Part p : parts) total += p.list.size();
+                List<Family> families = new ArrayList<>(total);
+                for (Part p : parts) families.addAll(p.list);
+                return families;
+            }
+        }
+
+        private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) throws IOException {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                try { f.get(); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException("Import interrupted"); }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+
+        private static long countQuotes(FileChannel ch, long from, long to, Progress progress) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(to - from, 1)));
+            long count = 0, pos = from;
+            while (pos < to) {
+                if (progress.isCancelled()) throw new InterruptedIOException("Import cancelled");
+                buf.clear();
+                if (to - pos < buf.capacity()) buf.limit((int) (to - pos));
+                int n = ch.read(buf, pos);
+                if (n <= 0) break;
+                byte[] a = buf.array();
+                for (int i = 0; i < n; i++) if (a[i] == '"') count++;
+                pos += n;
+            }
+            return count;
+        }
+
+        // Offset just after the first newline that is outside quotes (quote parity even)
+        private static long nextRecordStart(FileChannel ch, long from, long fileSize, boolean inQuotes) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            long pos = from;
+            while (pos < fileSize) {
+                buf.clear();
+                int n = ch.read(buf, pos);
+                if (n <= 0) break;
+                byte[] a = buf.array();
+                for (int i = 0; i < n; i++) {
+                    if (a[i] == '"') inQuotes = !inQuotes;
+                    else if (a[i] == '\n' && !inQuotes) return pos + i + 1;
+                }
+                pos += n;
+            }
+            return fileSize;
+        }
+
+        // Reads the first line, strips the BOM, picks the delimiter and finds the columns we need
+        static Header readHeader(FileChannel ch) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(ch.size(), 1)));
+            while (buf.hasRemaining() && ch.read(buf, buf.position()) > 0) { }
+            byte[] a = buf.array();
+            int len = buf.position();
+            if (len == 0) return null;
+
+            int from = (len >= 3 && (a[0] & 0xFF) == 0xEF && (a[1] & 0xFF) == 0xBB && (a[2] & 0xFF) == 0xBF) ? 3 : 0;
+            int end = from;
+            while (end < len && a[end] != '\n') end++;
+
+            Header header = new Header();
+            header.delimiter = ',';
+            for (int i = from; i < end; i++) if (a[i] == ';') { header.delimiter = ';'; break; }
+            header.dataStart = Math.min(end + 1, len);
+
+            String[] headers = new String(a, from, end - from, StandardCharsets.UTF_8).split(header.delimiter == ';' ? ";" : ",");
+            for (int i = 0; i < headers.length; i++) {
+                String h = headers[i].trim().toLowerCase().replace("\"", "");
+                if (h.equals("id")) header.idIndex = i;
+                else if (h.contains("head") || h.contains("name")) header.nameIndex = i;
+                else if (h.contains("size")) header.sizeIndex = i;
+                else if (h.contains("priorit")) header.priorityIndex = i;
+            }
+            if (header.sizeIndex == -1) throw new IOException("Could not find 'Size' column.");
+            return header;
+        }
+
+        // Positional reads, so several ranges of the same channel can be parsed independently
+        static void parseRange(FileChannel ch, long from, long to, RecordParser parser, Progress progress) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(to - from, 1)));
+            long pos = from;
+            while (pos < to) {
+                if (progress.isCancelled()) throw new InterruptedIOException("Import cancelled");
+                buf.clear();
+                if (to - pos < buf.capacity()) buf.limit((int) (to - pos));
+                int n = ch.read(buf, pos);
+                if (n <= 0) break;
+                parser.feed(buf.array(), 0, n);
+                progress.advance(n);
+                pos += n;
+            }
+        }
+
+        // Byte-level RFC-4180 state machine; only the id/name/size/priority fields are ever decoded
+        static class RecordParser {
+            private final Header header;
+            private final RecordSink sink;
+
+            private byte[] field = new byte[256];
+            private int fieldLen, column;
+            private boolean inQuotes, afterQuote, blankRecord = true;
+
+            private String id, name;
+            private int size;
+            private boolean sizeValid;
+            private long mask;
+
+            long rows, rejected, unknownPriorities;
+
+            RecordParser(Header header, RecordSink sink) { this.header = header; this.sink = sink; }
+
+            void feed(byte[] a, int off, int len) {
+                final byte delim = header.delimiter;
+                for (int i = off, end = off + len; i < end; i++) {
+                    byte b = a[i];
+                    if (inQuotes) {
+                        if (b == '"') { inQuotes = false; afterQuote = true; }
+                        else append(b);
+                        continue;
+                    }
+                    if (afterQuote) {
+                        afterQuote = false;
+                        if (b == '"') { append(b); inQuotes = true; continue; } // "" = escaped quote
+                    }
+                    if (b == delim) endField();
+                    else if (b == '\n') { endField(); endRecord(); }
+                    else if (b == '"' && isBlank(0, fieldLen)) { fieldLen = 0; inQuotes = true; blankRecord = false; }
+                    else if (b != '\r') append(b);
+                }
+            }
+
+            // True when the last byte fed closed a record (used to validate parallel chunk boundaries)
+            boolean atRecordStart() { return !inQuotes && !afterQuote && column == 0 && fieldLen == 0; }
+
+            // Flushes a last row that has no trailing newline
+            void finish() {
+                if (fieldLen > 0 || column > 0 || !blankRecord) { endField(); endRecord(); }
+                inQuotes = afterQuote = false;
+            }
+
+            private void append(byte b) {
+                if (fieldLen == field.length) field = Arrays.copyOf(field, fieldLen * 2);
+                field[fieldLen++] = b;
+                if ((b & 0xFF) > ' ') blankRecord = false;
+            }
+
+            private void endField() {
+                int s = 0, e = fieldLen;
+                while (s < e && (field[s] & 0xFF) <= ' ') s++;
+                while (e > s && (field[e - 1] & 0xFF) <= ' ') e--;
+
+                if (column == header.idIndex) id = new String(field, s, e - s, StandardCharsets.UTF_8);
+                else if (column == header.nameIndex) name = new String(field, s, e - s, StandardCharsets.UTF_8);
+                else if (column == header.sizeIndex) parseSize(s, e);
+                else if (column == header.priorityIndex) parsePriorities(s, e);
+
+                column++;
+                fieldLen = 0;
+            }
+
+            private void endRecord() {
+                if (blankRecord) { reset(); return; } // blank lines are skipped, not rejected
+                rows++;
+                if (column <= header.sizeIndex || !sizeValid) rejected++;
+                else sink.accept(id == null ? "Unknown" : id, name == null ? "Unknown" : name, size, mask);
+                reset();
+            }
+
+            private void reset() {
+                column = 0; fieldLen = 0; blankRecord = true;
+                id = null; name = null; size = 0; sizeValid = false; mask = 0;
+            }
+
+            private void parseSize(int s, int e) {
+                long v = 0;
+                if (s < e && field[s] == '+') s++;
+                sizeValid = s < e;
+                for (int i = s; i < e && sizeValid; i++) {
+                    int d = field[i] - '0';
+                    if (d < 0 || d > 9 || (v = v * 10 + d) > Integer.MAX_VALUE) sizeValid = false;
+                }
+                size = (int) v;
+            }
+
+            // "Has Infant; pwd" -> HAS_INFANT | PWD, unknown tokens are counted
+            private void parsePriorities(int s, int e) {
+                int t = s;
+                for (int i = s; i <= e; i++) {
+                    if (i < e && field[i] != ';') continue;
+                    int ts = t, te = i;
+                    while (ts < te && (field[ts] & 0xFF) <= ' ') ts++;
+                    while (te > ts && (field[te - 1] & 0xFF) <= ' ') te--;
+                    if (te > ts && !tokenEquals(ts, te, NONE_TOKEN)) {
+                        int match = -1;
+                        for (int p = 0; p < PRIORITY_TOKENS.length && match < 0; p++) if (tokenEquals(ts, te, PRIORITY_TOKENS[p])) match = p;
+                        if (match >= 0) mask |= PRIORITIES[match].bit();
+                        else unknownPriorities++;
+                    }
+                    t = i + 1;
+                }
+            }
+
+            // Case-insensitive compare where a space matches '_' (same as toUpperCase().replace(" ", "_"))
+            private boolean tokenEquals(int s, int e, byte[] token) {
+                if (e - s != token.length) return false;
+                for (int i = 0; i < token.length; i++) {
+                    int c = field[s + i];
+                    if (c >= 'a' && c <= 'z') c -= 32;
+                    else if (c == ' ') c = '_';
+                    if (c != token[i]) return false;
+                }
+                return true;
+            }
+
+            private boolean isBlank(int s, int e) {
+                for (int i = s; i < e; i++) if ((field[i] & 0xFF) > ' ') return false;
+                return true;
+            }
+        }
+    }
+
+    // Synthetic Registry Generator (for load and soak tests)
+    // Writes demographic CSVs in every shape CsvImporter reads (',' or ';', quotes, BOM, CRLF, NONE, blank
+    // priorities) plus a matching inventory CSV. Same seed + options = same bytes, whatever the thread count:
+    // rows are generated in fixed blocks, each from its own seeded random, in parallel, and written in order.
+    //   java -cp . SmartRationGUI$RegistryGenerator --families 10000000 --seed 7 --delimiter ; --bom --out big.csv
+    public static class RegistryGenerator {
+        private static final int BLOCK_ROWS = 1 << 15;
+
+        // Household sizes (1..15) roughly like an evacuation-center registry: mostly 3-5, a long tail
+        private static final int[] SIZE_WEIGHTS = {9, 15, 19, 20, 15, 10, 6, 3, 1, 1, 1, 0, 0, 0, 0};
+        // Names are "Surname, Given Middle" with the middle name (the mother's surname) from the same list, so
+        // ~70 x 60 x 70 distinct households; now and then only a middle initial, and a Jr./Sr./III suffix.
+        // DuplicateDetector ignores initials and suffixes, so a generated registry flags only real collisions.
+        private static final String[] SURNAMES = {"Dela Cruz", "Santos", "Reyes", "Garcia", "Mendoza", "Bautista", "Villanueva", "Ramos",
+                "Aquino", "Castillo", "De Leon", "Navarro", "Peña", "Torres", "Lim", "Tan", "Flores", "Gonzales", "Del Rosario", "Mercado",
+                "Rivera", "Aguilar", "Domingo", "Fernandez", "Lopez", "Marquez", "Salazar", "Soriano", "Pascual", "Manalo", "Dizon", "Ocampo",
+                "Valdez", "Castro", "Jimenez", "Morales", "Perez", "Tolentino", "Gutierrez", "Santiago", "Panganiban", "Magbanua", "Evangelista",
+                "Fajardo", "Lacson", "Macaraeg", "Buenaventura", "Padilla", "Samonte", "Alcantara", "Salvador", "Velasco", "Cabrera", "Estrada",
+                "Robles", "Sison", "Yap", "Co", "Sy", "Ong", "Uy", "Manalastas", "Dimaculangan", "Dalisay", "Agbayani", "Tiongson", "Zamora",
+                "Quiambao", "Javier", "Nepomuceno"};
+        private static final String[] GIVEN = {"Juan", "Maria", "Jose", "Ana", "Pedro", "Rosa", "Miguel", "Liza", "Carlo", "Nena",
+                "Ramon", "Cristina", "Antonio", "Luz", "Paolo", "Imelda", "Rafael", "Teresa", "Noel", "Joy", "Mark", "Angelica", "Jerome",
+                "Kristine", "Rodel", "Marites", "Arnel", "Lorna", "Dennis", "Rowena", "Edgar", "Marilou", "Rommel", "Jocelyn", "Ferdinand",
+                "Gloria", "Ernesto", "Corazon", "Danilo", "Leonora", "Renato", "Evelyn", "Rogelio", "Erlinda", "Alvin", "Sheila", "Jericho",
+                "Precious", "Jayson", "Divina", "Bong", "Lani", "Efren", "Nora", "Ariel", "Mylene", "Julius", "Girlie", "Reynaldo", "Charito"};
+        private static final String[] NAME_SUFFIXES = {" Jr.", " Sr.", " III"};
+        // How each attribute is spelled in the file; CsvImporter ignores case and treats ' ' like '_'
+        private static final String[][] PRIORITY_SPELLINGS = {
+                {"Has Infant", "HAS_INFANT", "has infant"}, {"Has Senior", "HAS_SENIOR"}, {"Pregnant", "PREGNANT"},
+                {"Lactating", "LACTATING"}, {"PWD", "pwd"}, {"Diabetic", "DIABETIC"}, {"Injured", "INJURED"}};
+
+        public static class Options {
+            public long families = 100_000;
+            public long seed = 1;
+            public char delimiter = ',';
+            public boolean bom, crlf, quoteAll;
+            public double nicknameRate = 0.01; // names with embedded "quotes", to exercise "" escaping
+            public double attributeRate = -1;  // 0..1: every attribute on its own with this chance (benchmarks); < 0: the realistic mix
+            public int supplies = 40;
+            public int threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        public static void main(String[] args) throws IOException {
+            Options o = new Options();
+            Path out = Paths.get("registry.csv"), inventory = null;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--families": o.families = Long.parseLong(args[++i].replace("_", "")); break;
+                    case "--seed": o.seed = Long.parseLong(args[++i]); break;
+                    case "--delimiter": o.delimiter = args[++i].charAt(0); break;
+                    case "--bom": o.bom = true; break;
+                    case "--crlf": o.crlf = true; break;
+                    case "--quote-all": o.quoteAll = true; break;
+                    case "--nicknames": o.nicknameRate = Double.parseDouble(args[++i]); break;
+                    case "--attributes": o.attributeRate = Double.parseDouble(args[++i]); break;
+                    case "--supplies": o.supplies = Integer.parseInt(args[++i]); break;
+                    case "--threads": o.threads = Integer.parseInt(args[++i]); break;
+                    case "--out": out = Paths.get(args[++i]); break;
+                    case "--inventory": inventory = Paths.get(args[++i]); break;
+                    default:
+                        System.err.println("Usage: RegistryGenerator [--families N] [--seed S] [--delimiter , or ;] [--bom] [--crlf] [--quote-all]"
+                                + " [--nicknames RATE] [--attributes RATE] [--supplies N] [--threads N] [--out registry.csv] [--inventory inventory.csv]");
+                        System.exit(2);
+                }
+            }
+            long start = System.nanoTime();
+            long population = writeRegistry(out, o);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %,d families, %,d people, %,d bytes in %.2f s (%.0f MB/s)%n",
+                    out, o.families, population, Files.size(out), seconds, Files.size(out) / 1e6 / seconds);
+            if (inventory != null) {
+                writeInventory(inventory, o, population);
+                System.out.printf("%s: %d supplies%n", inventory, o.supplies);
+            }
+        }
+
+        // Returns the total number of people written (what the inventory is sized against)
+        public static long writeRegistry(Path out, Options o) throws IOException {
+            long blocks = (o.families + BLOCK_ROWS - 1) / BLOCK_ROWS;
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, o.threads));
+            Tables tables = new Tables(o);
+            long population = 0;
+            try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                String nl = o.crlf ? "\r\n" : "\n";
+                String header = (o.bom ? "\uFEFF" : "") + String.join(String.valueOf(o.delimiter), "ID", "Head of Family", "Family Size", "Priorities") + nl;
+                write(ch, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+
+                // A bounded window of blocks in flight keeps memory flat for files of any size
+                Deque<ForkJoinTask<Block>> window = new ArrayDeque<>();
+                int maxInFlight = 2 * Math.max(1, o.threads);
+                for (long b = 0; b < blocks || !window.isEmpty(); ) {
+                    while (b < blocks && window.size() < maxInFlight) {
+                        long first = b * BLOCK_ROWS;
+                        int rows = (int) Math.min(BLOCK_ROWS, o.families - first);
+                        long block = b++;
+                        window.add(pool.submit(ForkJoinTask.adapt(() -> generateBlock(block, first, rows, o, tables))));
+                    }
+                    Block done = window.poll().join();
+                    write(ch, ByteBuffer.wrap(done.bytes, 0, done.length));
+                    population += done.population;
+                }
+            } finally {
+                pool.shutdown();
+            }
+            return population;
+        }
+
+        private static void write(FileChannel ch, ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+
+        private static class Block {
+            byte[] bytes = new byte[BLOCK_ROWS * 64];
+            int length;
+            long population;
+            private final byte[] digits = new byte[20];
+
+            void append(byte[] b) {
+                ensure(b.length);
+                System.arraycopy(b, 0, bytes, length, b.length);
+                length += b.length;
+            }
+
+            void append(byte b) { ensure(1); bytes[length++] = b; }
+
+            void append(long v) {
+                int n = 0;
+                do { digits[n++] = (byte) ('0' + v % 10); v /= 10; } while (v > 0);
+                ensure(n);
+                while (n > 0) bytes[length++] = digits[--n];
+            }
+
+            private void ensure(int n) {
+                if (length + n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+            }
+        }
+
+        private static Block generateBlock(long block, long firstRow, int rows, Options o, Tables t) {
+            SplittableRandom rnd = new SplittableRandom(o.seed * 0x9E3779B97F4A7C15L + block);
+            Block out = new Block();
+            byte d = (byte) o.delimiter;
+            int[] spelling = new int[PRIORITY_SPELLINGS.length];
+            for (int r = 0; r < rows; r++) {
+                // Size
+                int pick = rnd.nextInt(t.sizeTotal), size = 0;
+                while (pick >= SIZE_WEIGHTS[size]) pick -= SIZE_WEIGHTS[size++];
+                size++;
+                out.population += size;
+
+                // Attributes, loosely correlated with household makeup (or each one flat at --attributes)
+                boolean[] has;
+                if (o.attributeRate >= 0) {
+                    has = new boolean[PRIORITY_SPELLINGS.length];
+                    for (int a = 0; a < has.length; a++) has[a] = rnd.nextDouble() < o.attributeRate;
+                } else {
+                    boolean infant = rnd.nextDouble() < Math.min(0.6, 0.04 + 0.03 * size);
+                    boolean senior = rnd.nextDouble() < 0.18;
+                    boolean pregnant = size >= 2 && rnd.nextDouble() < 0.05;
+                    boolean lactating = rnd.nextDouble() < (infant ? 0.45 : 0.01);
+                    boolean pwd = rnd.nextDouble() < 0.06;
+                    boolean diabetic = rnd.nextDouble() < (senior ? 0.2 : 0.05);
+                    boolean injured = rnd.nextDouble() < 0.03;
+                    has = new boolean[]{infant, senior, pregnant, lactating, pwd, diabetic, injured};
+                }
+                int count = 0;
+                for (int a = 0; a < has.length; a++) {
+                    spelling[a] = has[a] ? rnd.nextInt(PRIORITY_SPELLINGS[a].length) : -1;
+                    if (has[a]) count++;
+                }
+
+                // ID
+                if (o.quoteAll) out.append((byte) '"');
+                out.append((byte) 'F');
+                out.append(firstRow + r + 1);
+                if (o.quoteAll) out.append((byte) '"');
+                out.append(d);
+
+                // Name, "Surname, Given Middle" (quoted because of the comma when ',' is the delimiter)
+                boolean nickname = rnd.nextDouble() < o.nicknameRate;
+                boolean quoteName = o.quoteAll || o.delimiter == ',' || nickname;
+                if (quoteName) out.append((byte) '"');
+                out.append(t.surnames[rnd.nextInt(SURNAMES.length)]);
+                out.append(t.comma);
+                out.append(t.given[rnd.nextInt(GIVEN.length)]);
+                out.append((byte) ' ');
+                if (rnd.nextInt(10) == 0) { out.append((byte) ('A' + rnd.nextInt(26))); out.append((byte) '.'); }
+                else out.append(t.surnames[rnd.nextInt(SURNAMES.length)]);
+                int suffix = rnd.nextInt(50);
+                if (suffix < NAME_SUFFIXES.length) out.append(t.suffixes[suffix]);
+                if (nickname) out.append(t.nickname);
+                if (quoteName) out.append((byte) '"');
+                out.append(d);
+
+                // Size
+                if (o.quoteAll) out.append((byte) '"');
+                out.append(size);
+                if (o.quoteAll) out.append((byte) '"');
+                out.append(d);
+
+                // Priorities: ';'-separated, NONE (or now and then an empty field) when there are none
+                if (count == 0) {
+                    out.append(rnd.nextInt(10) == 0 ? t.empty : t.none);
+                } else {
+                    boolean quote = o.quoteAll || (count > 1 && o.delimiter == ';');
+                    if (quote) out.append((byte) '"');
+                    boolean first = true;
+                    for (int a = 0; a < spelling.length; a++) {
+                        if (spelling[a] < 0) continue;
+                        if (!first) out.append((byte) ';');
+                        out.append(t.priorities[a][spelling[a]]);
+                        first = false;
+                    }
+                    if (quote) out.append((byte) '"');
+                }
+                out.append(t.newline);
+            }
+            return out;
+        }
+
+        // Everything that only depends on the options, encoded (and quoted) once
+        private static class Tables {
+            final int sizeTotal;
+            final byte[][] surnames = utf8(SURNAMES), given = utf8(GIVEN), suffixes = utf8(NAME_SUFFIXES);
+            final byte[] comma = utf8(", "), nickname = utf8(" \"\"Jun\"\""); // only ever inside a quoted name
+            final byte[][][] priorities = new byte[PRIORITY_SPELLINGS.length][][];
+            final byte[] none, empty, newline;
+
+            Tables(Options o) {
+                int total = 0;
+                for (int w : SIZE_WEIGHTS) total += w;
+                sizeTotal = total;
+                for (int a = 0; a < PRIORITY_SPELLINGS.length; a++) {
+                    priorities[a] = new byte[PRIORITY_SPELLINGS[a].length][];
+                    for (int k = 0; k < PRIORITY_SPELLINGS[a].length; k++) priorities[a][k] = PRIORITY_SPELLINGS[a][k].getBytes(StandardCharsets.UTF_8);
+                }
+                none = field("NONE", o);
+                empty = field("", o);
+                newline = (o.crlf ? "\r\n" : "\n").getBytes(StandardCharsets.US_ASCII);
+            }
+
+            private static byte[] utf8(String s) { return s.getBytes(StandardCharsets.UTF_8); }
+
+            private static byte[][] utf8(String[] strings) {
+                byte[][] bytes = new byte[strings.length][];
+                for (int i = 0; i < strings.length; i++) bytes[i] = utf8(strings[i]);
+                return bytes;
+            }
+
+            // RFC-4180 quoting: only when needed (or always with --quote-all), embedded quotes doubled
+            private static byte[] field(String value, Options o) {
+                boolean quote = o.quoteAll || value.indexOf(o.delimiter) >= 0 || value.indexOf('"') >= 0;
+                String s = quote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+                return s.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        // Inventory CSV (the columns of the inventory table) sized against the generated population:
+        // staples for everybody, some targeted supplies per attribute, and medical stock kept in reserve
+        public static void writeInventory(Path out, Options o, long population) throws IOException {
+            SplittableRandom rnd = new SplittableRandom(o.seed ^ 0x5DEECE66DL);
+            PriorityAttribute[] attributes = PriorityAttribute.values();
+            SupplyCategory[] general = {SupplyCategory.STAPLE, SupplyCategory.PROTEIN, SupplyCategory.GENERAL_HEALTH};
+            try (PrintWriter pw = ReportGenerator.openWriter(out.toString())) {
+                pw.println(InventoryFile.HEADER);
+                for (int i = 0; i < o.supplies; i++) {
+                    SupplyCategory cat;
+                    String target = "NONE";
+                    long qty;
+                    int kind = rnd.nextInt(10);
+                    if (kind < 6) { // general: about 1-3 per person
+                        cat = general[rnd.nextInt(general.length)];
+                        qty = population + rnd.nextLong(Math.max(1, 2 * population));
+                    } else if (kind < 9) { // targeted at one attribute
+                        cat = SupplyCategory.PRIORITY_NUTRITION;
+                        target = attributes[rnd.nextInt(attributes.length)].name();
+                        qty = Math.max(1, population / (5 + rnd.nextInt(20)));
+                    } else {
+                        cat = SupplyCategory.SPECIALIZED_MED;
+                        qty = Math.max(1, population / (50 + rnd.nextInt(200)));
+                    }
+                    pw.println(cat + ",Item " + (i + 1) + "," + Math.min(qty, Integer.MAX_VALUE) + "," + target);
+                }
+                ReportGenerator.checkWritten(pw, out.toString());
+            }
+        }
+    }
+
+    // Inventory CSV: the columns of the inventory table, one supply per line
+    //   Category,Item Name,Qty,Target Priority      e.g.  STAPLE,Rice 5kg,1200,NONE
+    public static class InventoryFile {
+        public static final String HEADER = "Category,Item Name,Qty,Target Priority";
+
+        public static List<Supply> read(Path file) throws IOException {
+            List<Supply> inventory = new ArrayList<>();
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int n = 0; n < lines.size(); n++) {
+                String line = lines.get(n);
+                if (n == 0 && line.startsWith("\uFEFF")) line = line.substring(1);
+                if (line.isBlank() || (n == 0 && line.toLowerCase().startsWith("category"))) continue;
+                List<String> f = splitLine(line);
+                if (f.size() < 3) throw new IOException(file + " line " + (n + 1) + ": expected " + HEADER);
+                try {
+                    SupplyCategory cat = SupplyCategory.valueOf(f.get(0).trim().toUpperCase().replace(' ', '_'));
+                    int qty = Integer.parseInt(f.get(2).trim());
+                    if (qty < 0) throw new IllegalArgumentException("negative quantity " + qty);
+                    String target = f.size() > 3 ? f.get(3).trim().toUpperCase().replace(' ', '_') : "";
+                    inventory.add(new Supply(f.get(1).trim(), cat, qty,
+                            target.isEmpty() || target.equals("NONE") ? null : PriorityAttribute.valueOf(target)));
+                } catch (IllegalArgumentException e) { // also NumberFormatException
+                    throw new IOException(file + " line " + (n + 1) + ": " + e.getMessage());
+                }
+            }
+            return inventory;
+        }
+
+        // Comma separated, "quoted, fields" allowed ("" inside quotes is a quote)
+        private static List<String> splitLine(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { sb.append('"'); i++; }
+                    else if (c == '"') quoted = false;
+                    else sb.append(c);
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(sb.toString());
+                    sb.setLength(0);
+                } else {
+                    sb.append(c);
+                }
+            }
+            fields.add(sb.toString());
+            return fields;
+        }
+    }
+
+    // Duplicate Household Detection
+    // Runs right after every import, before anything is distributed. Two indexes, each one pass over the rows:
+    //  - same household ID: IDs compared without case, punctuation or leading zeros ("F-0012" = "f12")
+    //  - same head of family: accents dropped, name particles joined ("De la Cruz" = "Dela Cruz"), tokens sorted
+    //    ("Reyes, Ramon" = "Ramon Reyes") and coded with Soundex ("Reyez" = "Reyes"); those codes plus the member
+    //    count are the block key, and only rows of one block are compared (trigram similarity of the names).
+    // So the work grows with the number of rows, not with the number of pairs. A block of more than MAX_BLOCK rows
+    // is a very common name and size: it is counted in the report but not compared pair by pair.
+    public static class DuplicateDetector {
+        static final int MAX_BLOCK = 32;
+        static final double MIN_SIMILARITY = 0.7; // trigram Jaccard of the normalized names, within a block ("Reyes"/"Reyez" ~0.71)
+        private static final Set<String> PARTICLES = new HashSet<>(Arrays.asList("de", "del", "dela", "la", "las", "los", "delos", "san", "sta", "sto", "santa"));
+        private static final Set<String> SUFFIXES = new HashSet<>(Arrays.asList("jr", "sr", "ii", "iii", "iv"));
+
+        public static final class Group {
+            public final int[] rows;        // family rows, ascending
+            public final boolean sameId;    // some rows share the household ID
+            public final boolean sameName;  // some rows have the same normalized name and size (otherwise only similar ones)
+
+            Group(int[] rows, boolean sameId, boolean sameName) { this.rows = rows; this.sameId = sameId; this.sameName = sameName; }
+
+            public String reason() {
+                return sameId && sameName ? "same ID and name" : sameId ? "same ID" : sameName ? "same name and size" : "similar name, same size";
+            }
+        }
+
+        public static final class Report {
+            public final List<Group> groups;
+            public final long commonNameBlocks, commonNameRows; // blocks too big to compare, and the rows in them
+            public final long nanos;
+
+            Report(List<Group> groups, long commonNameBlocks, long commonNameRows, long nanos) {
+                this.groups = groups; this.commonNameBlocks = commonNameBlocks; this.commonNameRows = commonNameRows; this.nanos = nanos;
+            }
+
+            public boolean isEmpty() { return groups.isEmpty(); }
+
+            // Rows beyond the first of every group: the registrations that would get a second ration
+            public long extraRows() { long t = 0; for (Group g : groups) t += g.rows.length - 1; return t; }
+
+            public String summary() {
+                long sameId = 0;
+                for (Group g : groups) if (g.sameId) sameId++;
+                return String.format("%,d possible duplicate households (%,d with the same ID, %,d extra rows), %,d common name blocks not compared, %d ms",
+                        groups.size(), sameId, extraRows(), commonNameBlocks, nanos / 1_000_000);
+            }
+
+            public String toText(FamilyStore store) {
+                StringBuilder sb = new StringBuilder("=== POSSIBLE DUPLICATE HOUSEHOLDS ===\n").append(summary()).append("\n\n");
+                for (int g = 0; g < groups.size(); g++) {
+                    Group group = groups.get(g);
+                    sb.append("Group ").append(g + 1).append(" (").append(group.reason()).append(")\n");
+                    for (int row : group.rows) {
+                        sb.append(String.format("   %-14s | %-30s | %3d | %s%n", store.getId(row), store.getHeadOfFamily(row),
+                                store.getMemberCount(row), PriorityAttribute.fromMask(store.getAttributeMask(row))));
+                    }
+                }
+                return sb.toString();
+            }
+        }
+
+        public static Report scan(FamilyStore store, ForkJoinPool pool) {
+            long start = System.nanoTime();
+            int n = store.size();
+            String[] ids = store.ids(), names = store.names();
+            int[] members = store.memberCounts();
+            long[] idKeys = new long[n], blockKeys = new long[n];
+            pool.invoke(ForkJoinTask.adapt(() -> java.util.stream.IntStream.range(0, n).parallel().forEach(row -> {
+                idKeys[row] = idKey(ids[row]);
+                blockKeys[row] = blockKey(names[row], members[row]);
+            })));
+
+            int[] parent = new int[n];
+            for (int i = 0; i < n; i++) parent[i] = i;
+            BitSet sameId = new BitSet(), sameName = new BitSet(), touched = new BitSet();
+
+            // 1. Same ID: every chain holds the rows of one key, verified on the strings
+            int[] next = new int[n];
+            for (int[] chain : chains(idKeys, next)) {
+                for (int k = 1; k < chain.length; k++) {
+                    if (!normalizeId(ids[chain[k]]).equals(normalizeId(ids[chain[0]]))) continue;
+                    union(parent, chain[0], chain[k]);
+                    sameId.set(chain[0]); sameId.set(chain[k]);
+                    touched.set(chain[0]); touched.set(chain[k]);
+                }
+            }
+
+            // 2. Name blocks: compare inside a block only, blocks in parallel; matches come back as
+            // (row, row, same name) triples and are merged here, on one thread
+            long commonBlocks = 0, commonRows = 0;
+            List<int[]> blocks = new ArrayList<>();
+            for (int[] block : chains(blockKeys, next)) {
+                if (block.length > MAX_BLOCK) { commonBlocks++; commonRows += block.length; }
+                else blocks.add(block);
+            }
+            List<int[]> matches = pool.invoke(ForkJoinTask.adapt(() -> blocks.parallelStream()
+                    .flatMap(block -> compareBlock(block, names, members).stream()).collect(java.util.stream.Collectors.toList())));
+            for (int[] m : matches) {
+                union(parent, m[0], m[1]);
+                if (m[2] != 0) { sameName.set(m[0]); sameName.set(m[1]); }
+                touched.set(m[0]); touched.set(m[1]);
+            }
+
+            // Groups by root, in row order
+            Map<Integer, List<Integer>> byRoot = new LinkedHashMap<>();
+            for (int row = touched.nextSetBit(0); row >= 0; row = touched.nextSetBit(row + 1)) {
+                byRoot.computeIfAbsent(find(parent, row), r -> new ArrayList<>()).add(row);
+            }
+            List<Group> groups = new ArrayList<>();
+            for (List<Integer> rows : byRoot.values()) {
+                int[] r = rows.stream().mapToInt(Integer::intValue).toArray();
+                boolean id = false, name = false;
+                for (int row : r) { id |= sameId.get(row); name |= sameName.get(row); }
+                groups.add(new Group(r, id, name));
+            }
+            groups.sort(Comparator.comparingInt((Group g) -> g.rows[0]));
+            return new Report(groups, commonBlocks, commonRows, System.nanoTime() - start);
+        }
+
+        private static List<int[]> compareBlock(int[] block, String[] names, int[] members) {
+            String[] canonical = new String[block.length];
+            long[][] grams = new long[block.length][];
+            for (int k = 0; k < block.length; k++) {
+                canonical[k] = canonicalName(names[block[k]]);
+                grams[k] = trigrams(canonical[k]);
+            }
+            List<int[]> matches = new ArrayList<>(2);
+            for (int a = 0; a < block.length; a++) {
+                for (int b = a + 1; b < block.length; b++) {
+                    int ra = block[a], rb = block[b];
+                    if (members[ra] != members[rb]) continue; // only a key collision
+                    boolean same = canonical[a].equals(canonical[b]);
+                    if (same || similarity(grams[a], grams[b]) >= MIN_SIMILARITY) matches.add(new int[]{ra, rb, same ? 1 : 0});
+                }
+            }
+            return matches;
+        }
+
+        // Rows with the same key (0 = no key), chains of 2+ only; next is scratch space of length rows
+        private static List<int[]> chains(long[] keys, int[] next) {
+            int n = keys.length;
+            int capacity = Integer.highestOneBit(Math.max(2, n) * 2 - 1) << 1;
+            int mask = capacity - 1;
+            long[] slotKeys = new long[capacity];
+            int[] heads = new int[capacity], lengths = new int[capacity]; // head row + 1, 0 = empty
+            for (int row = n - 1; row >= 0; row--) { // backwards, so every chain runs in row order
+                long key = keys[row];
+                if (key == 0) continue;
+                int i = (int) key & mask;
+                while (heads[i] != 0 && slotKeys[i] != key) i = (i + 1) & mask;
+                next[row] = heads[i] - 1;
+                slotKeys[i] = key;
+                heads[i] = row + 1;
+                lengths[i]++;
+            }
+            List<int[]> chains = new ArrayList<>();
+            for (int i = 0; i < capacity; i++) {
+                if (lengths[i] < 2) continue;
+                int[] chain = new int[lengths[i]];
+                for (int k = 0, row = heads[i] - 1; k < chain.length; k++, row = next[row]) chain[k] = row;
+                chains.add(chain);
+            }
+            return chains;
+        }
+
+        private static int find(int[] parent, int x) {
+            while (parent[x] != x) { parent[x] = parent[parent[x]]; x = parent[x]; }
+            return x;
+        }
+
+        private static void union(int[] parent, int a, int b) {
+            int ra = find(parent, a), rb = find(parent, b);
+            if (ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+
+        // Letters and digits only, lower case, no leading zeros in a number: "F-0012" -> "f12"
+        static String normalizeId(String id) {
+            StringBuilder sb = new StringBuilder(id.length());
+            boolean inNumber = false;
+            for (int i = 0; i < id.length(); i++) {
+                char c = id.charAt(i);
+                if (!Character.isLetterOrDigit(c)) { inNumber = false; continue; }
+                if (c == '0' && !inNumber && i + 1 < id.length() && Character.isDigit(id.charAt(i + 1))) continue;
+                inNumber = Character.isDigit(c);
+                sb.append(Character.toLowerCase(c));
+            }
+            return sb.toString();
+        }
+
+        // "Dela Cruz, Juan Jr." -> "delacruz juan"; "Peña" -> "pena"
+        static String canonicalName(String name) {
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) >= 0x80) { name = stripAccents(name); break; }
+            }
+            List<String> tokens = new ArrayList<>(4);
+            StringBuilder pending = new StringBuilder(), word = new StringBuilder();
+            for (int i = 0; i <= name.length(); i++) {
+                char c = i < name.length() ? name.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) { word.append(Character.toLowerCase(c)); continue; }
+                if (c == '.' || c == '\'') continue; // "Ma." and "D'Souza" stay one word
+                if (word.length() == 0) continue;
+                String w = word.toString();
+                word.setLength(0);
+                if (PARTICLES.contains(w)) { pending.append(w); continue; }
+                if (pending.length() == 0 && (SUFFIXES.contains(w) || w.length() == 1)) continue; // suffixes and initials
+                tokens.add(pending.append(w).toString());
+                pending.setLength(0);
+            }
+            if (pending.length() > 0) tokens.add(pending.toString());
+            Collections.sort(tokens);
+            return String.join(" ", tokens);
+        }
+
+        // The keys below are computed straight from the chars (no Strings per row, this is the per-row cost of the
+        // scan); equal keys mean equal normalizeId() / the same Soundex codes of the canonicalName() tokens
+
+        // Hash of normalizeId(id), 0 when nothing is left
+        static long idKey(String id) {
+            long h = 0xcbf29ce484222325L;
+            boolean inNumber = false, any = false;
+            for (int i = 0; i < id.length(); i++) {
+                char c = id.charAt(i);
+                if (!Character.isLetterOrDigit(c)) { inNumber = false; continue; }
+                if (c == '0' && !inNumber && i + 1 < id.length() && Character.isDigit(id.charAt(i + 1))) continue;
+                inNumber = Character.isDigit(c);
+                h = (h ^ Character.toLowerCase(c)) * 0x100000001b3L;
+                any = true;
+            }
+            return any ? mix(h) : 0;
+        }
+
+        private static final String SOUNDEX = "01230120022455012623010202"; // a..z
+        private static final long[] PARTICLE_KEYS = packAll(PARTICLES), SUFFIX_KEYS = packAll(SUFFIXES);
+
+        // Sorted Soundex codes of the name tokens plus the member count, 0 for a name without letters.
+        // Same token rules as canonicalName(): a particle's code runs on into the next word ("de la cruz" = "delacruz")
+        static long blockKey(String name, int members) {
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) >= 0x80) { name = stripAccents(name); break; }
+            }
+            int[] codes = new int[8];
+            int count = 0;
+            int code = 0, digits = 0, length = 0;
+            char last = '0';
+            long packed = 0;       // first 8 chars of the current word, to spot particles and suffixes
+            boolean pending = false; // the word so far started with particles
+            for (int i = 0; i <= name.length(); i++) {
+                char c = i < name.length() ? name.charAt(i) : ' ';
+                if (c == '.' || c == '\'') continue;
+                if (Character.isLetterOrDigit(c)) {
+                    c = Character.toLowerCase(c);
+                    char d = c >= 'a' && c <= 'z' ? SOUNDEX.charAt(c - 'a') : '0';
+                    if (length == 0 && !pending) { code = Character.toUpperCase(c); digits = 0; last = d; }
+                    else {
+                        if (digits < 3 && d != '0' && d != last) { code = code << 8 | d; digits++; }
+                        if (c != 'h' && c != 'w') last = d;
+                    }
+                    if (length < 8) packed = packed << 8 | (c & 0xFF);
+                    length++;
+                    continue;
+                }
+                if (length == 0) continue;
+                boolean particle = length <= 8 && contains(PARTICLE_KEYS, packed);
+                boolean skip = !pending && ((length <= 8 && contains(SUFFIX_KEYS, packed)) || length == 1);
+                length = 0;
+                packed = 0;
+                if (particle) { pending = true; continue; }
+                if (!skip) {
+                    while (digits < 3) { code = code << 8 | '0'; digits++; }
+                    if (count == codes.length) codes = Arrays.copyOf(codes, count * 2);
+                    codes[count++] = code;
+                }
+                pending = false;
+            }
+            if (pending) { // name ends in a particle: it is a token of its own
+                while (digits < 3) { code = code << 8 | '0'; digits++; }
+                if (count == codes.length) codes = Arrays.copyOf(codes, count * 2);
+                codes[count++] = code;
+            }
+            if (count == 0) return 0;
+            Arrays.sort(codes, 0, count);
+            long h = 0xcbf29ce484222325L;
+            for (int k = 0; k < count; k++) h = (h ^ codes[k]) * 0x100000001b3L;
+            return mix((h ^ members) * 0x100000001b3L);
+        }
+
+        private static long[] packAll(Set<String> words) {
+            long[] keys = new long[words.size()];
+            int k = 0;
+            for (String w : words) { long p = 0; for (int i = 0; i < w.length(); i++) p = p << 8 | w.charAt(i); keys[k++] = p; }
+            return keys;
+        }
+
+        private static boolean contains(long[] keys, long packed) {
+            for (long k : keys) if (k == packed) return true;
+            return false;
+        }
+
+        private static String stripAccents(String s) {
+            return java.text.Normalizer.normalize(s, java.text.Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        }
+
+        // Jaccard similarity of the padded trigram sets
+        static double similarity(String a, String b) { return similarity(trigrams(a), trigrams(b)); }
+
+        private static double similarity(long[] ta, long[] tb) {
+            int common = 0;
+            for (int i = 0, j = 0; i < ta.length && j < tb.length; ) {
+                if (ta[i] == tb[j]) { common++; i++; j++; }
+                else if (ta[i] < tb[j]) i++;
+                else j++;
+            }
+            int all = ta.length + tb.length - common;
+            return all == 0 ? 1 : (double) common / all;
+        }
+
+        private static long[] trigrams(String s) {
+            String p = "  " + s + " ";
+            long[] grams = new long[p.length() - 2];
+            for (int i = 0; i < grams.length; i++) grams[i] = (long) p.charAt(i) << 32 | (long) p.charAt(i + 1) << 16 | p.charAt(i + 2);
+            Arrays.sort(grams);
+            int distinct = 0;
+            for (int i = 0; i < grams.length; i++) if (i == 0 || grams[i] != grams[i - 1]) grams[distinct++] = grams[i];
+            return Arrays.copyOf(grams, distinct);
+        }
+
+        // 64-bit finish of an FNV-1a hash (like RegistryDelta.recordHash); never 0, which means "no key"
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h == 0 ? 1 : h;
+        }
+    }
+
+    // Demographic Cube
+    // Families and members per (attribute combination, family size) cell: 128 masks x 17 size buckets.
+    // FamilyStore keeps its cube up to date on every add, concat and registry delta, so the census and the
+    // cross-tabs never rescan the families; a query only sums the matching cells (2,176 at most, a few µs).
+    public static class DemographicCube {
+        private static final PriorityAttribute[] ATTRS = PriorityAttribute.values();
+        public static final int MASKS = 1 << ATTRS.length;
+        public static final int MAX_SIZE = 16;          // last bucket is "16 or more"
+        public static final int SIZES = MAX_SIZE + 1;   // bucket 0 = no members (rejected on import, a plain list may still have them)
+
+        private final long[] families = new long[MASKS * SIZES];
+        private final long[] members = new long[MASKS * SIZES];
+
+        public static int bucket(int memberCount) { return Math.max(0, Math.min(memberCount, MAX_SIZE)); }
+        public static String bucketLabel(int bucket) { return bucket == MAX_SIZE ? MAX_SIZE + "+" : String.valueOf(bucket); }
+
+        private static int cell(long mask, int memberCount) { return (int) (mask & (MASKS - 1)) * SIZES + bucket(memberCount); }
+
+        void add(long mask, int memberCount) {
+            int c = cell(mask, memberCount);
+            families[c]++;
+            members[c] += memberCount;
+        }
+
+        void remove(long mask, int memberCount) {
+            int c = cell(mask, memberCount);
+            families[c]--;
+            members[c] -= memberCount;
+        }
+
+        void addAll(DemographicCube other) {
+            for (int c = 0; c < families.length; c++) {
+                families[c] += other.families[c];
+                members[c] += other.members[c];
+            }
+        }
+
+        // One pass over an ordinary List<Family>; a FamilyStore already has its own (FamilyStore.cube())
+        public static DemographicCube of(List<Family> list) {
+            FamilyStore store = FamilyStore.backing(list);
+            if (store != null) return store.cube();
+            DemographicCube cube = new DemographicCube();
+            for (Family f : list) cube.add(f.getAttributeMask(), f.getMemberCount());
+            return cube;
+        }
+
+        static DemographicCube of(int[] memberCounts, long[] attributeMasks, int size) {
+            DemographicCube cube = new DemographicCube();
+            for (int i = 0; i < size; i++) cube.add(attributeMasks[i], memberCounts[i]);
+            return cube;
+        }
+
+        // Families / members having every attribute in `with` and none in `without`; bucket -1 = every size
+        public long familyCount(long with, long without, int bucket) { return sum(families, with, without, bucket); }
+        public long memberCount(long with, long without, int bucket) { return sum(members, with, without, bucket); }
+
+        private static long sum(long[] cells, long with, long without, int bucket) {
+            long total = 0;
+            for (int m = 0; m < MASKS; m++) {
+                if ((m & with) != with || (m & without) != 0) continue;
+                int base = m * SIZES;
+                if (bucket >= 0) total += cells[base + bucket];
+                else for (int b = 0; b < SIZES; b++) total += cells[base + b];
+            }
+            return total;
+        }
+
+        public long familyCount(PriorityAttribute attr) { return familyCount(attr.bit(), 0, -1); }
+        public long memberCount(PriorityAttribute attr) { return memberCount(attr.bit(), 0, -1); }
+        // Exactly this combination, e.g. PREGNANT + DIABETIC and nothing else (0 = no priority at all)
+        public long exactly(long mask) { return familyCount(mask, ~mask & (MASKS - 1), -1); }
+        public long totalFamilies() { return familyCount(0, 0, -1); }
+        public long totalPopulation() { return memberCount(0, 0, -1); }
+
+        // Families per size bucket, index = bucket()
+        public long[] sizeHistogram() {
+            long[] histogram = new long[SIZES];
+            for (int m = 0; m < MASKS; m++) for (int b = 0; b < SIZES; b++) histogram[b] += families[m * SIZES + b];
+            return histogram;
+        }
+
+        // e.g. crossTab(PREGNANT, DIABETIC): one row per yes/no combination of the attributes, one column per size bucket
+        public CrossTab crossTab(PriorityAttribute... dims) {
+            CrossTab tab = new CrossTab(dims);
+            for (int m = 0; m < MASKS; m++) {
+                int row = 0;
+                for (int d = 0; d < dims.length; d++) if ((m & dims[d].bit()) != 0) row |= 1 << d;
+                for (int b = 0; b < SIZES; b++) {
+                    tab.families[row][b] += families[m * SIZES + b];
+                    tab.members[row][b] += members[m * SIZES + b];
+                }
+            }
+            return tab;
+        }
+
+        public static final class CrossTab {
+            public final PriorityAttribute[] dims;
+            // [row][bucket]; bit d of the row is set when the families have dims[d]
+            public final long[][] families, members;
+
+            CrossTab(PriorityAttribute[] dims) {
+                this.dims = dims.clone();
+                families = new long[1 << dims.length][SIZES];
+                members = new long[1 << dims.length][SIZES];
+            }
+
+            public int rows() { return families.length; }
+
+            // "PREGNANT & not DIABETIC"; "All families" when there are no dimensions
+            public String rowLabel(int row) {
+                if (dims.length == 0) return "All families";
+                StringBuilder sb = new StringBuilder();
+                for (int d = dims.length - 1; d >= 0; d--) {
+                    if (sb.length() > 0) sb.append(" & ");
+                    sb.append((row & 1 << d) != 0 ? "" : "not ").append(dims[d]);
+                }
+                return sb.toString();
+            }
+
+            public long rowFamilies(int row) { long t = 0; for (long v : families[row]) t += v; return t; }
+            public long rowMembers(int row) { long t = 0; for (long v : members[row]) t += v; return t; }
+
+            // Plain text table, rows with the most attributes first; only the size buckets that have families
+            public String toText() {
+                boolean[] used = new boolean[SIZES];
+                for (long[] r : families) for (int b = 0; b < SIZES; b++) used[b] |= r[b] != 0;
+                StringBuilder sb = new StringBuilder(String.format("%-40s", "Families by size"));
+                for (int b = 0; b < SIZES; b++) if (used[b]) sb.append(String.format("%9s", bucketLabel(b)));
+                sb.append(String.format("%11s%12s%n", "Families", "Members"));
+                for (int row = rows() - 1; row >= 0; row--) {
+                    sb.append(String.format("%-40s", rowLabel(row)));
+                    for (int b = 0; b < SIZES; b++) if (used[b]) sb.append(String.format("%9d", families[row][b]));
+                    sb.append(String.format("%11d%12d%n", rowFamilies(row), rowMembers(row)));
+                }
+                return sb.toString();
+            }
+        }
+    }
+
+    // Demographic Analysis
+
+    public static class DemographicAnalyzer {
+        public static String analyze(List<Family> families) {
+            // Reads the cube the FamilyStore keeps up to date, no pass over the families (plain lists get one pass)
+            return analyze(DemographicCube.of(families));
+        }
+
+        public static String analyze(DemographicCube cube) {
+            // Build the Report String
+            StringBuilder sb = new StringBuilder();
+            sb.append("EquiEat Complete!\n\n");
+            sb.append("Demographic Analysis Summary:\n");
+            sb.append("----------------------------------\n");
+            sb.append("Total Population:   ").append(cube.totalPopulation()).append(" citizens\n");
+            sb.append("Total Families:     ").append(cube.totalFamilies()).append("\n\n");
+
+            // Vulnerability Counters (Households containing X, and how many people live in them)
+            sb.append("Households with Priority Needs:\n");
+            for (PriorityAttribute attr : PriorityAttribute.values()) {
+                long households = cube.familyCount(attr);
+                if (households > 0) sb.append("   • ").append(String.format("%-13s", label(attr) + ":")).append(households)
+                        .append(" (").append(cube.memberCount(attr)).append(" members)\n");
+            }
+            sb.append("   • No priority: ").append(cube.exactly(0)).append("\n\n");
+
+            sb.append("Family Sizes:\n");
+            long[] histogram = cube.sizeHistogram();
+            for (int b = 0; b < histogram.length; b++) {
+                if (histogram[b] > 0) sb.append("   • ").append(String.format("%-4s", DemographicCube.bucketLabel(b))).append(" members: ").append(histogram[b]).append("\n");
+            }
+            return sb.toString();
+        }
+
+        static String label(PriorityAttribute attr) {
+            switch (attr) {
+                case HAS_INFANT: return "Infants";
+                case HAS_SENIOR: return "Seniors";
+                case PREGNANT: return "Pregnant";
+                case LACTATING: return "Lactating";
+                case PWD: return "PWDs";
+                case DIABETIC: return "Diabetic";
+                default: return "Injured";
+            }
+        }
+    }
+
+    //  Audit Logger (For Transparency) NO TO CORRUPTION :P
+    //  Modified into HTML Format for better and easier reading 💪 
+    //  log() only queues the entry; one writer thread appends whole batches to the journal and
+    //  re-renders audit_log.html (latest entries) every few seconds and on exit.
+    //  The journal is split into segments (audit/segment-000001.log, ...) rotated by size and age.
+    //  Every segment has a sparse index (.idx) of blocks of entries: time range, byte offset and
+    //  which actions occur, so query() only reads the blocks that can match.
+    //  Tamper evidence: each line carries SHA-256(previous hash + line), so editing, removing or
+    //  reordering an entry breaks the chain from there on. When a segment is sealed the next one
+    //  starts with an AUDIT_CHECKPOINT entry holding the Merkle root of the sealed segment.
+    //  verify() rechecks all segments in parallel and reports the first entry that does not match.
+    //  A cut-off tail still chains, so verify() also holds every segment against the count and last hash
+    //  the writer committed; an index that finds its log shorter (or gone) at start-up leaves an
+    //  AUDIT_TRUNCATED entry in the chain, which verify() keeps reporting.
+    public static class AuditLogger {
+        private static final String LOG_FILE = "audit_log.html";
+        private static final String LEGACY_JOURNAL = "audit_journal.log"; // single-file journal of earlier versions
+        private static final Path SEGMENT_DIR = Paths.get("audit");
+        private static final int QUEUE_CAPACITY = 10_000;
+        private static final int MAX_BATCH = 512;
+        private static final long RENDER_INTERVAL_MS = 5_000;
+        private static final int RENDER_LIMIT = 50_000; // entries shown in audit_log.html, older ones via query()
+        private static final long MAX_SEGMENT_BYTES = 8L << 20;
+        private static final long MAX_SEGMENT_AGE_MS = 24L * 60 * 60 * 1000;
+        private static final int BLOCK_ENTRIES = 256; // entries per sparse index block
+        private static final long LOG_WAIT_MS = 1_000;    // log() gives up on a full queue after this (it runs on the EDT)
+        private static final long FLUSH_WAIT_MS = 30_000; // flush() reports a stuck writer after this
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+        // Bit positions in the index action masks (append only, the .idx files depend on the order)
+        public static final List<String> ACTIONS = Collections.unmodifiableList(Arrays.asList(
+                "SYSTEM_STARTUP", "DATA_LOAD", "INVENTORY_ADD", "INVENTORY_EDIT", "INVENTORY_REMOVE", "DISTRIBUTION_RUN", "EXPORT",
+                "AUDIT_CHECKPOINT", "AUDIT_TRUNCATED", "CLAIMS", "LOCAL_API"));
+        private static final int OTHER_ACTION = 1 << 31;
+
+        // When the journal is forced to disk: NEVER leaves it to the OS, EVERY_BATCH after each group
+        // commit, PERIODIC at most once per second (set with -Dequieat.audit.sync=PERIODIC)
+        public enum SyncPolicy { NEVER, EVERY_BATCH, PERIODIC }
+
+        private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private static final Object RENDER_LOCK = new Object();
+        private static final List<Segment> SEGMENTS = new CopyOnWriteArrayList<>();
+        private static volatile SyncPolicy syncPolicy = SyncPolicy.valueOf(System.getProperty("equieat.audit.sync", "EVERY_BATCH"));
+        private static Thread writer;
+        private static final byte[] GENESIS = new byte[32]; // "previous hash" of the very first entry
+        private static final HexFormat HEX = HexFormat.of();
+        private static volatile byte[] chainHead = GENESIS; // hash of the newest entry, only written by the writer
+        // Set when the journal could not be written: the chain in memory is then ahead of the file, so later
+        // entries are dropped (and reported) instead of being chained onto a hash that is not on disk
+        private static volatile IOException failure;
+
+        public static class Entry {
+            final long time; final String action, details;
+            final CountDownLatch flushed; // only set on flush markers
+            final String hash; // hex, null until written (or on entries from before chaining)
+
+            Entry(long time, String action, String details, CountDownLatch flushed) {
+                this(time, action, details, flushed, null);
+            }
+
+            Entry(long time, String action, String details, CountDownLatch flushed, String hash) {
+                this.time = time; this.action = action; this.details = details; this.flushed = flushed; this.hash = hash;
+            }
+
+            public long getTime() { return time; }
+            public String getAction() { return action; }
+            public String getDetails() { return details; }
+            public String getHash() { return hash; }
+            public String getTimestamp() { return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).format(TIME_FORMAT); }
+        }
+
+        // false when the entry could not be queued (journal broken, or the writer 10k entries behind for LOG_WAIT_MS)
+        public boolean log(String action, String details) {
+            startWriter();
+            IOException broken = failure;
+            if (broken != null) {
+                System.err.println("Logger Error: audit journal not writable (" + broken.getMessage() + "), dropped " + action + ": " + details);
+                return false;
+            }
+            try {
+                if (QUEUE.offer(new Entry(System.currentTimeMillis(), action, details, null), LOG_WAIT_MS, TimeUnit.MILLISECONDS)) return true;
+                System.err.println("Logger Error: audit writer is not keeping up, dropped " + action + ": " + details);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        public static void setSyncPolicy(SyncPolicy policy) { syncPolicy = policy; }
+
+        // Waits until everything logged so far is in the journal; fails instead of waiting forever
+        public static void flush() throws IOException, InterruptedException {
+            startWriter();
+            CountDownLatch done = new CountDownLatch(1);
+            if (!QUEUE.offer(new Entry(0, null, null, done), FLUSH_WAIT_MS, TimeUnit.MILLISECONDS) || !done.await(FLUSH_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Audit writer did not respond within " + FLUSH_WAIT_MS / 1000 + " s");
+            }
+            IOException broken = failure;
+            if (broken != null) throw new IOException("Audit journal not writable: " + broken.getMessage(), broken);
+        }
+
+        // Brings audit_log.html up to date right now (e.g. before opening it)
+        public static void renderHtml() throws IOException, InterruptedException {
+            flush();
+            render();
+        }
+
+        // Entries with from <= time <= to and one of the given actions (null/empty = any), oldest first
+        public static List<Entry> query(long from, long to, Set<String> actions, int limit) throws IOException, InterruptedException {
+            flush();
+            int wanted = 0;
+            if (actions == null || actions.isEmpty()) wanted = -1;
+            else for (String a : actions) wanted |= actionBit(a);
+
+            List<Entry> result = new ArrayList<>();
+            for (Segment seg : SEGMENTS) {
+                if (result.size() >= limit) break;
+                seg.query(from, to, actions, wanted, limit, result);
+            }
+            return result;
+        }
+
+        // Result of verify(): intact, or where the chain first breaks
+        public static class Verification {
+            public final boolean intact;
+            public final long entries;
+            public final int segments;
+            public final int badSegment;   // 0 when intact
+            public final long badLine;     // 1-based line within badSegment
+            public final String reason;
+            public final String chainHead; // hash of the newest entry, worth writing down somewhere else
+            public final long nanos;
+
+            Verification(boolean intact, long entries, int segments, int badSegment, long badLine, String reason, String chainHead, long nanos) {
+                this.intact = intact; this.entries = entries; this.segments = segments; this.badSegment = badSegment;
+                this.badLine = badLine; this.reason = reason; this.chainHead = chainHead; this.nanos = nanos;
+            }
+
+            public String summary() {
+                String took = String.format("%,d entries in %d segments checked in %d ms", entries, segments, nanos / 1_000_000);
+                if (intact) return "Audit log intact: " + took + "\nChain head: " + chainHead;
+                return String.format("Audit log TAMPERED: segment %06d, entry %d: %s%n%s", badSegment, badLine, reason, took);
+            }
+        }
+
+        // What one segment looks like on its own; the first line is checked once the previous segment is known
+        private static class SegmentCheck {
+            int number;
+            long lines;
+            byte[] firstContent, firstHash, lastHash, merkleRoot;
+            String checkpoint; // details of a leading AUDIT_CHECKPOINT entry
+            long badLine; String reason;
+            byte[] hashAtCommitted; // hash of the entry the writer last committed, compared with Segment.lastHash
+        }
+
+        // Rechecks every hash, link and checkpoint; segments are hashed in parallel on the given pool
+        public static Verification verify(ForkJoinPool pool) throws IOException, InterruptedException {
+            flush();
+            long start = System.nanoTime();
+            List<Segment> segments = new ArrayList<>(SEGMENTS);
+            List<Callable<SegmentCheck>> tasks = new ArrayList<>();
+            for (Segment seg : segments) {
+                // What the writer has committed so far; the file may only be longer than this, never shorter
+                long committed;
+                byte[] lastHash;
+                synchronized (seg) {
+                    committed = seg.count;
+                    lastHash = seg.lastHash;
+                }
+                tasks.add(() -> check(seg, committed, lastHash));
+            }
+
+            List<SegmentCheck> checks = new ArrayList<>();
+            for (Future<SegmentCheck> f : pool.invokeAll(tasks)) {
+                try {
+                    checks.add(f.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+
+            // Stitch the segments together in order
+            MessageDigest digest = digest();
+            byte[] previous = GENESIS;
+            long entries = 0;
+            SegmentCheck before = null;
+            for (SegmentCheck c : checks) {
+                int expected = before == null ? 1 : before.number + 1;
+                if (c.number != expected) return broken(c.number, 1, String.format("segment %06d is missing", expected), entries, checks.size(), start);
+                if (c.lines == 0 && c.reason != null) return broken(c.number, 1, c.reason, entries, checks.size(), start);
+                if (c.lines > 0) {
+                    if (c.firstHash == null) return broken(c.number, 1, c.reason, entries, checks.size(), start);
+                    if (!Arrays.equals(chainHash(digest, previous, c.firstContent), c.firstHash))
+                        return broken(c.number, 1, "does not chain onto the entry before it (edited, removed or reordered)", entries, checks.size(), start);
+                    if (before != null && c.checkpoint != null) {
+                        String expectedCheckpoint = String.format("segment=%06d entries=%d merkle=%s", before.number, before.lines, HEX.formatHex(before.merkleRoot));
+                        if (!c.checkpoint.equals(expectedCheckpoint))
+                            return broken(c.number, 1, "checkpoint does not match segment " + String.format("%06d", before.number), entries, checks.size(), start);
+                    }
+                    if (c.reason != null) return broken(c.number, c.badLine, c.reason, entries, checks.size(), start);
+                    previous = c.lastHash;
+                }
+                entries += c.lines;
+                before = c;
+            }
+            return new Verification(true, entries, checks.size(), 0, 0, null, HEX.formatHex(previous), System.nanoTime() - start);
+        }
+
+        private static Verification broken(int segment, long line, String reason, long entries, int segments, long start) {
+            return new Verification(false, entries, segments, segment, line, reason, null, System.nanoTime() - start);
+        }
+
+        private static SegmentCheck check(Segment seg, long committed, byte[] committedHash) throws IOException {
+            MessageDigest digest = digest();
+            SegmentCheck c = new SegmentCheck();
+            c.number = seg.number;
+            Merkle merkle = new Merkle();
+            byte[] previous = null;
+            if (!Files.exists(seg.log)) {
+                c.reason = String.format("segment file was deleted (%d entries written to it)", committed);
+                c.badLine = 1;
+                return c;
+            }
+            try (BufferedReader br = new BufferedReader(Files.newBufferedReader(seg.log, StandardCharsets.UTF_8), 1 << 16)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    c.lines++;
+                    int tab = line.lastIndexOf('\t');
+                    Entry e = parseLine(line);
+                    if (e == null || e.hash == null || e.hash.length() != 64) {
+                        c.reason = e == null ? "malformed entry" : "entry has no hash";
+                        c.badLine = c.lines;
+                        return c;
+                    }
+                    byte[] content = line.substring(0, tab).getBytes(StandardCharsets.UTF_8);
+                    byte[] hash;
+                    try {
+                        hash = HEX.parseHex(e.hash);
+                    } catch (IllegalArgumentException ex) {
+                        c.reason = "entry has no hash";
+                        c.badLine = c.lines;
+                        return c;
+                    }
+                    if (previous == null) {
+                        c.firstContent = content;
+                        c.firstHash = hash;
+                        if ("AUDIT_CHECKPOINT".equals(e.action)) c.checkpoint = e.details;
+                    } else if (!Arrays.equals(chainHash(digest, previous, content), hash)) {
+                        c.reason = "does not chain onto the entry before it (edited, removed or reordered)";
+                        c.badLine = c.lines;
+                        return c;
+                    }
+                    if ("AUDIT_TRUNCATED".equals(e.action)) {
+                        c.reason = "entries were removed before this point: " + e.details;
+                        c.badLine = c.lines;
+                        return c;
+                    }
+                    merkle.add(digest, hash);
+                    previous = hash;
+                    if (c.lines == committed) c.hashAtCommitted = hash;
+                }
+            }
+            if (c.lines < committed) {
+                c.reason = String.format("log ends after entry %d, but %d were written (%d removed from the end)", c.lines, committed, committed - c.lines);
+                c.badLine = c.lines + 1;
+                return c;
+            }
+            if (committedHash != null && !Arrays.equals(c.hashAtCommitted, committedHash)) {
+                c.reason = "does not match the last entry written (the end of the log was rewritten)";
+                c.badLine = committed;
+                return c;
+            }
+            c.lastHash = previous;
+            c.merkleRoot = merkle.root(digest);
+            return c;
+        }
+
+        static int actionBit(String action) {
+            int i = ACTIONS.indexOf(action);
+            return i >= 0 ? 1 << i : OTHER_ACTION;
+        }
+
+        private static synchronized void startWriter() {
+            if (writer != null) return;
+            try {
+                migrateLegacyLog();
+                openSegments();
+            } catch (IOException e) {
+                System.err.println("Logger Error: " + e.getMessage());
+            }
+            writer = new Thread(AuditLogger::writerLoop, "EquiEat-AuditWriter");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    flush();
+                    if (!SEGMENTS.isEmpty()) SEGMENTS.get(SEGMENTS.size() - 1).writeIndex();
+                    render();
+                } catch (Exception ignored) {}
+            }));
+        }
+
+        // Loads the index of every segment (rebuilding any that is missing or stale)
+        private static void openSegments() throws IOException {
+            Files.createDirectories(SEGMENT_DIR);
+            List<Path> logs = new ArrayList<>();
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(SEGMENT_DIR, "segment-*.log")) {
+                for (Path p : dir) logs.add(p);
+            }
+            Collections.sort(logs);
+            for (Path p : logs) {
+                String name = p.getFileName().toString();
+                SEGMENTS.add(Segment.open(Integer.parseInt(name.substring(8, name.length() - 4))));
+            }
+            // A one-file journal from the previous version becomes the first segment
+            Path legacy = Paths.get(LEGACY_JOURNAL);
+            if (SEGMENTS.isEmpty() && Files.exists(legacy)) {
+                Files.move(legacy, Segment.logPath(1));
+                SEGMENTS.add(Segment.open(1));
+            }
+
+            // First start after upgrading: nothing is hashed yet, so chain the whole journal once.
+            // A journal that is only partly hashed is left alone, verify() reports the gap.
+            boolean anyHashed = false;
+            for (Segment seg : SEGMENTS) anyHashed |= !seg.unchained;
+            byte[] prev = GENESIS;
+            for (Segment seg : SEGMENTS) {
+                if (!anyHashed) seg.chain(prev);
+                if (seg.lastHash != null) prev = seg.lastHash;
+            }
+            chainHead = prev;
+
+            // A log shorter than its index, or an index without its log, means entries were removed while we
+            // were not running. The rebuilt chain is consistent again, so the finding goes into the chain itself.
+            List<String> removed = new ArrayList<>();
+            for (Segment seg : SEGMENTS) {
+                if (seg.indexedCount >= 0)
+                    removed.add(String.format("segment %06d holds %d entries, its index recorded %d", seg.number, seg.count, seg.indexedCount));
+            }
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(SEGMENT_DIR, "segment-*.idx")) {
+                for (Path p : dir) {
+                    String name = p.getFileName().toString();
+                    int number = Integer.parseInt(name.substring(8, name.length() - 4));
+                    if (Files.exists(Segment.logPath(number))) continue;
+                    removed.add(String.format("segment %06d was deleted, its index is still there", number));
+                    Files.delete(p); // reported once, the entry below keeps it
+                }
+            }
+            for (String note : removed) {
+                System.err.println("Logger Error: audit journal was cut: " + note);
+                QUEUE.offer(new Entry(System.currentTimeMillis(), "AUDIT_TRUNCATED", note, null));
+            }
+        }
+
+        // Never ends: a failed batch marks the logger failed (see failure) but the loop keeps releasing flush()
+        // callers, and a failed render of audit_log.html is only retried, it does not touch the journal
+        private static void writerLoop() {
+            List<Entry> batch = new ArrayList<>(MAX_BATCH);
+            long lastForce = 0, lastRender = System.currentTimeMillis();
+            boolean dirty = false;
+            FileChannel journal = null;
+            MessageDigest digest = sha256();
+            StringBuilder line = new StringBuilder();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            while (true) {
+                Entry first;
+                try {
+                    first = QUEUE.poll(RENDER_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    continue; // flush() callers still need this thread
+                }
+                if (first != null) {
+                    batch.add(first);
+                    QUEUE.drainTo(batch, MAX_BATCH - 1);
+                    if (failure == null) {
+                        try {
+                            Segment seg = SEGMENTS.isEmpty() ? null : SEGMENTS.get(SEGMENTS.size() - 1);
+                            out.reset();
+                            for (Entry e : batch) {
+                                if (e.flushed != null) continue;
+                                // Rotate before the entry that would overfill (or outlive) the current segment
+                                if (seg == null || seg.isFull(e.time, out.size())) {
+                                    Entry checkpoint = null;
+                                    if (seg != null) {
+                                        if (journal != null) { writeOut(journal, out, seg); journal.force(false); journal.close(); }
+                                        checkpoint = new Entry(e.time, "AUDIT_CHECKPOINT", String.format("segment=%06d entries=%d merkle=%s",
+                                                seg.number, seg.count, HEX.formatHex(seg.merkle(digest).root(digest))), null);
+                                        seg.writeIndex();
+                                    }
+                                    seg = new Segment(seg == null ? 1 : seg.number + 1);
+                                    seg.merkle = new Merkle();
+                                    SEGMENTS.add(seg);
+                                    journal = null;
+                                    if (checkpoint != null) append(seg, checkpoint, out, line, digest);
+                                }
+                                if (journal == null) journal = FileChannel.open(seg.log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                                append(seg, e, out, line, digest);
+                            }
+
+                            // Group commit: the whole batch goes out in one write
+                            if (out.size() > 0) {
+                                writeOut(journal, out, seg);
+                                dirty = true;
+                                long now = System.currentTimeMillis();
+                                if (syncPolicy == SyncPolicy.EVERY_BATCH || (syncPolicy == SyncPolicy.PERIODIC && now - lastForce >= 1000)) {
+                                    journal.force(false);
+                                    lastForce = now;
+                                }
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            failure = e instanceof IOException ? (IOException) e : new IOException(e.toString(), e);
+                            System.err.println("Logger Error: audit journal not writable, no more entries are recorded: " + e);
+                            if (journal != null) {
+                                try { journal.close(); } catch (IOException ignored) {}
+                                journal = null;
+                            }
+                        }
+                    }
+                    // Waiting flush() callers are released either way; they check failure themselves
+                    for (Entry e : batch) if (e.flushed != null) e.flushed.countDown();
+                    batch.clear();
+                }
+                if (dirty && System.currentTimeMillis() - lastRender >= RENDER_INTERVAL_MS) {
+                    try {
+                        render();
+                        dirty = false;
+                    } catch (IOException | RuntimeException e) {
+                        // e.g. audit_log.html open and locked in another program; the journal is fine, try again later
+                        System.err.println("Logger Error: could not update " + LOG_FILE + ": " + e.getMessage());
+                    }
+                    lastRender = System.currentTimeMillis();
+                }
+            }
+        }
+
+        private static void writeOut(FileChannel journal, ByteArrayOutputStream out, Segment seg) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+            while (buf.hasRemaining()) journal.write(buf);
+            seg.commit(out.size(), digest());
+            out.reset();
+        }
+
+        // Chains the entry onto the previous one and adds its line to the batch
+        private static void append(Segment seg, Entry e, ByteArrayOutputStream out, StringBuilder line, MessageDigest digest) {
+            line.setLength(0);
+            appendContent(line, e);
+            byte[] content = line.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] hash = chainHash(digest, chainHead, content);
+            seg.pending(e.time, actionBit(e.action), out.size(), hash);
+            out.write(content, 0, content.length);
+            out.write('\t');
+            byte[] hex = HEX.formatHex(hash).getBytes(StandardCharsets.US_ASCII);
+            out.write(hex, 0, hex.length);
+            out.write('\n');
+            chainHead = hash;
+        }
+
+        static byte[] chainHash(MessageDigest digest, byte[] previous, byte[] content) {
+            digest.update(previous);
+            digest.update(content);
+            return digest.digest();
+        }
+
+        static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // every JRE ships SHA-256
+            }
+        }
+
+        private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(AuditLogger::sha256);
+
+        private static MessageDigest digest() { return DIGEST.get(); }
+
+        // Merkle root over the entry hashes of one segment, built as entries arrive.
+        // Keeps one pending subtree root per level (like a binary counter), so adding is O(1) amortized.
+        // Leaves are SHA-256(0x00 + entry hash), inner nodes SHA-256(0x01 + left + right).
+        static class Merkle {
+            private final List<byte[]> levels = new ArrayList<>();
+
+            void add(MessageDigest digest, byte[] entryHash) {
+                digest.update((byte) 0);
+                byte[] node = digest.digest(entryHash);
+                for (int i = 0; ; i++) {
+                    if (i == levels.size()) { levels.add(node); return; }
+                    if (levels.get(i) == null) { levels.set(i, node); return; }
+                    node = node(digest, levels.get(i), node);
+                    levels.set(i, null);
+                }
+            }
+
+            // Folds the partial subtrees from the smallest up
+            byte[] root(MessageDigest digest) {
+                byte[] root = null;
+                for (byte[] level : levels) {
+                    if (level != null) root = root == null ? level : node(digest, level, root);
+                }
+                return root == null ? GENESIS.clone() : root;
+            }
+
+            private static byte[] node(MessageDigest digest, byte[] left, byte[] right) {
+                digest.update((byte) 1);
+                digest.update(left);
+                return digest.digest(right);
+            }
+        }
+
+        // One segment of the journal and its sparse index
+        static class Segment {
+            final int number;
+            final Path log, idx;
+            long bytes, count, minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+            int actionMask;
+            // Blocks of up to BLOCK_ENTRIES entries: {minTime, maxTime, byteOffset, actionMask}
+            final List<long[]> blocks = new ArrayList<>();
+            byte[] lastHash; // hash of the last entry, null while empty
+            boolean unchained; // has entries without a hash (written before chaining)
+            long indexedCount = -1; // entries the index recorded when the log turned out shorter, -1 if it was not
+            Merkle merkle; // only used by the writer, restored from the file when needed
+            private final List<long[]> pending = new ArrayList<>(); // index entries of the batch being written
+            private final List<byte[]> pendingHashes = new ArrayList<>();
+
+            Segment(int number) {
+                this.number = number;
+                this.log = logPath(number);
+                this.idx = SEGMENT_DIR.resolve(String.format("segment-%06d.idx", number));
+            }
+
+            static Path logPath(int number) { return SEGMENT_DIR.resolve(String.format("segment-%06d.log", number)); }
+
+            static Segment open(int number) throws IOException {
+                Segment seg = new Segment(number);
+                if (!seg.readIndex()) seg.rebuildIndex();
+                return seg;
+            }
+
+            boolean isFull(long time, int batchBytes) {
+                return count > 0 && (bytes + batchBytes >= MAX_SEGMENT_BYTES || time - minTime >= MAX_SEGMENT_AGE_MS);
+            }
+
+            // Entry at offsetInBatch of the next write; becomes visible to queries only after commit()
+            void pending(long time, int action, int offsetInBatch, byte[] hash) {
+                pending.add(new long[]{time, action, offsetInBatch});
+                pendingHashes.add(hash);
+            }
+
+            synchronized void commit(int batchBytes, MessageDigest digest) {
+                for (long[] p : pending) add(p[0], (int) p[1], bytes + p[2]);
+                for (byte[] hash : pendingHashes) if (merkle != null) merkle.add(digest, hash);
+                if (!pendingHashes.isEmpty()) lastHash = pendingHashes.get(pendingHashes.size() - 1);
+                pending.clear();
+                pendingHashes.clear();
+                bytes += batchBytes;
+            }
+
+            Merkle merkle(MessageDigest digest) throws IOException {
+                if (merkle == null) {
+                    Merkle m = new Merkle();
+                    try (BufferedReader br = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+                        String line;
+                        while ((line = br.readLine()) != null) {
+                            Entry e = parseLine(line);
+                            if (e != null && e.hash != null) m.add(digest, HEX.parseHex(e.hash));
+                        }
+                    }
+                    merkle = m;
+                }
+                return merkle;
+            }
+
+            // One-time upgrade: rewrites the segment with hashes, chained on from previous
+            void chain(byte[] previous) throws IOException {
+                MessageDigest digest = digest();
+                Path tmp = log.resolveSibling(log.getFileName() + ".tmp");
+                StringBuilder content = new StringBuilder();
+                try (BufferedReader br = Files.newBufferedReader(log, StandardCharsets.UTF_8);
+                     Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        Entry e = parseLine(line);
+                        if (e == null) continue;
+                        content.setLength(0);
+                        appendContent(content, e);
+                        previous = chainHash(digest, previous, content.toString().getBytes(StandardCharsets.UTF_8));
+                        w.append(content).append('\t').append(HEX.formatHex(previous)).append('\n');
+                    }
+                }
+                Files.move(tmp, log, StandardCopyOption.REPLACE_EXISTING);
+                blocks.clear(); bytes = 0; count = 0; minTime = Long.MAX_VALUE; maxTime = Long.MIN_VALUE; actionMask = 0;
+                lastHash = null; unchained = false;
+                rebuildIndex();
+            }
+
+            private void add(long time, int action, long offset) {
+                if (count % BLOCK_ENTRIES == 0) blocks.add(new long[]{time, time, offset, 0});
+                long[] block = blocks.get(blocks.size() - 1);
+                block[0] = Math.min(block[0], time);
+                block[1] = Math.max(block[1], time);
+                block[3] |= action & 0xFFFFFFFFL;
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+                actionMask |= action;
+                count++;
+            }
+
+            void query(long from, long to, Set<String> actions, int wanted, int limit, List<Entry> result) throws IOException {
+                long[][] candidates;
+                long end;
+                synchronized (this) {
+                    if (count == 0 || maxTime < from || minTime > to || (actionMask & wanted) == 0) return;
+                    candidates = blocks.toArray(new long[0][]);
+                    end = bytes;
+                }
+                try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+                    for (int b = 0; b < candidates.length && result.size() < limit; b++) {
+                        long[] block = candidates[b];
+                        if (block[1] < from || block[0] > to || (block[3] & wanted) == 0) continue;
+                        long blockEnd = b + 1 < candidates.length ? candidates[b + 1][2] : end;
+                        ByteBuffer buf = ByteBuffer.allocate((int) (blockEnd - block[2]));
+                        while (buf.hasRemaining() && ch.read(buf, block[2] + buf.position()) > 0) { }
+                        String[] lines = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).split("\n");
+                        for (String line : lines) {
+                            Entry e = parseLine(line);
+                            if (e == null || e.time < from || e.time > to) continue;
+                            if (actions != null && !actions.isEmpty() && !actions.contains(e.action)) continue;
+                            result.add(e);
+                            if (result.size() >= limit) break;
+                        }
+                    }
+                }
+            }
+
+            // Sidecar layout: magic, version, bytes, count, minTime, maxTime, actionMask, lastHash, blocks
+            synchronized void writeIndex() throws IOException {
+                Path tmp = idx.resolveSibling(idx.getFileName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(0x45514958); // "EQIX"
+                    out.writeInt(3);
+                    out.writeLong(bytes); out.writeLong(count); out.writeLong(minTime); out.writeLong(maxTime);
+                    out.writeInt(actionMask);
+                    out.write(lastHash == null ? GENESIS : lastHash);
+                    out.writeInt(blocks.size());
+                    for (long[] b : blocks) { out.writeLong(b[0]); out.writeLong(b[1]); out.writeLong(b[2]); out.writeInt((int) b[3]); }
+                }
+                Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            // False when there is no index or it does not describe the whole log (e.g. after a crash)
+            private boolean readIndex() throws IOException {
+                if (!Files.exists(idx)) return false;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(idx)))) {
+                    if (in.readInt() != 0x45514958 || in.readInt() != 3) return false; // 1 had no hashes, 2 filed CLAIMS and LOCAL_API under OTHER_ACTION
+                    bytes = in.readLong(); count = in.readLong(); minTime = in.readLong(); maxTime = in.readLong();
+                    actionMask = in.readInt();
+                    lastHash = new byte[32];
+                    in.readFully(lastHash);
+                    if (count == 0) lastHash = null;
+                    int n = in.readInt();
+                    for (int i = 0; i < n; i++) blocks.add(new long[]{in.readLong(), in.readLong(), in.readLong(), in.readInt() & 0xFFFFFFFFL});
+                } catch (EOFException e) {
+                    return false;
+                }
+                long size = Files.size(log);
+                if (bytes == size) return true;
+                if (size < bytes) indexedCount = count; // a crash only leaves the log longer than its index
+                blocks.clear(); bytes = 0; count = 0; minTime = Long.MAX_VALUE; maxTime = Long.MIN_VALUE; actionMask = 0;
+                lastHash = null;
+                return false;
+            }
+
+            private void rebuildIndex() throws IOException {
+                try (BufferedReader br = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        Entry e = parseLine(line);
+                        if (e != null) {
+                            add(e.time, actionBit(e.action), bytes);
+                            if (e.hash == null) unchained = true;
+                            else lastHash = HEX.parseHex(e.hash);
+                        }
+                        bytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    }
+                }
+                writeIndex();
+            }
+        }
+
+        // One entry per line: epochMillis TAB action TAB details TAB hash (tabs, newlines and backslashes
+        // escaped). The hash covers everything before the last tab, chained on the previous entry's hash.
+        private static void appendContent(StringBuilder sb, Entry e) {
+            sb.append(e.time).append('\t');
+            escapeField(sb, e.action);
+            sb.append('\t');
+            escapeField(sb, e.details);
+        }
+
+        static Entry parseLine(String line) {
+            String[] f = line.split("\t", -1);
+            if (f.length < 3 || f.length > 4) return null;
+            try {
+                return new Entry(Long.parseLong(f[0]), unescapeField(f[1]), unescapeField(f[2]), null, f.length == 4 ? f[3] : null);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static void escapeField(StringBuilder sb, String s) {
+            if (s == null) return;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\') sb.append("\\\\");
+                else if (c == '\t') sb.append("\\t");
+                else if (c == '\n') sb.append("\\n");
+                else if (c == '\r') sb.append("\\r");
+                else sb.append(c);
+            }
+        }
+
+        static String unescapeField(String s) {
+            if (s.indexOf('\\') < 0) return s;
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < s.length()) {
+                    char n = s.charAt(++i);
+                    sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+                } else sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        // Streams the newest RENDER_LIMIT entries into audit_log.html (temp file, then moved over the old one)
+        private static void render() throws IOException {
+            synchronized (RENDER_LOCK) {
+                List<Segment> segments = new ArrayList<>(SEGMENTS);
+                int first = segments.size();
+                long shown = 0;
+                while (first > 0 && shown < RENDER_LIMIT) shown += segments.get(--first).count;
+                long skip = Math.max(0, shown - RENDER_LIMIT);
+
+                Path html = Paths.get(LOG_FILE), tmp = Paths.get(LOG_FILE + ".tmp");
+                try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                    writeHtmlHeader(pw);
+                    for (int s = first; s < segments.size(); s++) {
+                        try (BufferedReader br = Files.newBufferedReader(segments.get(s).log, StandardCharsets.UTF_8)) {
+                            String line;
+                            while ((line = br.readLine()) != null) {
+                                Entry e = parseLine(line);
+                                if (e == null || skip-- > 0) continue;
+                                String action = ReportGenerator.escapeHtml(e.action);
+                                pw.printf("<tr><td class='timestamp'>%s</td><td class='action %s'>%s</td><td class='details'>%s</td></tr>%n",
+                                        e.getTimestamp(), action, action, ReportGenerator.escapeHtml(e.details));
+                            }
+                        }
+                    }
+                    pw.println("</table>");
+                    // This page is only a copy; the hash lets a reader check it against verify() in the app
+                    pw.printf("<p class='details'>Chain head: %s</p>%n", HEX.formatHex(chainHead));
+                    pw.println("</body></html>");
+                }
+                Files.move(tmp, html, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        private static void writeHtmlHeader(PrintWriter pw) {
+            pw.println("<!DOCTYPE html>");
+            pw.println("<html><head><title>EquiEat - Audit Log</title>");
+            pw.println("<meta charset='UTF-8'>");
+            pw.println("<style>");
+            pw.println("body{font-family: Arial, \"Times New Roman\", Times , serif; background: linear-gradient(to bottom, #47BECE, #F3F3EF); height: 100%; margin: 0; background-repeat: no-repeat; background-attachment: fixed; padding: 20px;}");
+            pw.println("nav{position: fixed; display: flex; top:0; right:0; width:100%; background-color: #fff; padding: 1rem; flex-direction: column; gap:1rem; justify-content: center; z-index: 10;}");
+            pw.println("h1 {color: #21AEC0; text-align: center; letter-spacing: 2px; font-style: Arial ;}");
+            pw.println("table {width: 100%; border-collapse: collapse; background-color: #fff; box-shadow: 0 4px 8px rgba(0, 0, 0, 0.1); margin-top: 100px;}");
+            pw.println("th {background: #21aec0; color: #fff; padding: 12px; text-align: left; border: 2px solid #fff;}");
+            pw.println("td {padding: 10px; border-bottom: 1px solid #ddd;}");
+            pw.println("tr:hover {background-color: #f1f1f1;}");
+            pw.println(".Timestamp {color: #666; font-size: 14px;}");
+            pw.println(".action {color: #333; font-weight: bold;}");
+            pw.println(".details {color: #555; font-size: 14px;}");
+            pw.println(".SYSTEM_STARTUP {color: #4CAF50;}");
+            pw.println(".DATA_LOAD {color: #2196F3;}");
+            pw.println(".INVENTORY_ADD {color:#FF9800;}");
+            pw.println(".INVENTORY_EDIT, .INVENTORY_REMOVE {color:#FF5722;}");
+            pw.println(".DISTRIBUTION_RUN {color: #9C27B0;}");
+            pw.println(".EXPORT {color: #E91E63;}");
+            pw.println("</style></head><body>");
+            pw.println("<nav><h1>EquiEat Audit Log</h1></nav>");
+            pw.println("<table><tr><th>Timestamp</th><th>Action</th><th>Details</th></tr>");
+        }
+
+        // One-time import of an audit_log.html written by the old logger, so its entries survive the first render
+        private static void migrateLegacyLog() {
+            Path journal = Paths.get(LEGACY_JOURNAL), html = Paths.get(LOG_FILE);
+            if (Files.exists(journal) || Files.isDirectory(SEGMENT_DIR) || !Files.exists(html)) return;
+            java.util.regex.Pattern row = java.util.regex.Pattern.compile(
+                    "<tr><td class='timestamp'>(.*?)</td><td class='action [^']*'>(.*?)</td><td class='details'>(.*?)</td></tr>");
+            StringBuilder lines = new StringBuilder();
+            try (BufferedReader br = Files.newBufferedReader(html, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    java.util.regex.Matcher m = row.matcher(line);
+                    if (!m.find()) continue;
+                    long time = LocalDateTime.parse(m.group(1), TIME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    appendContent(lines, new Entry(time, m.group(2), m.group(3), null));
+                    lines.append('\n');
+                }
+                Files.write(journal, lines.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                System.err.println("Logger Error: could not import old audit_log.html: " + e.getMessage());
+            }
+        }
+    }
+
+    // Printable Stubs For Better Distribution
+    // Streams one ticket at a time straight from the allocation data (no big StringBuilder, no re-splitting display strings)
+    // Big registries are split into shards (N families per file, or one file per key such as a site) with an
+    // index page; a manifest of shard hashes lets a re-export rewrite only the shards whose families changed
+    public static class StubGenerator {
+        public static final int DEFAULT_SHARD_SIZE = 1000;
+        static final String INDEX_FILE = "index.html";
+        private static final String MANIFEST_FILE = "stubs-manifest.txt";
+        private static final String MANIFEST_VERSION = "EquiEat stub manifest 1"; // bump when the ticket layout changes
+
+        public static void generateHTMLStubs(List<Family> families, String filename) throws IOException {
+            generateHTMLStubs(families, filename, CsvImporter.Progress.NONE);
+        }
+
+        public static void generateHTMLStubs(List<Family> families, String filename, CsvImporter.Progress progress) throws IOException {
+            try (PrintWriter pw = ReportGenerator.openWriter(filename)) {
+                writeHeader(pw);
+                StringBuilder ticket = new StringBuilder(512);
+                Map<Long, String> notes = new HashMap<>();
+                int done = 0;
+                for (Family f : families) {
+                    if (appendTicket(ticket, f, notes)) pw.append(ticket);
+                    ReportGenerator.step(++done, progress, filename);
+                }
+                pw.print("</body></html>");
+                ReportGenerator.checkWritten(pw, filename);
+            }
+        }
+
+        private static void writeHeader(PrintWriter pw) {
+            pw.print("<html><head><style>");
+            pw.print("body { font-family: Arial, sans-serif; background: #f0f0f0; }");
+            pw.print(".ticket { background: #fff; width: 300px; border: 2px dashed #333; padding: 15px; margin: 10px; display: inline-block; vertical-align: top; }");
+            pw.print(".header { font-weight: bold; font-size: 16px; border-bottom: 2px solid black; margin-bottom: 10px; }");
+            pw.print(".item { font-size: 14px; padding: 2px 0; }");
+            pw.print(".footer { margin-top: 10px; font-size: 10px; color: grey; text-align: right; }");
+            pw.print(".prio { color: red; font-weight: bold; font-size: 11px; }");
+            pw.print("</style></head><body>");
+            pw.print("<h2>Relief Distribution Claim Stubs</h2>");
+        }
+
+        // Fills ticket with the stub of one family; false (nothing to print) when the family got nothing
+        private static boolean appendTicket(StringBuilder ticket, Family f, Map<Long, String> notes) {
+            ticket.setLength(0);
+            ticket.append("<div class='ticket'>");
+            ticket.append("<div class='header'>FAMILY: ").append(f.getHeadOfFamily()).append("</div>");
+            ticket.append("<div><strong>ID:</strong> ").append(f.getId()).append("</div>");
+            ticket.append("<div><strong>Members:</strong> ").append(f.getMemberCount()).append("</div>");
+            long mask = f.getAttributeMask();
+            if (mask != 0) ticket.append("<div class='prio'>NOTES: ").append(notes.computeIfAbsent(mask, m -> PriorityAttribute.fromMask(m).toString())).append("</div>");
+            ticket.append("<hr>");
+            int itemsStart = ticket.length();
+            f.forEachItem((name, qty) -> ticket.append("<div class='item'>&#9744; ").append((qty + " pcs of " + name).trim()).append("</div>"));
+            if (ticket.length() == itemsStart) return false;
+            ticket.append("<div class='footer'>EquiEat Distribution</div></div>");
+            return true;
+        }
+
+        // One output file and the family rows that go into it
+        public static class Shard {
+            final String file;
+            final int[] rows;
+
+            public Shard(String file, int[] rows) { this.file = file; this.rows = rows; }
+        }
+
+        // Consecutive runs of perShard families in registry order (stubs-00001.html, ...)
+        public static List<Shard> shardsBySize(int families, int perShard) {
+            List<Shard> shards = new ArrayList<>();
+            for (int from = 0, n = 1; from < families; from += perShard, n++) {
+                int to = Math.min(families, from + perShard);
+                int[] rows = new int[to - from];
+                for (int i = 0; i < rows.length; i++) rows[i] = from + i;
+                shards.add(new Shard(String.format("stubs-%05d.html", n), rows));
+            }
+            return shards;
+        }
+
+        // One shard per key (e.g. distribution site or ID prefix), in order of first appearance
+        public static List<Shard> shardsByKey(List<Family> families, Function<Family, String> key) {
+            Map<String, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < families.size(); i++) groups.computeIfAbsent(key.apply(families.get(i)), k -> new ArrayList<>()).add(i);
+            List<Shard> shards = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> g : groups.entrySet()) {
+                String safe = g.getKey().replaceAll("[^A-Za-z0-9_-]", "_");
+                shards.add(new Shard("stubs-" + safe + ".html", g.getValue().stream().mapToInt(Integer::intValue).toArray()));
+            }
+            return shards;
+        }
+
+        public static class ShardResult {
+            public final Path index;
+            public final int shards, rewritten, removed;
+            public final long bytesWritten;
+
+            ShardResult(Path index, int shards, int rewritten, int removed, long bytesWritten) {
+                this.index = index; this.shards = shards; this.rewritten = rewritten; this.removed = removed; this.bytesWritten = bytesWritten;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("rewrote %d of %d shards%s", rewritten, shards, removed > 0 ? ", removed " + removed : "");
+            }
+        }
+
+        // What one shard task found out
+        private static class ShardInfo {
+            String file, hash, firstId = "", lastId = "";
+            int families, stubs;
+            long bytes = -1; // -1 = unchanged, not written
+        }
+
+        // Writes the shards that changed since the last export into dir (in parallel on pool), then the index and manifest
+        public static ShardResult generateShardedStubs(List<Family> families, List<Shard> shards, Path dir,
+                                                       ForkJoinPool pool, CsvImporter.Progress progress) throws IOException {
+            Files.createDirectories(dir);
+            Map<String, String> previous = readManifest(dir.resolve(MANIFEST_FILE));
+
+            List<ForkJoinTask<ShardInfo>> tasks = new ArrayList<>();
+            for (Shard shard : shards) {
+                tasks.add(pool.submit(ForkJoinTask.adapt(() -> writeShard(families, shard, dir, previous.get(shard.file), progress))));
+            }
+            List<ShardInfo> infos = new ArrayList<>();
+            for (ForkJoinTask<ShardInfo> t : tasks) {
+                try {
+                    infos.add(t.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Stub export interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+
+            // Shards from the last export that no longer exist (e.g. the registry got smaller)
+            Set<String> current = new HashSet<>();
+            for (Shard shard : shards) current.add(shard.file);
+            int removed = 0;
+            for (String old : previous.keySet()) {
+                if (!current.contains(old) && Files.deleteIfExists(dir.resolve(old))) removed++;
+            }
+
+            int rewritten = 0;
+            long bytes = 0;
+            for (ShardInfo info : infos) {
+                if (info.bytes >= 0) { rewritten++; bytes += info.bytes; }
+            }
+            Path index = dir.resolve(INDEX_FILE);
+            writeIndex(index, infos);
+            writeManifest(dir.resolve(MANIFEST_FILE), infos);
+            return new ShardResult(index, shards.size(), rewritten, removed, bytes + Files.size(index));
+        }
+
+        private static ShardInfo writeShard(List<Family> families, Shard shard, Path dir, String previousHash,
+                                            CsvImporter.Progress progress) throws IOException {
+            if (progress.isCancelled()) throw new InterruptedIOException("Stub export cancelled");
+            ShardInfo info = new ShardInfo();
+            info.file = shard.file;
+            info.families = shard.rows.length;
+            info.hash = hashShard(families, shard, info);
+            Path file = dir.resolve(shard.file);
+            if (!info.hash.equals(previousHash) || !Files.exists(file)) {
+                try (PrintWriter pw = ReportGenerator.openWriter(file.toString())) {
+                    writeHeader(pw);
+                    StringBuilder ticket = new StringBuilder(512);
+                    Map<Long, String> notes = new HashMap<>();
+                    for (int row : shard.rows) {
+                        if (appendTicket(ticket, families.get(row), notes)) pw.append(ticket);
+                    }
+                    pw.print("</body></html>");
+                    ReportGenerator.checkWritten(pw, shard.file);
+                }
+                info.bytes = Files.size(file);
+            }
+            progress.advance(shard.rows.length);
+            return info;
+        }
+
+        // SHA-256 over everything a ticket shows, without rendering it
+        private static String hashShard(List<Family> families, Shard shard, ShardInfo info) {
+            MessageDigest digest = AuditLogger.sha256();
+            StringBuilder sb = new StringBuilder(256);
+            for (int row : shard.rows) {
+                Family f = families.get(row);
+                sb.setLength(0);
+                sb.append(f.getId()).append('\0').append(f.getHeadOfFamily()).append('\0')
+                  .append(f.getMemberCount()).append('\0').append(f.getAttributeMask()).append('\0');
+                int itemsStart = sb.length();
+                f.forEachItem((name, qty) -> sb.append(name).append('\0').append(qty).append('\0'));
+                if (sb.length() > itemsStart) info.stubs++;
+                digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+                if (info.firstId.isEmpty()) info.firstId = f.getId();
+                info.lastId = f.getId();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        private static void writeIndex(Path index, List<ShardInfo> infos) throws IOException {
+            try (PrintWriter pw = ReportGenerator.openWriter(index.toString())) {
+                pw.println("<html><head><meta charset='UTF-8'><title>EquiEat - Claim Stubs</title><style>");
+                pw.println("body { font-family: Arial, sans-serif; background: #f0f0f0; padding: 20px; }");
+                pw.println("table { border-collapse: collapse; background: #fff; } th { background: #21aec0; color: #fff; padding: 8px; } td { padding: 6px 10px; border-bottom: 1px solid #ddd; }");
+                pw.println("</style></head><body>");
+                pw.println("<h2>Relief Distribution Claim Stubs</h2>");
+                pw.println("<table><tr><th>File</th><th>Family IDs</th><th>Families</th><th>Stubs</th></tr>");
+                for (ShardInfo info : infos) {
+                    pw.printf("<tr><td><a href='%s'>%s</a></td><td>%s &ndash; %s</td><td>%d</td><td>%d</td></tr>%n",
+                            info.file, info.file, ReportGenerator.escapeHtml(info.firstId), ReportGenerator.escapeHtml(info.lastId), info.families, info.stubs);
+                }
+                pw.println("</table></body></html>");
+                ReportGenerator.checkWritten(pw, index.toString());
+            }
+        }
+
+        // file TAB hash per line, after a version line; a different version means every shard is rewritten
+        private static Map<String, String> readManifest(Path manifest) throws IOException {
+            Map<String, String> hashes = new HashMap<>();
+            if (!Files.exists(manifest)) return hashes;
+            List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(MANIFEST_VERSION)) return hashes;
+            for (String line : lines.subList(1, lines.size())) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) hashes.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+            return hashes;
+        }
+
+        private static void writeManifest(Path manifest, List<ShardInfo> infos) throws IOException {
+            StringBuilder sb = new StringBuilder(MANIFEST_VERSION).append('\n');
+            for (ShardInfo info : infos) sb.append(info.file).append('\t').append(info.hash).append('\n');
+            Path tmp = manifest.resolveSibling(MANIFEST_FILE + ".tmp");
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Claim Ledger
+    // Which families already collected their pack, keyed by the Family ID printed on the claim stub.
+    // Desks claim at the same time: a claim is one compareAndSet on the family's slot (0 -> desk + time),
+    // so the second desk to scan the same stub always gets ALREADY_REDEEMED, no locks on the hot path.
+    // Every claim is appended to claims.wal before the desk hears "redeemed": a writer thread group-commits
+    // whatever claims are waiting in one write + force (same idea as the AuditLogger journal), so many desks
+    // share one fsync. Opening replays the log; a half-written last record from a crash is cut off.
+    // Layout, little-endian: header {magic, version, createdAt, label} then records {length, crc32c, time, desk, id}.
+    public static class ClaimLedger implements Closeable {
+        public static final Path DEFAULT_FILE = Paths.get("claims.wal");
+        private static final int MAGIC = 0x4551434C; // "EQCL"
+        private static final int VERSION = 1;
+        private static final int MAX_RECORD = 4096;
+        private static final int QUEUE_CAPACITY = 10_000;
+        private static final int MAX_BATCH = 512;
+        private static final int MAX_DESKS = 0xFFFF;
+
+        public enum Status { REDEEMED, ALREADY_REDEEMED, OPEN, NO_ALLOCATION, UNKNOWN_ID }
+
+        // Answer for one stub; desk and time are set when the family has claimed (now or earlier)
+        public static final class Claim {
+            public final Status status;
+            public final String familyId;
+            public final int row; // -1 for UNKNOWN_ID
+            public final String desk;
+            public final long time;
+            public final String packingList; // what to hand over, only on REDEEMED
+
+            Claim(Status status, String familyId, int row, String desk, long time) {
+                this(status, familyId, row, desk, time, null);
+            }
+
+            Claim(Status status, String familyId, int row, String desk, long time, String packingList) {
+                this.status = status; this.familyId = familyId; this.row = row; this.desk = desk; this.time = time;
+                this.packingList = packingList;
+            }
+        }
+
+        // Redeemed vs. allocated per supply (same order as the store's supplies), taken at one moment
+        public static final class Counts {
+            public final List<Supply> supplies;
+            public final long[] families, units, redeemedFamilies, redeemedUnits;
+            public final long claimable, claimed, orphans;
+
+            Counts(List<Supply> supplies, long[] families, long[] units, long[] redeemedFamilies, long[] redeemedUnits,
+                   long claimable, long claimed, long orphans) {
+                this.supplies = supplies; this.families = families; this.units = units;
+                this.redeemedFamilies = redeemedFamilies; this.redeemedUnits = redeemedUnits;
+                this.claimable = claimable; this.claimed = claimed; this.orphans = orphans;
+            }
+
+            public String summary() {
+                return String.format("%,d of %,d families redeemed (%,d still open)", claimed, claimable, claimable - claimed)
+                        + (orphans > 0 ? String.format(", %,d logged claims for IDs no longer in the registry", orphans) : "");
+            }
+        }
+
+        private static final class Pending {
+            final byte[] record;
+            final CompletableFuture<Void> written = new CompletableFuture<>();
+            Pending(byte[] record) { this.record = record; }
+        }
+        private static final Pending CLOSE = new Pending(new byte[0]);
+
+        private final FamilyStore store;
+        private final Path file;
+        private final String label;
+        private final int[] slots; // open addressing, row + 1 of the first row with that ID, 0 = empty
+        private final int mask;
+        private final BitSet repeatedRows = new BitSet(); // rows whose ID already came earlier, never claimable
+        private final AtomicLongArray claims; // per row: claim time << 16 | desk number, 0 = open
+        private final List<String> desks = new CopyOnWriteArrayList<>(); // desk number - 1 -> name
+        private final Map<String, Integer> deskNumbers = new ConcurrentHashMap<>();
+        // Claims hold the read side while they count; inventory edits take the write side and recount
+        private final ReentrantReadWriteLock countLock = new ReentrantReadWriteLock();
+        private volatile AtomicLongArray redeemedFamilies, redeemedUnits;
+        private volatile long[] families, units;
+        private final AtomicLong claimed = new AtomicLong();
+        private long claimable, orphans, truncated;
+        private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final Thread writer;
+        private volatile IOException failed; // the log stopped being writable, no more claims after this
+        private volatile boolean closed;
+
+        private ClaimLedger(Path file, FamilyStore store, String label, FileChannel channel, FileLock lock) {
+            this.file = file; this.store = store; this.label = label; this.channel = channel; this.lock = lock;
+            int n = store.size();
+            int capacity = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) << 1;
+            slots = new int[capacity];
+            mask = capacity - 1;
+            claims = new AtomicLongArray(n);
+            for (int row = 0; row < n; row++) {
+                String id = store.getId(row);
+                int i = spread(id.hashCode()) & mask;
+                boolean repeated = false;
+                for (int slot; (slot = slots[i]) != 0 && !repeated; i = (i + 1) & mask) repeated = store.getId(slot - 1).equals(id);
+                if (repeated) repeatedRows.set(row); // a repeated ID (see DuplicateDetector) is claimed once, on its first row
+                else {
+                    slots[i] = row + 1;
+                    claimable++;
+                }
+            }
+            writer = new Thread(this::writerLoop, "EquiEat-ClaimWriter");
+            writer.setDaemon(true);
+        }
+
+        // Opens (or creates) the log for this store and replays every claim in it. The label names the registry
+        // the log was started for; an existing log keeps its own label (see labelOf).
+        public static ClaimLedger open(Path file, FamilyStore store, String label) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock lock;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    lock = null; // already open in this window
+                }
+                if (lock == null) throw new IOException(file.getFileName() + " is in use by another desk window");
+                byte[] data = new byte[(int) Math.min(channel.size(), Integer.MAX_VALUE)];
+                ByteBuffer read = ByteBuffer.wrap(data);
+                while (read.hasRemaining() && channel.read(read, read.position()) > 0) { }
+                ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+                if (data.length == 0) {
+                    byte[] header = header(label);
+                    channel.write(ByteBuffer.wrap(header), 0);
+                    channel.force(true);
+                    in = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                String logLabel = readHeader(in, file);
+                ClaimLedger ledger = new ClaimLedger(file, store, logLabel, channel, lock);
+                ledger.replay(in);
+                ledger.recount();
+                channel.position(channel.size());
+                ledger.writer.start();
+                return ledger;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Label of an existing log (null when there is none), to ask before continuing a log of another registry
+        public static String labelOf(Path file) throws IOException {
+            if (!Files.exists(file) || Files.size(file) == 0) return null;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer in = ByteBuffer.allocate((int) Math.min(ch.size(), 18 + 0xFFFF)).order(ByteOrder.LITTLE_ENDIAN);
+                while (in.hasRemaining() && ch.read(in) > 0) { }
+                in.flip();
+                return readHeader(in, file);
+            }
+        }
+
+        // Moves a finished log aside (claims-yyyyMMdd-HHmmss.wal) so the next open starts an empty one
+        public static Path archive(Path file) throws IOException {
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            Path target = file.resolveSibling("claims-" + stamp + ".wal");
+            return Files.move(file, target);
+        }
+
+        private static byte[] header(String label) {
+            byte[] text = label.getBytes(StandardCharsets.UTF_8);
+            if (text.length > 0xFFFF) text = Arrays.copyOf(text, 0xFFFF);
+            ByteBuffer b = ByteBuffer.allocate(18 + text.length).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putShort((short) text.length).put(text);
+            return b.array();
+        }
+
+        private static String readHeader(ByteBuffer in, Path file) throws IOException {
+            if (in.remaining() < 18 || in.getInt() != MAGIC) throw new IOException(file.getFileName() + " is not a claim ledger");
+            int version = in.getInt();
+            if (version != VERSION) throw new IOException("Unsupported claim ledger version " + version + " (this build reads " + VERSION + ")");
+            in.getLong();
+            int length = in.getShort() & 0xFFFF;
+            if (in.remaining() < length) throw new IOException(file.getFileName() + " is truncated");
+            String label = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return label;
+        }
+
+        // Applies every intact record; the log is cut right after the last one (a torn write from a crash)
+        private void replay(ByteBuffer in) throws IOException {
+            CRC32C crc = new CRC32C();
+            int good = in.position();
+            while (in.remaining() >= 8) {
+                int length = in.getInt(), sum = in.getInt();
+                if (length < 12 || length > MAX_RECORD || length > in.remaining()) break;
+                crc.reset();
+                crc.update(in.array(), in.position(), length);
+                if ((int) crc.getValue() != sum) break;
+                long time = in.getLong();
+                String desk = readString(in), id = readString(in);
+                good = in.position();
+                int row = find(id);
+                if (row < 0) orphans++;
+                else if (claims.compareAndSet(row, 0, time << 16 | deskNumber(desk))) claimed.incrementAndGet();
+            }
+            truncated = in.limit() - good;
+            if (truncated > 0) {
+                channel.truncate(good);
+                channel.force(true);
+            }
+        }
+
+        private static String readString(ByteBuffer in) {
+            int length = in.getShort() & 0xFFFF;
+            String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return s;
+        }
+
+        private static int spread(int h) { return (h ^ (h >>> 16)) * 0x9E3779B9; }
+
+        // Row that holds the claim for this ID, -1 if it is not in the store
+        private int find(String id) {
+            for (int i = spread(id.hashCode()) & mask, slot; (slot = slots[i]) != 0; i = (i + 1) & mask) {
+                if (store.getId(slot - 1).equals(id)) return slot - 1;
+            }
+            return -1;
+        }
+
+        private int deskNumber(String desk) {
+            Integer number = deskNumbers.get(desk);
+            if (number != null) return number;
+            synchronized (desks) {
+                number = deskNumbers.get(desk);
+                if (number == null) {
+                    if (desks.size() == MAX_DESKS) throw new IllegalStateException("Too many desks");
+                    desks.add(desk);
+                    number = desks.size();
+                    deskNumbers.put(desk, number);
+                }
+                return number;
+            }
+        }
+
+        private Claim answer(Status status, String id, int row, long claim) {
+            return claim == 0 ? new Claim(status, id, row, null, 0)
+                    : new Claim(status, id, row, desks.get((int) (claim & 0xFFFF) - 1), claim >>> 16);
+        }
+
+        private boolean hasAllocation(int row) {
+            for (int s = 0; s < store.supplyCount(); s++) if (store.getAllocation(row, s) > 0) return true;
+            return false;
+        }
+
+        // Status of one stub without claiming it
+        public Claim lookup(String familyId) {
+            String id = familyId.trim();
+            int row = find(id);
+            if (row < 0) return new Claim(Status.UNKNOWN_ID, id, -1, null, 0);
+            long claim = claims.get(row);
+            if (claim != 0) return answer(Status.ALREADY_REDEEMED, id, row, claim);
+            return new Claim(hasAllocation(row) ? Status.OPEN : Status.NO_ALLOCATION, id, row, null, 0);
+        }
+
+        // Marks the family as collected at this desk. REDEEMED only once the claim is on disk; an I/O error
+        // undoes the claim (the desk sees the exception and can try again)
+        public Claim claim(String familyId, String desk) throws IOException {
+            String id = familyId.trim();
+            int row = find(id);
+            if (row < 0) return new Claim(Status.UNKNOWN_ID, id, -1, null, 0);
+
+            countLock.readLock().lock();
+            try {
+                if (closed) throw new IOException("Claim ledger is closed");
+                IOException broken = failed;
+                if (broken != null) throw new IOException("Claim ledger is not writable: " + broken.getMessage(), broken);
+                if (!hasAllocation(row)) return new Claim(Status.NO_ALLOCATION, id, row, null, 0);
+                long time = System.currentTimeMillis();
+                long claim = time << 16 | deskNumber(desk);
+                long before = claims.get(row);
+                if (before != 0 || !claims.compareAndSet(row, 0, claim)) return answer(Status.ALREADY_REDEEMED, id, row, claims.get(row));
+
+                Pending p = new Pending(record(time, desk, id));
+                try {
+                    queue.put(p);
+                    p.written.join(); // not interruptible: once queued the record may be on disk already
+                } catch (InterruptedException | CompletionException e) {
+                    claims.set(row, 0);
+                    if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    throw cause instanceof IOException ? (IOException) cause : new IOException("Claim not logged: " + cause, cause);
+                }
+                claimed.incrementAndGet();
+                AtomicLongArray fams = redeemedFamilies, qty = redeemedUnits;
+                for (int s = 0; s < store.supplyCount(); s++) {
+                    int units = store.getAllocation(row, s);
+                    if (units <= 0) continue;
+                    fams.incrementAndGet(s);
+                    qty.addAndGet(s, units);
+                }
+                return new Claim(Status.REDEEMED, id, row, desk, time, store.getFormattedPackingList(row));
+            } finally {
+                countLock.readLock().unlock();
+            }
+        }
+
+        private static byte[] record(long time, String desk, String id) {
+            byte[] d = desk.getBytes(StandardCharsets.UTF_8), i = id.getBytes(StandardCharsets.UTF_8);
+            int length = 12 + d.length + i.length;
+            if (length > MAX_RECORD) throw new IllegalArgumentException("Desk name or Family ID too long");
+            ByteBuffer b = ByteBuffer.allocate(8 + length).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(length).putInt(0).putLong(time).putShort((short) d.length).put(d).putShort((short) i.length).put(i);
+            CRC32C crc = new CRC32C();
+            crc.update(b.array(), 8, length);
+            b.putInt(4, (int) crc.getValue());
+            return b.array();
+        }
+
+        private void writerLoop() {
+            List<Pending> batch = new ArrayList<>(MAX_BATCH);
+            boolean stop = false;
+            while (!stop) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    continue; // only close() ends the loop, claims may still be waiting
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                int bytes = 0;
+                for (Pending p : batch) bytes += p.record.length;
+                ByteBuffer out = ByteBuffer.allocate(bytes);
+                for (Pending p : batch) {
+                    if (p == CLOSE) stop = true;
+                    else out.put(p.record);
+                }
+                out.flip();
+                // Group commit: every waiting claim goes out in one write and one force
+                IOException error = failed;
+                if (error == null && out.hasRemaining()) {
+                    try {
+                        while (out.hasRemaining()) channel.write(out);
+                        channel.force(false);
+                    } catch (IOException e) {
+                        failed = error = e;
+                    }
+                }
+                for (Pending p : batch) {
+                    if (error == null) p.written.complete(null);
+                    else p.written.completeExceptionally(error);
+                }
+                batch.clear();
+            }
+        }
+
+        // Recomputes the totals and the redeemed counts from the claims, e.g. after an inventory edit changed
+        // the allocations. Claims wait meanwhile, so no claim is counted twice or missed.
+        public void recount() {
+            update(() -> null);
+        }
+
+        // Runs a change to the store's allocations (DistributionSession edits) with claims held, then recounts
+        public <T> T update(Supplier<T> change) {
+            countLock.writeLock().lock();
+            try {
+                T result = change.get();
+                int supplies = store.supplyCount(), n = store.size();
+                long[] fams = new long[supplies], qty = new long[supplies], doneFams = new long[supplies], doneQty = new long[supplies];
+                ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> java.util.stream.IntStream.range(0, supplies).parallel().forEach(s -> {
+                    int[] col = store.allocationsOf(s);
+                    if (col == null) return;
+                    for (int row = 0; row < n; row++) {
+                        if (col[row] <= 0 || repeatedRows.get(row)) continue;
+                        fams[s]++;
+                        qty[s] += col[row];
+                        if (claims.get(row) != 0) { doneFams[s]++; doneQty[s] += col[row]; }
+                    }
+                })));
+                families = fams;
+                units = qty;
+                redeemedFamilies = new AtomicLongArray(doneFams);
+                redeemedUnits = new AtomicLongArray(doneQty);
+                return result;
+            } finally {
+                countLock.writeLock().unlock();
+            }
+        }
+
+        public Counts counts() {
+            countLock.readLock().lock();
+            try {
+                AtomicLongArray fams = redeemedFamilies, qty = redeemedUnits;
+                long[] doneFams = new long[fams.length()], doneQty = new long[qty.length()];
+                for (int s = 0; s < doneFams.length; s++) { doneFams[s] = fams.get(s); doneQty[s] = qty.get(s); }
+                List<Supply> supplies = new ArrayList<>();
+                for (int s = 0; s < store.supplyCount(); s++) supplies.add(store.getSupply(s));
+                return new Counts(supplies, families.clone(), units.clone(), doneFams, doneQty, claimable, claimed.get(), orphans);
+            } finally {
+                countLock.readLock().unlock();
+            }
+        }
+
+        public FamilyStore store() { return store; }
+        public Path file() { return file; }
+        public String label() { return label; }
+        public long truncatedBytes() { return truncated; } // torn tail cut off when the log was opened
+
+        // Waits for the claims already queued, then releases the file
+        @Override
+        public void close() throws IOException {
+            countLock.writeLock().lock(); // claims in flight finish first, later ones see closed
+            try {
+                if (closed) return;
+                closed = true;
+            } finally {
+                countLock.writeLock().unlock();
+            }
+            queue.add(CLOSE);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                lock.release();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // Local API
+    // Read-only JSON over the JDK's built-in HttpServer, for kiosks and dashboards on other desks:
+    //   /api/status                          what is loaded, and whether results / a claim ledger are there
+    //   /api/families?q=&id=&offset=&limit=  families (q = same syntax as the search bar, id = one Family ID)
+    //   /api/packing-list?offset=&limit=     ID, head of family and items, in registry order
+    //   /api/reserve                         the reserve tab
+    //   /api/demographics                    census totals from the DemographicCube
+    //   /api/claims?id=                      redeemed/unredeemed per supply, or the status of one stub
+    // Every page is written straight from the FamilyStore columns into one buffer and sent with its length once
+    // complete (at most MAX_PAGE families, so it stays small); no family objects are built per request. Handlers run on virtual threads when the JVM has them (Java 21+), else on a fixed pool.
+    // The GUI publishes a new Model after each import/run/restore; changes to a published store go through
+    // update(), which waits for the pages being written and makes new requests wait (503 after BUSY_WAIT_MS).
+    public static class ApiServer {
+        public static final int DEFAULT_PORT = 8787;
+        public static final int DEFAULT_PAGE = 100, MAX_PAGE = 1000;
+        private static final long BUSY_WAIT_MS = 250;
+        private static final int FALLBACK_THREADS = 64;
+        private static final int BACKLOG = 512; // kiosks connecting at the same time
+        private static final int BUFFER = 16 * 1024;
+
+        // What the endpoints read. ledger and index may be null; distributed = the store has this inventory's allocations
+        public static final class Model {
+            final String label;
+            final FamilyStore store;
+            final List<Supply> inventory;
+            final boolean distributed;
+            final ResultIndex index;
+            final ClaimLedger ledger;
+
+            public Model(String label, FamilyStore store, List<Supply> inventory, boolean distributed, ResultIndex index, ClaimLedger ledger) {
+                this.label = label; this.store = store; this.inventory = inventory; this.distributed = distributed;
+                this.index = index; this.ledger = ledger;
+            }
+        }
+
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final boolean virtualThreads;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile Model model;
+        private final AtomicLong requests = new AtomicLong();
+
+        private ApiServer(HttpServer server, ExecutorService executor, boolean virtualThreads) {
+            this.server = server; this.executor = executor; this.virtualThreads = virtualThreads;
+        }
+
+        public static ApiServer start(InetSocketAddress address) throws IOException {
+            HttpServer server = HttpServer.create(address, BACKLOG);
+            ExecutorService executor = virtualThreadExecutor();
+            boolean virtual = executor != null;
+            if (!virtual) {
+                AtomicLong count = new AtomicLong();
+                executor = Executors.newFixedThreadPool(FALLBACK_THREADS, r -> {
+                    Thread t = new Thread(r, "EquiEat-Api-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            ApiServer api = new ApiServer(server, executor, virtual);
+            api.route("/api/status", api::status);
+            api.route("/api/families", api::families);
+            api.route("/api/packing-list", api::packingList);
+            api.route("/api/reserve", api::reserve);
+            api.route("/api/demographics", api::demographics);
+            api.route("/api/claims", api::claims);
+            server.createContext("/", exchange -> {
+                try {
+                    send(exchange, 404, "No such endpoint, see /api/status");
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.setExecutor(executor);
+            server.start();
+            return api;
+        }
+
+        // Executors.newVirtualThreadPerTaskExecutor() looked up by name, so this still compiles and runs on 17
+        private static ExecutorService virtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null; // before Java 21, or a preview build without --enable-preview
+            }
+        }
+
+        public void publish(Model next) { model = next; } // requests already running finish on the model they started with
+
+        // Runs a change to the published store (allocations, rows) while no page is being written
+        public <T> T update(Supplier<T> change) {
+            lock.writeLock().lock();
+            try {
+                return change.get();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public int port() { return server.getAddress().getPort(); }
+        public boolean usesVirtualThreads() { return virtualThreads; }
+        public long requests() { return requests.get(); }
+
+        public void stop() {
+            server.stop(1);
+            executor.shutdownNow();
+        }
+
+        // Checks the query (throwing BadRequest) before anything is sent, then hands back what writes the body
+        private interface Endpoint { Body prepare(Model m, Map<String, String> query); }
+        private interface Body { void write(JsonWriter out); }
+
+        private static final class BadRequest extends RuntimeException {
+            final int status;
+            BadRequest(int status, String message) { super(message); this.status = status; }
+        }
+
+        private void route(String path, Endpoint endpoint) {
+            server.createContext(path, exchange -> {
+                requests.incrementAndGet();
+                try {
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        send(exchange, 405, "Only GET is supported");
+                        return;
+                    }
+                    Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                    Model m = model;
+                    if (m == null) {
+                        send(exchange, 503, "No registry loaded yet");
+                        return;
+                    }
+                    if (!lock.readLock().tryLock(BUSY_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                        send(exchange, 503, "Busy updating the distribution, try again");
+                        return;
+                    }
+                    // The whole page is built before the status line goes out, so a failure half-way is still a
+                    // clean error response; it also lets the lock go before a slow kiosk reads the page
+                    ByteArrayOutputStream page = new ByteArrayOutputStream(BUFFER);
+                    try {
+                        JsonWriter out = new JsonWriter(page);
+                        endpoint.prepare(m, query).write(out);
+                        out.flush();
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                    exchange.sendResponseHeaders(200, page.size());
+                    page.writeTo(exchange.getResponseBody());
+                } catch (BadRequest e) {
+                    send(exchange, e.status, e.getMessage());
+                } catch (RuntimeException e) {
+                    send(exchange, 500, "Internal error: " + e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // kiosk went away mid-page
+                } finally {
+                    exchange.close();
+                }
+            });
+        }
+
+        // Errors are checked before anything is sent, so they still get their own status code
+        private static void send(HttpExchange exchange, int status, String message) throws IOException {
+            byte[] body = ("{\"error\":" + JsonWriter.quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+
+        private static Map<String, String> parseQuery(String raw) {
+            Map<String, String> query = new HashMap<>();
+            if (raw == null) return query;
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq < 0 ? pair : pair.substring(0, eq), value = eq < 0 ? "" : pair.substring(eq + 1);
+                query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return query;
+        }
+
+        private static int intParam(Map<String, String> query, String name, int fallback, int max) {
+            String value = query.get(name);
+            if (value == null || value.isEmpty()) return fallback;
+            try {
+                int n = Integer.parseInt(value);
+                if (n < 0) throw new NumberFormatException();
+                return Math.min(n, max);
+            } catch (NumberFormatException e) {
+                throw new BadRequest(400, name + " must be a whole number");
+            }
+        }
+
+        private Body status(Model m, Map<String, String> query) {
+            return out -> out.beginObject()
+                    .name("registry").value(m.label)
+                    .name("families").value(m.store.size())
+                    .name("supplies").value(m.inventory.size())
+                    .name("distributed").value(m.distributed)
+                    .name("search").value(m.index != null)
+                    .name("claimLedger").value(m.ledger != null)
+                    .name("virtualThreads").value(virtualThreads)
+                    .name("requests").value(requests.get())
+                    .endObject();
+        }
+
+        // One Family ID (exact, or equal without case/punctuation), a search, or everything, one page at a time
+        private Body families(Model m, Map<String, String> query) {
+            String id = query.get("id"), q = query.get("q");
+            int offset = intParam(query, "offset", 0, Integer.MAX_VALUE), limit = intParam(query, "limit", DEFAULT_PAGE, MAX_PAGE);
+            BitSet rows;
+            if (id != null) rows = findId(m, id.trim());
+            else if (q != null && !q.trim().isEmpty()) {
+                if (m.index == null) throw new BadRequest(409, "Search is available after the distribution");
+                rows = m.index.search(q.trim());
+            } else rows = null;
+            return out -> writePage(m, rows, offset, limit, true, out);
+        }
+
+        private Body packingList(Model m, Map<String, String> query) {
+            if (!m.distributed) throw new BadRequest(409, "No distribution yet");
+            int offset = intParam(query, "offset", 0, Integer.MAX_VALUE), limit = intParam(query, "limit", DEFAULT_PAGE, MAX_PAGE);
+            return out -> writePage(m, null, offset, limit, false, out);
+        }
+
+        private static BitSet findId(Model m, String id) {
+            BitSet rows = new BitSet();
+            if (m.ledger != null) { // its ID table answers in one probe
+                int row = m.ledger.lookup(id).row;
+                if (row >= 0) rows.set(row);
+                if (row >= 0 || m.index == null) return rows;
+            }
+            String key = ResultIndex.normalize(id);
+            if (m.index != null) {
+                BitSet prefix = m.index.search("id:" + key);
+                for (int r = prefix.nextSetBit(0); r >= 0; r = prefix.nextSetBit(r + 1)) {
+                    if (ResultIndex.normalize(m.store.getId(r)).equals(key)) rows.set(r);
+                }
+            } else {
+                for (int r = 0; r < m.store.size(); r++) if (ResultIndex.normalize(m.store.getId(r)).equals(key)) rows.set(r);
+            }
+            return rows;
+        }
+
+        // rows == null = every family in registry order
+        private static void writePage(Model m, BitSet rows, int offset, int limit, boolean details, JsonWriter out) {
+            int total = rows == null ? m.store.size() : rows.cardinality();
+            out.beginObject().name("total").value(total).name("offset").value(offset).name("limit").value(limit).name("families").beginArray();
+            int row;
+            if (rows == null) row = offset < total ? offset : -1;
+            else {
+                row = rows.nextSetBit(0);
+                for (int skip = 0; skip < offset && row >= 0; skip++) row = rows.nextSetBit(row + 1);
+            }
+            for (int n = 0; n < limit && row >= 0 && row < m.store.size(); n++) {
+                writeFamily(m, row, details, out);
+                row = rows == null ? (row + 1 < total ? row + 1 : -1) : rows.nextSetBit(row + 1);
+            }
+            out.endArray().endObject();
+        }
+
+        private static void writeFamily(Model m, int row, boolean details, JsonWriter out) {
+            FamilyStore store = m.store;
+            out.beginObject().name("id").value(store.getId(row)).name("head").value(store.getHeadOfFamily(row))
+               .name("members").value(store.getMemberCount(row));
+            if (details) {
+                long mask = store.getAttributeMask(row);
+                out.name("needs").beginArray();
+                for (PriorityAttribute a : PriorityAttribute.values()) if ((mask & a.bit()) != 0) out.value(a.name());
+                out.endArray();
+            }
+            if (m.distributed) {
+                out.name("pack").beginArray();
+                store.forEachItem(row, (item, qty) -> out.beginObject().name("item").value(item).name("qty").value(qty).endObject());
+                out.endArray();
+            }
+            if (details && m.ledger != null) writeClaim(m.ledger.lookup(store.getId(row)), out.name("claim"));
+            out.endObject();
+        }
+
+        private static void writeClaim(ClaimLedger.Claim c, JsonWriter out) {
+            out.beginObject().name("status").value(c.status.name());
+            if (c.desk != null) out.name("desk").value(c.desk).name("time").value(Instant.ofEpochMilli(c.time).toString());
+            out.endObject();
+        }
+
+        private Body reserve(Model m, Map<String, String> query) {
+            return out -> {
+                out.beginObject().name("distributed").value(m.distributed).name("reserve").beginArray();
+                if (m.distributed) {
+                    for (Supply s : m.inventory) {
+                        if (!showsInReserve(s)) continue;
+                        out.beginObject().name("category").value(s.cat == null ? null : s.cat.name()).name("item").value(s.name)
+                           .name("reserveQty").value((long) s.leftover)
+                           .name("note").value(s.cat == SupplyCategory.SPECIALIZED_MED ? "Medical Stock" : "Rounding Excess").endObject();
+                    }
+                }
+                out.endArray().endObject();
+            };
+        }
+
+        private Body demographics(Model m, Map<String, String> query) {
+            return out -> {
+                DemographicCube cube = m.store.cube();
+                out.beginObject().name("families").value(cube.totalFamilies()).name("population").value(cube.totalPopulation())
+                   .name("noPriority").value(cube.exactly(0)).name("needs").beginArray();
+                for (PriorityAttribute a : PriorityAttribute.values()) {
+                    out.beginObject().name("need").value(a.name()).name("label").value(DemographicAnalyzer.label(a))
+                       .name("families").value(cube.familyCount(a)).name("members").value(cube.memberCount(a)).endObject();
+                }
+                out.endArray().name("familySizes").beginArray();
+                long[] sizes = cube.sizeHistogram();
+                for (int b = 1; b < sizes.length; b++) {
+                    out.beginObject().name("size").value(DemographicCube.bucketLabel(b)).name("families").value(sizes[b]).endObject();
+                }
+                out.endArray().endObject();
+            };
+        }
+
+        private Body claims(Model m, Map<String, String> query) {
+            ClaimLedger ledger = m.ledger;
+            if (ledger == null) throw new BadRequest(409, "The Claim Desk is not open");
+            String id = query.get("id");
+            if (id != null) {
+                return out -> {
+                    ClaimLedger.Claim c = ledger.lookup(id);
+                    out.beginObject().name("id").value(c.familyId);
+                    writeClaim(c, out.name("claim"));
+                    out.endObject();
+                };
+            }
+            return out -> {
+                ClaimLedger.Counts c = ledger.counts();
+                out.beginObject().name("families").value(c.claimable).name("redeemed").value(c.claimed).name("open").value(c.claimable - c.claimed)
+                   .name("orphans").value(c.orphans).name("supplies").beginArray();
+                for (int s = 0; s < c.supplies.size(); s++) {
+                    if (c.families[s] == 0) continue;
+                    out.beginObject().name("item").value(c.supplies.get(s).name)
+                       .name("families").value(c.families[s]).name("familiesRedeemed").value(c.redeemedFamilies[s])
+                       .name("units").value(c.units[s]).name("unitsRedeemed").value(c.redeemedUnits[s])
+                       .name("unitsUnredeemed").value(c.units[s] - c.redeemedUnits[s]).endObject();
+                }
+                out.endArray().endObject();
+            };
+        }
+
+        // Minimal streaming JSON: UTF-8 straight into a small buffer that goes out whenever it fills up.
+        // Commas are tracked per nesting level, so callers just write names and values in order.
+        static final class JsonWriter {
+            private final OutputStream out;
+            private final byte[] buf = new byte[BUFFER];
+            private int pos;
+            private long started; // bit d set = level d already has an element
+            private int depth;
+            private boolean afterName; // the next value belongs to a name, no comma
+
+            JsonWriter(OutputStream out) { this.out = out; }
+
+            JsonWriter beginObject() { element(); put('{'); started &= ~(1L << ++depth); return this; }
+            JsonWriter endObject() { depth--; put('}'); return this; }
+            JsonWriter beginArray() { element(); put('['); started &= ~(1L << ++depth); return this; }
+            JsonWriter endArray() { depth--; put(']'); return this; }
+            JsonWriter name(String name) { element(); string(name); put(':'); afterName = true; return this; }
+            JsonWriter value(String s) { element(); if (s == null) ascii("null"); else string(s); return this; }
+            JsonWriter value(long v) { element(); ascii(Long.toString(v)); return this; }
+            JsonWriter value(boolean v) { element(); ascii(v ? "true" : "false"); return this; }
+
+            private void element() {
+                if (afterName) afterName = false;
+                else if ((started & (1L << depth)) != 0) put(',');
+                started |= 1L << depth;
+            }
+
+            private void string(String s) {
+                put('"');
+                for (int i = 0; i < s.length(); i++) {
+                    char c = s.charAt(i);
+                    if (c == '"' || c == '\\') { put('\\'); put(c); }
+                    else if (c < 0x20) ascii(String.format("\\u%04x", (int) c));
+                    else if (c < 0x80) put(c);
+                    else {
+                        int cp = c;
+                        if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) cp = Character.toCodePoint(c, s.charAt(++i));
+                        else if (Character.isSurrogate(c)) cp = 0xFFFD; // lone half of a pair
+                        if (cp < 0x800) { put(0xC0 | cp >> 6); put(0x80 | cp & 0x3F); }
+                        else if (cp < 0x10000) { put(0xE0 | cp >> 12); put(0x80 | cp >> 6 & 0x3F); put(0x80 | cp & 0x3F); }
+                        else { put(0xF0 | cp >> 18); put(0x80 | cp >> 12 & 0x3F); put(0x80 | cp >> 6 & 0x3F); put(0x80 | cp & 0x3F); }
+                    }
+                }
+                put('"');
+            }
+
+            private void ascii(String s) { for (int i = 0; i < s.length(); i++) put(s.charAt(i)); }
+
+            private void put(int b) {
+                if (pos == buf.length) drain();
+                buf[pos++] = (byte) b;
+            }
+
+            private void drain() {
+                try {
+                    out.write(buf, 0, pos);
+                    pos = 0;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            void flush() {
+                drain();
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            static String quote(String s) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                JsonWriter w = new JsonWriter(bytes);
+                w.value(s).flush();
+                return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    // Export Pipeline
+    // Writes the packing list, reserve report and claim stubs at the same time on a pool,
+    // each one streamed through its own buffered writer, and reports size and time per file
+    public static class ExportPipeline {
+        public static final String PACKING_LIST = "Final_Packing_List.html";
+        public static final String RESERVE_REPORT = "Reserve_Stock_Report.txt";
+        public static final String CLAIM_STUBS = "Claim_Stubs.html";
+        public static final String CLAIM_STUBS_DIR = "Claim_Stubs"; // sharded stubs + index.html
+        public static final int SINGLE_FILE_STUBS = 2000; // above this a single stub page is too big for a browser
+
+        public static class FileStats {
+            public final Path file;
+            public final long bytes, nanos;
+            public final String detail; // extra note, may be null
+
+            FileStats(Path file, long bytes, long nanos) { this(file, bytes, nanos, null); }
+
+            FileStats(Path file, long bytes, long nanos, String detail) {
+                this.file = file; this.bytes = bytes; this.nanos = nanos; this.detail = detail;
+            }
+
+            @Override
+            public String toString() {
+                String s = String.format("%s (%,.1f KB in %d ms)", file.getFileName(), bytes / 1024.0, nanos / 1_000_000);
+                return detail == null ? s : s + ", " + detail;
+            }
+        }
+
+        // Progress advances once per family in each family report plus once per supply.
+        // The claim stubs entry points at Claim_Stubs.html, or at Claim_Stubs/index.html for big registries
+        public static List<FileStats> exportAll(List<Family> families, List<Supply> inventory, Path dir,
+                                                ForkJoinPool pool, CsvImporter.Progress progress) throws IOException {
+            List<Callable<FileStats>> tasks = new ArrayList<>();
+            tasks.add(timed(dir.resolve(PACKING_LIST), file -> ReportGenerator.generatePackingList(families, file, progress)));
+            tasks.add(timed(dir.resolve(RESERVE_REPORT), file -> ReportGenerator.generateReserveReport(inventory, file, progress)));
+            if (families.size() <= SINGLE_FILE_STUBS) {
+                tasks.add(timed(dir.resolve(CLAIM_STUBS), file -> StubGenerator.generateHTMLStubs(families, file, progress)));
+            } else {
+                // Claim_Stubs/index.html + one page per DEFAULT_SHARD_SIZE families; unchanged pages are kept
+                tasks.add(() -> {
+                    long start = System.nanoTime();
+                    StubGenerator.ShardResult r = StubGenerator.generateShardedStubs(families,
+                            StubGenerator.shardsBySize(families.size(), StubGenerator.DEFAULT_SHARD_SIZE), dir.resolve(CLAIM_STUBS_DIR), pool, progress);
+                    return new FileStats(r.index, r.bytesWritten, System.nanoTime() - start, r.toString());
+                });
+            }
+
+            List<FileStats> stats = new ArrayList<>();
+            for (Future<FileStats> f : pool.invokeAll(tasks)) {
+                try {
+                    stats.add(f.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Export interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+            return stats;
+        }
+
+        private interface Generator { void write(String file) throws IOException; }
+
+        private static Callable<FileStats> timed(Path file, Generator generator) {
+            return () -> {
+                long start = System.nanoTime();
+                generator.write(file.toString());
+                return new FileStats(file, Files.size(file), System.nanoTime() - start);
+            };
+        }
+    }
+
+    // Model & Engines
+    // enum helps us to only collect fixed inputs; ensures "type-safe" or proper error handling
+    public enum PriorityAttribute {
+        HAS_INFANT, HAS_SENIOR, PREGNANT, LACTATING, PWD, DIABETIC, INJURED;
+
+        // Each attribute is one bit so a whole set fits inside a single long
+        public long bit() { return 1L << ordinal(); }
+
+        public static Set<PriorityAttribute> fromMask(long mask) {
+            Set<PriorityAttribute> set = EnumSet.noneOf(PriorityAttribute.class);
+            for (PriorityAttribute a : values()) if ((mask & a.bit()) != 0) set.add(a);
+            return set;
+        }
+    }
+    public enum SupplyCategory { STAPLE, PROTEIN, PRIORITY_NUTRITION, GENERAL_HEALTH, SPECIALIZED_MED }
+
+    // Private variables so that the class family is the only one that can touch/modify them
+    // A Family either owns its data (CSV row objects) or is a lightweight view over one row of a FamilyStore
+    public static class Family {
+        private String id, headOfFamily;
+        private int memberCount;
+        private Set<PriorityAttribute> attributes;
+
+        //Map Integer instead of Double for Whole Numbers
+        private Map<String, Integer> itemsReceived;
+        // is inserted to the inventory (Remembers our input in order)
+
+        // Set only for views: every getter reads straight from the columnar store
+        private final FamilyStore store;
+        private final int row;
+
+        // Constructor
+        public Family(String id, String name, int size, Set<PriorityAttribute> attrs) {
+            this.id = id; this.headOfFamily = name; this.memberCount = size; this.attributes = attrs; // One liner for clear code
+            this.itemsReceived = new LinkedHashMap<>(); this.store = null; this.row = -1;
+        }
+
+        Family(FamilyStore store, int row) { this.store = store; this.row = row; }
+
+        // Receive item takes int qty
+        public void receiveItem(String item, int qty) {
+            if (store != null) store.receiveItem(row, item, qty);
+            else itemsReceived.put(item, itemsReceived.getOrDefault(item, 0) + qty);
+        }
+
+        // we look at/get the private classes values but not change it
+        public void clearReceived() { if (store != null) store.clearReceived(row); else itemsReceived.clear(); }
+        public boolean hasAttribute(PriorityAttribute attr) { return (getAttributeMask() & attr.bit()) != 0; }
+        public int getMemberCount() { return store != null ? store.getMemberCount(row) : memberCount; }
+        public String getId() { return store != null ? store.getId(row) : id; }
+        public String getHeadOfFamily() { return store != null ? store.getHeadOfFamily(row) : headOfFamily; }
+        public Set<PriorityAttribute> getAttributes() { return store != null ? PriorityAttribute.fromMask(store.getAttributeMask(row)) : attributes; }
+
+        public long getAttributeMask() {
+            if (store != null) return store.getAttributeMask(row);
+            long mask = 0;
+            for (PriorityAttribute a : attributes) mask |= a.bit();
+            return mask;
+        }
+
+        // Visits received items in the order they were first received
+        public void forEachItem(ItemVisitor visitor) {
+            if (store != null) { store.forEachItem(row, visitor); return; }
+            for (Map.Entry<String, Integer> e : itemsReceived.entrySet()) visitor.item(e.getKey(), e.getValue());
+        }
+
+        // Checks every family received items then turns it into a table
+        public String getFormattedPackingList() {
+            if (store != null) return store.getFormattedPackingList(row);
+            List<String> s = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : itemsReceived.entrySet()) {
+                // Simple integer formatting
+                s.add(String.format("%d pcs of %s", e.getValue(), e.getKey()));
+            }
+            return String.join(" + ", s); // i.e rather than "rice 5pcsmeat 6pcs" it will be "rice 5 pcs + meat 5 pcs"
+        }
+    }
+
+    public interface ItemVisitor { void item(String name, int qty); }
+
+    // Columnar Family Store
+    // Struct-of-arrays version of List<Family>: primitive columns per field and one int column per supply
+    // for allocations (column-major, so every supply writes only its own array). No HashSet, no boxed Integer per item.
+    public static class FamilyStore {
+        private String[] ids = new String[16], names = new String[16];
+        private int[] memberCounts = new int[16];
+        private long[] attributeMasks = new long[16];
+        private int size;
+        // Ids and names restored from a snapshot are decoded on first use; dropped once decodeStrings() ran
+        private volatile SessionSnapshot.StringColumn lazyIds, lazyNames;
+        // Demographic totals of the rows above, kept in step with every add/concat/delta (null until cube() for a wrapped store)
+        private DemographicCube cube = new DemographicCube();
+
+        // Allocation matrix: allocations[supplyOrdinal][row], a column stays null until something is allocated
+        private Supply[] supplies = new Supply[0];
+        private int[][] allocations = new int[0][];
+        private int[] firstWithName = new int[0]; // supply ordinal of the first supply with the same name
+        private boolean duplicateNames;
+
+        public void add(String id, String name, int memberCount, long attributeMask) {
+            if (size == ids.length) grow(size * 2);
+            ids[size] = id; names[size] = name; memberCounts[size] = memberCount; attributeMasks[size] = attributeMask;
+            size++;
+            if (cube != null) cube.add(attributeMask, memberCount);
+        }
+
+        private void grow(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            memberCounts = Arrays.copyOf(memberCounts, capacity);
+            attributeMasks = Arrays.copyOf(attributeMasks, capacity);
+        }
+
+        // Joins stores built separately (e.g. parallel import chunks) in the given order
+        public static FamilyStore concat(List<FamilyStore> parts) {
+            FamilyStore all = new FamilyStore();
+            int total = 0;
+            for (FamilyStore p : parts) total += p.size;
+            all.grow(Math.max(total, 16));
+            for (FamilyStore p : parts) {
+                System.arraycopy(p.ids, 0, all.ids, all.size, p.size);
+                System.arraycopy(p.names, 0, all.names, all.size, p.size);
+                System.arraycopy(p.memberCounts, 0, all.memberCounts, all.size, p.size);
+                System.arraycopy(p.attributeMasks, 0, all.attributeMasks, all.size, p.size);
+                all.size += p.size;
+                all.cube.addAll(p.cube());
+            }
+            return all;
+        }
+
+        // The store behind a list returned by asList(), or null for an ordinary List<Family>
+        public static FamilyStore backing(List<Family> families) {
+            return families instanceof FamilyList ? ((FamilyList) families).store : null;
+        }
+
+        public int size() { return size; }
+        public String getId(int row) { String id = ids[row]; return id != null ? id : lazyString(ids, lazyIds, row); }
+        public String getHeadOfFamily(int row) { String name = names[row]; return name != null ? name : lazyString(names, lazyNames, row); }
+
+        private static String lazyString(String[] column, SessionSnapshot.StringColumn lazy, int row) {
+            if (lazy == null) return column[row]; // decodeStrings() finished meanwhile; the volatile read made it visible
+            return column[row] = lazy.get(row);
+        }
+
+        // Decodes every snapshot string still pending, in parallel (a no-op for stores built by the importer)
+        public void decodeStrings(ForkJoinPool pool) {
+            SessionSnapshot.StringColumn idColumn = lazyIds, nameColumn = lazyNames;
+            if (idColumn == null) return;
+            pool.invoke(ForkJoinTask.adapt(() -> java.util.stream.IntStream.range(0, size).parallel().forEach(i -> {
+                if (ids[i] == null) ids[i] = idColumn.get(i);
+                if (names[i] == null) names[i] = nameColumn.get(i);
+            })));
+            lazyIds = null;
+            lazyNames = null;
+        }
+        public int getMemberCount(int row) { return memberCounts[row]; }
+        public long getAttributeMask(int row) { return attributeMasks[row]; }
+        public Family family(int row) { return new Family(this, row); }
+        // Shared and updated in place; read it on the thread that changes the store (or after it is done)
+        public DemographicCube cube() {
+            if (cube == null) cube = DemographicCube.of(memberCounts, attributeMasks, size);
+            return cube;
+        }
+        public List<Family> asList() { return new FamilyList(this); }
+
+        // Raw columns for the engines (shared, do not modify)
+        int[] memberCounts() { return memberCounts; }
+        long[] attributeMasks() { return attributeMasks; }
+        String[] ids() { decodeStrings(ForkJoinPool.commonPool()); return ids; }
+        String[] names() { decodeStrings(ForkJoinPool.commonPool()); return names; }
+
+        // Store over columns read from a session snapshot; the arrays are taken, not copied
+        static FamilyStore wrap(SessionSnapshot.StringColumn ids, SessionSnapshot.StringColumn names, int[] memberCounts, long[] attributeMasks) {
+            FamilyStore store = new FamilyStore();
+            store.size = memberCounts.length;
+            store.ids = new String[store.size]; store.names = new String[store.size];
+            store.memberCounts = memberCounts; store.attributeMasks = attributeMasks;
+            store.lazyIds = ids; store.lazyNames = names;
+            store.cube = null; // counted from the columns on first use, not on the restore path
+            return store;
+        }
+
+        // Applies a registry delta in place: changed rows take the new values, removed rows are dropped (later rows
+        // and their allocations move up) and added rows go to the end with nothing allocated yet.
+        // Returns old row -> new row, -1 for removed rows.
+        int[] applyDelta(RegistryDelta delta, FamilyStore next) {
+            decodeStrings(ForkJoinPool.commonPool());
+            DemographicCube cube = cube();
+            for (int row : delta.removed) cube.remove(attributeMasks[row], memberCounts[row]);
+            for (int k = 0; k < delta.changed.length; k++) {
+                int row = delta.changed[k], from = delta.changedTo[k];
+                cube.remove(attributeMasks[row], memberCounts[row]);
+                cube.add(next.getAttributeMask(from), next.getMemberCount(from));
+                ids[row] = next.getId(from);
+                names[row] = next.getHeadOfFamily(from);
+                memberCounts[row] = next.getMemberCount(from);
+                attributeMasks[row] = next.getAttributeMask(from);
+            }
+
+            int[] remap = new int[size];
+            int kept = 0;
+            for (int row = 0, r = 0; row < size; row++) {
+                if (r < delta.removed.length && delta.removed[r] == row) { remap[row] = -1; r++; }
+                else remap[row] = kept++;
+            }
+            if (kept < size) {
+                compact(ids, delta.removed);
+                compact(names, delta.removed);
+                compact(memberCounts, delta.removed);
+                compact(attributeMasks, delta.removed);
+                for (int[] col : allocations) if (col != null) compact(col, delta.removed);
+                Arrays.fill(ids, kept, size, null);
+                Arrays.fill(names, kept, size, null);
+                for (int[] col : allocations) if (col != null) Arrays.fill(col, kept, size, 0);
+                size = kept;
+            }
+
+            for (int row : delta.added) add(next.getId(row), next.getHeadOfFamily(row), next.getMemberCount(row), next.getAttributeMask(row));
+            // Columns that must grow get ~1.5% headroom, so the next daily deltas append without copying them again
+            for (int s = 0; s < allocations.length; s++) {
+                if (allocations[s] != null && allocations[s].length < size) allocations[s] = Arrays.copyOf(allocations[s], size + (size >> 6));
+            }
+            return remap;
+        }
+
+        // Moves the rows between removed ones up, one arraycopy per gap (column is any of the column arrays)
+        private void compact(Object column, int[] removed) {
+            for (int r = 0; r < removed.length; r++) {
+                int from = removed[r] + 1, to = r + 1 < removed.length ? removed[r + 1] : size;
+                System.arraycopy(column, from, column, from - (r + 1), to - from);
+            }
+        }
+
+        // Puts back the allocation state of a finished run (columns[s] may be null, like after resetAllocations)
+        void restoreAllocations(List<Supply> inventory, int[][] columns) {
+            resetAllocations(inventory);
+            allocations = columns;
+        }
+
+        // Starts a new allocation matrix for this inventory (one column per supply ordinal)
+        public void resetAllocations(List<Supply> inventory) {
+            supplies = inventory.toArray(new Supply[0]);
+            allocations = new int[supplies.length][];
+            indexNames();
+        }
+
+        private void indexNames() {
+            firstWithName = new int[supplies.length];
+            duplicateNames = false;
+            Map<String, Integer> first = new HashMap<>();
+            for (int s = 0; s < supplies.length; s++) {
+                Integer f = first.putIfAbsent(supplies[s].name, s);
+                firstWithName[s] = f == null ? s : f;
+                if (f != null) duplicateNames = true;
+            }
+        }
+
+        public int supplyCount() { return supplies.length; }
+        public Supply getSupply(int supply) { return supplies[supply]; }
+
+        // Column edits used by incremental re-distribution (other columns keep their allocations)
+        void insertSupply(int supply, Supply item) {
+            List<Supply> list = new ArrayList<>(Arrays.asList(supplies));
+            List<int[]> cols = new ArrayList<>(Arrays.asList(allocations));
+            list.add(supply, item);
+            cols.add(supply, null);
+            supplies = list.toArray(new Supply[0]);
+            allocations = cols.toArray(new int[0][]);
+            indexNames();
+        }
+
+        void replaceSupply(int supply, Supply item) {
+            supplies[supply] = item;
+            indexNames();
+        }
+
+        void removeSupply(int supply) {
+            List<Supply> list = new ArrayList<>(Arrays.asList(supplies));
+            List<int[]> cols = new ArrayList<>(Arrays.asList(allocations));
+            list.remove(supply);
+            cols.remove(supply);
+            supplies = list.toArray(new Supply[0]);
+            allocations = cols.toArray(new int[0][]);
+            indexNames();
+        }
+
+        int[] detachAllocations(int supply) {
+            int[] col = allocations[supply];
+            allocations[supply] = null;
+            return col;
+        }
+
+        void clearAllocations(int supply) { allocations[supply] = null; }
+
+        // Column for one supply, created on first use
+        int[] allocationColumn(int supply) {
+            if (allocations[supply] == null) allocations[supply] = new int[size];
+            return allocations[supply];
+        }
+
+        int[] allocationsOf(int supply) { return allocations[supply]; }
+
+        public int getAllocation(int row, int supply) {
+            int[] col = allocations[supply];
+            return col == null ? 0 : col[row];
+        }
+
+        // Name-keyed receive for Family views; items not in the inventory get their own column
+        void receiveItem(int row, String item, int qty) {
+            int supply = -1;
+            for (int s = 0; s < supplies.length && supply < 0; s++) if (supplies[s].name.equals(item)) supply = s;
+            if (supply < 0) {
+                supply = supplies.length;
+                supplies = Arrays.copyOf(supplies, supply + 1);
+                supplies[supply] = new Supply(item, null, 0, null);
+                allocations = Arrays.copyOf(allocations, supply + 1);
+                indexNames();
+            }
+            allocationColumn(supply)[row] += qty;
+        }
+
+        void clearReceived(int row) {
+            for (int[] col : allocations) if (col != null) col[row] = 0;
+        }
+
+        // Same order and merging as the LinkedHashMap in Family: an item sits where the family first got
+        // a positive amount of it, and supplies sharing a name are added together
+        public void forEachItem(int row, ItemVisitor visitor) {
+            for (int s = 0; s < supplies.length; s++) {
+                int qty = getAllocation(row, s);
+                if (qty <= 0) continue;
+                if (duplicateNames) {
+                    int first = firstWithName[s];
+                    boolean seen = false;
+                    for (int p = first; p < s && !seen; p++) seen = firstWithName[p] == first && getAllocation(row, p) > 0;
+                    if (seen) continue;
+                    for (int n = s + 1; n < supplies.length; n++) if (firstWithName[n] == first) qty += getAllocation(row, n);
+                }
+                visitor.item(supplies[s].name, qty);
+            }
+        }
+
+        public String getFormattedPackingList(int row) {
+            StringBuilder sb = new StringBuilder();
+            forEachItem(row, (name, qty) -> {
+                if (sb.length() > 0) sb.append(" + ");
+                sb.append(qty).append(" pcs of ").append(name);
+            });
+            return sb.toString();
+        }
+
+        // Read-only List<Family> over the store; get(i) hands out a view, nothing is copied
+        static class FamilyList extends AbstractList<Family> implements RandomAccess {
+            final FamilyStore store;
+            FamilyList(FamilyStore store) { this.store = store; }
+            @Override public Family get(int index) { Objects.checkIndex(index, store.size); return new Family(store, index); }
+            @Override public int size() { return store.size; }
+        }
+    }
+
+    // all in one initialization and constructor
+    public static class Supply {
+        String name; SupplyCategory cat; int qty; PriorityAttribute target; double leftover;
+        public Supply(String n, SupplyCategory c, int q, PriorityAttribute t) { name=n; cat=c; qty=q; target=t; }
+        public void setLeftover(double l) { this.leftover = l; }
+    }
+
+    // Eligibility Index
+    // Built once per run: one bitmap per PriorityAttribute over family positions (bit i = loadedFamilies.get(i))
+    // plus how many families / members carry each attribute, so the engine never re-scans for eligibility
+    public static class EligibilityIndex {
+        private static final PriorityAttribute[] ATTRS = PriorityAttribute.values();
+
+        private final BitSet[] bitmaps = new BitSet[ATTRS.length];
+        private final int[] familyCounts = new int[ATTRS.length];
+        private final long[] memberSums = new long[ATTRS.length];
+        private long totalPopulation;
+        private int size;
+
+        public static EligibilityIndex build(List<Family> families) {
+            FamilyStore store = FamilyStore.backing(families);
+            if (store != null) return build(store);
+            EligibilityIndex index = new EligibilityIndex(families.size());
+            int i = 0;
+            for (Family f : families) index.add(i++, f.getAttributeMask(), f.getMemberCount());
+            return index;
+        }
+
+        // Columnar path: reads the mask and member columns directly, no Family views
+        public static EligibilityIndex build(FamilyStore store) {
+            EligibilityIndex index = new EligibilityIndex(store.size());
+            long[] masks = store.attributeMasks();
+            int[] members = store.memberCounts();
+            for (int i = 0; i < store.size(); i++) index.add(i, masks[i], members[i]);
+            return index;
+        }
+
+        private EligibilityIndex(int families) {
+            for (int a = 0; a < ATTRS.length; a++) bitmaps[a] = new BitSet(families);
+            size = families;
+        }
+
+        // Same bitmaps, but familyCount() answers with these counts: a site of a sharded run shares by fleet-wide totals
+        EligibilityIndex withFamilyCounts(int[] counts) {
+            EligibilityIndex view = new EligibilityIndex(0);
+            System.arraycopy(bitmaps, 0, view.bitmaps, 0, ATTRS.length);
+            System.arraycopy(counts, 0, view.familyCounts, 0, ATTRS.length);
+            System.arraycopy(memberSums, 0, view.memberSums, 0, ATTRS.length);
+            view.totalPopulation = totalPopulation;
+            view.size = size;
+            return view;
+        }
+
+        private void add(int i, long mask, int members) {
+            for (long m = mask; m != 0; m &= m - 1) {
+                int a = Long.numberOfTrailingZeros(m);
+                bitmaps[a].set(i);
+                familyCounts[a]++;
+                memberSums[a] += members;
+            }
+            totalPopulation += members;
+        }
+
+        // Positions of the families with this attribute (shared, do not modify)
+        public BitSet families(PriorityAttribute attr) { return bitmaps[attr.ordinal()]; }
+        public int familyCount(PriorityAttribute attr) { return familyCounts[attr.ordinal()]; }
+        public long memberCount(PriorityAttribute attr) { return memberSums[attr.ordinal()]; }
+        public long totalPopulation() { return totalPopulation; }
+        public int size() { return size; }
+    }
+
+    // Search index over the results: Family IDs and full names sorted for prefix lookups,
+    // name tokens with posting lists, and the EligibilityIndex bitmaps for the Needs column.
+    // Built once per distribution run on the worker; a query is a few binary searches and BitSet ands.
+    // Query: terms are ANDed, NOT negates the next one, values with spaces go in quotes
+    //   HAS_INFANT AND name:"Dela Cruz"      id:F-10      NOT PWD santos
+    public static class ResultIndex {
+        private final int size;
+        private final EligibilityIndex eligibility;
+        private final String[] idKeys, nameKeys;  // normalized, sorted
+        private final int[] idRows, nameRows;     // family row of each sorted key
+        private final int[] sizeOrder, needsOrder;
+        private final String[] tokens;            // distinct name tokens, sorted
+        private final int[] tokenStart, postings; // rows of tokens[t] are postings[tokenStart[t] .. tokenStart[t + 1])
+
+        public static ResultIndex build(List<Family> families, EligibilityIndex eligibility) {
+            return new ResultIndex(families, eligibility);
+        }
+
+        private ResultIndex(List<Family> families, EligibilityIndex eligibility) {
+            this.eligibility = eligibility;
+            size = families.size();
+            KeyedRow[] ids = new KeyedRow[size], names = new KeyedRow[size];
+            int[] members = new int[size];
+            long[] masks = new long[size];
+            Map<String, int[]> tokenCounts = new HashMap<>(); // token -> {count, last row}
+            for (int i = 0; i < size; i++) {
+                Family f = families.get(i);
+                ids[i] = new KeyedRow(normalize(f.getId()), i);
+                names[i] = new KeyedRow(normalize(f.getHeadOfFamily()), i);
+                members[i] = f.getMemberCount();
+                masks[i] = f.getAttributeMask();
+                for (String t : tokenize(names[i].key)) {
+                    int[] c = tokenCounts.computeIfAbsent(t, k -> new int[]{0, -1});
+                    if (c[1] != i) { c[0]++; c[1] = i; }
+                }
+            }
+            Arrays.parallelSort(ids);
+            Arrays.parallelSort(names);
+            idKeys = new String[size]; idRows = new int[size];
+            nameKeys = new String[size]; nameRows = new int[size];
+            for (int i = 0; i < size; i++) {
+                idKeys[i] = ids[i].key; idRows[i] = ids[i].row;
+                nameKeys[i] = names[i].key; nameRows[i] = names[i].row;
+            }
+
+            // Posting lists: rows come out ascending because families are visited in order
+            tokens = tokenCounts.keySet().toArray(new String[0]);
+            Arrays.sort(tokens);
+            tokenStart = new int[tokens.length + 1];
+            for (int t = 0; t < tokens.length; t++) {
+                int[] c = tokenCounts.get(tokens[t]);
+                tokenStart[t + 1] = tokenStart[t] + c[0];
+                c[0] = tokenStart[t]; // now the fill position
+                c[1] = -1;
+            }
+            postings = new int[tokenStart[tokens.length]];
+            for (int i = 0; i < size; i++) {
+                for (String t : tokenize(normalize(families.get(i).getHeadOfFamily()))) {
+                    int[] c = tokenCounts.get(t);
+                    if (c[1] != i) { postings[c[0]++] = i; c[1] = i; }
+                }
+            }
+
+            sizeOrder = countingOrder(members, 0);
+            int[] maskKeys = new int[size];
+            for (int i = 0; i < size; i++) maskKeys[i] = (int) masks[i];
+            needsOrder = countingOrder(maskKeys, 0);
+        }
+
+        private static class KeyedRow implements Comparable<KeyedRow> {
+            final String key; final int row;
+            KeyedRow(String key, int row) { this.key = key; this.row = row; }
+            @Override public int compareTo(KeyedRow o) {
+                int c = key.compareTo(o.key);
+                return c != 0 ? c : Integer.compare(row, o.row);
+            }
+        }
+
+        // Stable order of rows by a small non-negative key
+        private static int[] countingOrder(int[] keys, int min) {
+            int max = min;
+            for (int k : keys) max = Math.max(max, k);
+            int[] start = new int[max - min + 2];
+            for (int k : keys) start[k - min + 1]++;
+            for (int i = 1; i < start.length; i++) start[i] += start[i - 1];
+            int[] order = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) order[start[keys[i] - min]++] = i;
+            return order;
+        }
+
+        // Lower case, trimmed, runs of whitespace collapsed to one space
+        static String normalize(String s) {
+            if (s == null) return "";
+            StringBuilder sb = new StringBuilder(s.length());
+            boolean space = false;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (Character.isWhitespace(c)) { space = sb.length() > 0; continue; }
+                if (space) { sb.append(' '); space = false; }
+                sb.append(Character.toLowerCase(c));
+            }
+            return sb.toString();
+        }
+
+        private static List<String> tokenize(String normalized) {
+            List<String> out = new ArrayList<>(4);
+            int start = -1;
+            for (int i = 0; i <= normalized.length(); i++) {
+                boolean word = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+                if (word && start < 0) start = i;
+                else if (!word && start >= 0) { out.add(normalized.substring(start, i)); start = -1; }
+            }
+            return out;
+        }
+
+        public int size() { return size; }
+
+        // Row order for a results column (null when the column has no order, e.g. packing lists)
+        public int[] order(int column) {
+            switch (column) {
+                case 0: return idRows;
+                case 1: return nameRows;
+                case 2: return sizeOrder;
+                case 3: return needsOrder;
+                default: return null;
+            }
+        }
+
+        // Rows matching the query
+        public BitSet search(String query) {
+            BitSet result = new BitSet(size);
+            result.set(0, size);
+            boolean negate = false;
+            for (String term : splitQuery(query)) {
+                if (term.equalsIgnoreCase("AND")) continue;
+                if (term.equalsIgnoreCase("NOT")) { negate = !negate; continue; }
+                BitSet rows = match(term);
+                if (negate) result.andNot(rows); else result.and(rows);
+                negate = false;
+            }
+            return result;
+        }
+
+        private BitSet match(String term) {
+            int colon = term.indexOf(':');
+            String field = colon > 0 ? term.substring(0, colon).toLowerCase(Locale.ROOT) : "";
+            if (field.equals("name")) return prefixRange(nameKeys, nameRows, normalize(term.substring(colon + 1)));
+            if (field.equals("id")) return prefixRange(idKeys, idRows, normalize(term.substring(colon + 1)));
+
+            for (PriorityAttribute a : PriorityAttribute.values()) {
+                if (a.name().equalsIgnoreCase(term)) return (BitSet) eligibility.families(a).clone();
+            }
+            // Bare word: any name token or the ID starting with it
+            String word = normalize(term);
+            BitSet byName = null;
+            for (String t : tokenize(word)) {
+                BitSet tokenRows = new BitSet(size);
+                for (int k = lowerBound(tokens, t), end = lowerBound(tokens, t + Character.MAX_VALUE); k < end; k++) {
+                    for (int p = tokenStart[k]; p < tokenStart[k + 1]; p++) tokenRows.set(postings[p]);
+                }
+                if (byName == null) byName = tokenRows; else byName.and(tokenRows);
+            }
+            BitSet rows = prefixRange(idKeys, idRows, word);
+            if (byName != null) rows.or(byName);
+            return rows;
+        }
+
+        private BitSet prefixRange(String[] keys, int[] rows, String prefix) {
+            BitSet out = new BitSet(size);
+            int end = lowerBound(keys, prefix + Character.MAX_VALUE); // first key past every key starting with prefix
+            for (int k = lowerBound(keys, prefix); k < end; k++) out.set(rows[k]);
+            return out;
+        }
+
+        private static int lowerBound(String[] sorted, String key) {
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid].compareTo(key) < 0) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // Whitespace-separated terms; quotes (single or double) at the start of a value keep spaces inside it
+        private static List<String> splitQuery(String query) {
+            List<String> terms = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            char quote = 0;
+            for (int i = 0; i < query.length(); i++) {
+                char c = query.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) quote = 0; else sb.append(c);
+                } else if ((c == '"' || c == '\'') && (sb.length() == 0 || sb.charAt(sb.length() - 1) == ':')) {
+                    quote = c;
+                } else if (Character.isWhitespace(c)) {
+                    if (sb.length() > 0) { terms.add(sb.toString()); sb.setLength(0); }
+                } else {
+                    sb.append(c);
+                }
+            }
+            if (sb.length() > 0) terms.add(sb.toString());
+            return terms;
+        }
+    }
+
+    public static class RationEngine {
+        private static final int MIN_RANGE = 1 << 15; // Families per parallel task
+
+        private final ForkJoinPool pool; // null = serial mode
+
+        public RationEngine() { this(null); }
+
+        // Parallel mode: same allocations as the serial engine, computed on the given pool
+        public RationEngine(ForkJoinPool pool) { this.pool = pool; }
+
+        public void distributeWithRounding(List<Family> families, List<Supply> inventory, int totalPop) {
+            distributeWithRounding(families, inventory, totalPop, EligibilityIndex.build(families));
+        }
+
+        public void distributeWithRounding(List<Family> families, List<Supply> inventory, int totalPop, EligibilityIndex index) {
+            FamilyStore store = FamilyStore.backing(families);
+            if (store != null) { distributeWithRounding(store, inventory, totalPop, index); return; }
+            if (pool != null && families.size() > MIN_RANGE) { distributeByFamilyRange(families, inventory, totalPop, index); return; }
+
+            for (Supply item : inventory) {
+                if (item.cat == SupplyCategory.SPECIALIZED_MED) {
+                    item.setLeftover(item.qty);
+                    continue;
+                }
+
+                // CHANGED: Tracking total distributed as Integer
+                int distributedTotal = 0;
+
+                if (item.target != null) {
+                    // Targeted: every eligible family gets the same share, so walk the attribute bitmap only
+                    int eligibleCount = index.familyCount(item.target);
+                    if (eligibleCount > 0) {
+                        // Strict Floor to Integer
+                        int safeAllocation = (int) Math.floor((double) item.qty / eligibleCount);
+                        if (safeAllocation > 0) {
+                            BitSet eligible = index.families(item.target);
+                            for (int i = eligible.nextSetBit(0); i >= 0; i = eligible.nextSetBit(i + 1)) {
+                                families.get(i).receiveItem(item.name, safeAllocation);
+                                distributedTotal += safeAllocation;
+                            }
+                        }
+                    }
+                } else if (totalPop > 0) {
+                    // General: shared per head across everyone
+                    double unitShare = (double) item.qty / totalPop;
+                    for (Family f : families) {
+                        int safeAllocation = (int) Math.floor(unitShare * f.getMemberCount());
+                        if (safeAllocation > 0) {
+                            f.receiveItem(item.name, safeAllocation);
+                            distributedTotal += safeAllocation;
+                        }
+                    }
+                }
+                item.setLeftover(item.qty - distributedTotal); // Excess relief goods
+            }
+        }
+
+        // Columnar path: same rules, but each supply fills its own int column of the store
+        // (the store's allocations are reset here, so there is no clearReceived pass)
+        public void distributeWithRounding(FamilyStore store, List<Supply> inventory, int totalPop, EligibilityIndex index) {
+            store.resetAllocations(inventory);
+            if (pool != null && store.size() > MIN_RANGE) { distributeByColumnRange(store, inventory, totalPop, index); return; }
+            for (int s = 0; s < inventory.size(); s++) distributeSupply(store, s, totalPop, index);
+        }
+
+        // (Re)computes the column of one supply from scratch and sets its leftover
+        // Other columns are untouched, which is what makes incremental re-distribution possible
+        public void distributeSupply(FamilyStore store, int supply, int totalPop, EligibilityIndex index) {
+            Supply item = store.getSupply(supply);
+            store.clearAllocations(supply);
+            if (item.cat == SupplyCategory.SPECIALIZED_MED) {
+                item.setLeftover(item.qty);
+                return;
+            }
+            int distributedTotal = 0;
+            if (item.target != null) {
+                int eligibleCount = index.familyCount(item.target);
+                int safeAllocation = eligibleCount > 0 ? (int) Math.floor((double) item.qty / eligibleCount) : 0;
+                if (safeAllocation > 0) {
+                    int[] col = store.allocationColumn(supply);
+                    BitSet eligible = index.families(item.target);
+                    for (int i = eligible.nextSetBit(0); i >= 0; i = eligible.nextSetBit(i + 1)) {
+                        col[i] = safeAllocation;
+                        distributedTotal += safeAllocation;
+                    }
+                }
+            } else if (totalPop > 0) {
+                double unitShare = (double) item.qty / totalPop;
+                int[] members = store.memberCounts();
+                int[] col = store.allocationColumn(supply);
+                for (int i = 0, n = store.size(); i < n; i++) {
+                    int safeAllocation = (int) Math.floor(unitShare * members[i]);
+                    if (safeAllocation > 0) {
+                        col[i] = safeAllocation;
+                        distributedTotal += safeAllocation;
+                    }
+                }
+            }
+            item.setLeftover(item.qty - distributedTotal); // Excess relief goods
+        }
+
+        // What distributeSupply gives one family (same formulas), for rows changed by a registry delta
+        static int allocationFor(Supply item, int members, long attributeMask, int totalPop, EligibilityIndex index) {
+            if (item.cat == SupplyCategory.SPECIALIZED_MED) return 0;
+            if (item.target != null) return (attributeMask & item.target.bit()) == 0 ? 0 : targetedShare(item, index.familyCount(item.target));
+            return generalShare(item, members, totalPop);
+        }
+
+        static int targetedShare(Supply item, int eligibleCount) {
+            return eligibleCount > 0 ? Math.max((int) Math.floor((double) item.qty / eligibleCount), 0) : 0;
+        }
+
+        static int generalShare(Supply item, int members, int totalPop) {
+            if (totalPop <= 0) return 0;
+            double unitShare = (double) item.qty / totalPop;
+            return Math.max((int) Math.floor(unitShare * members), 0);
+        }
+
+        // Parallel, object model: each task owns a range of families and walks the supplies in inventory order,
+        // so every LinkedHashMap is touched by one thread only and keeps its insertion order
+        private void distributeByFamilyRange(List<Family> families, List<Supply> inventory, int totalPop, EligibilityIndex index) {
+            int n = families.size(), supplies = inventory.size();
+            int[] share = targetedShares(inventory, index);
+            List<int[]> ranges = ranges(n);
+            long[][] distributed = new long[ranges.size()][supplies];
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int r = 0; r < ranges.size(); r++) {
+                final int from = ranges.get(r)[0], to = ranges.get(r)[1];
+                final long[] totals = distributed[r];
+                tasks.add(() -> {
+                    for (int s = 0; s < supplies; s++) {
+                        Supply item = inventory.get(s);
+                        if (item.cat == SupplyCategory.SPECIALIZED_MED) continue;
+                        if (item.target != null) {
+                            if (share[s] <= 0) continue;
+                            BitSet eligible = index.families(item.target);
+                            for (int i = eligible.nextSetBit(from); i >= 0 && i < to; i = eligible.nextSetBit(i + 1)) {
+                                families.get(i).receiveItem(item.name, share[s]);
+                                totals[s] += share[s];
+                            }
+                        } else if (totalPop > 0) {
+                            double unitShare = (double) item.qty / totalPop;
+                            for (int i = from; i < to; i++) {
+                                Family f = families.get(i);
+                                int safeAllocation = (int) Math.floor(unitShare * f.getMemberCount());
+                                if (safeAllocation > 0) {
+                                    f.receiveItem(item.name, safeAllocation);
+                                    totals[s] += safeAllocation;
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+            runAll(tasks);
+            setLeftovers(inventory, distributed);
+        }
+
+        // Parallel, columnar: one task per (supply, family range); every task fills a disjoint slice of one column
+        private void distributeByColumnRange(FamilyStore store, List<Supply> inventory, int totalPop, EligibilityIndex index) {
+            int supplies = inventory.size();
+            int[] members = store.memberCounts();
+            int[] share = targetedShares(inventory, index);
+            List<int[]> ranges = ranges(store.size());
+            long[][] distributed = new long[ranges.size()][supplies];
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int s = 0; s < supplies; s++) {
+                Supply item = inventory.get(s);
+                if (item.cat == SupplyCategory.SPECIALIZED_MED || (item.target != null && share[s] <= 0) || (item.target == null && totalPop <= 0)) continue;
+                final int supply = s;
+                final int[] col = store.allocationColumn(s); // created up front, never lazily inside a task
+                for (int r = 0; r < ranges.size(); r++) {
+                    final int from = ranges.get(r)[0], to = ranges.get(r)[1];
+                    final long[] totals = distributed[r];
+                    tasks.add(() -> {
+                        long sum = 0;
+                        if (item.target != null) {
+                            BitSet eligible = index.families(item.target);
+                            for (int i = eligible.nextSetBit(from); i >= 0 && i < to; i = eligible.nextSetBit(i + 1)) {
+                                col[i] = share[supply];
+                                sum += share[supply];
+                            }
+                        } else {
+                            double unitShare = (double) item.qty / totalPop;
+                            for (int i = from; i < to; i++) {
+                                int safeAllocation = (int) Math.floor(unitShare * members[i]);
+                                if (safeAllocation > 0) {
+                                    col[i] = safeAllocation;
+                                    sum += safeAllocation;
+                                }
+                            }
+                        }
+                        totals[supply] = sum;
+                        return null;
+                    });
+                }
+            }
+            runAll(tasks);
+            setLeftovers(inventory, distributed);
+        }
+
+        // Equal share per eligible family for every targeted supply (0 = nothing to hand out)
+        private static int[] targetedShares(List<Supply> inventory, EligibilityIndex index) {
+            int[] share = new int[inventory.size()];
+            for (int s = 0; s < share.length; s++) {
+                Supply item = inventory.get(s);
+                if (item.target == null) continue;
+                int eligibleCount = index.familyCount(item.target);
+                share[s] = eligibleCount > 0 ? (int) Math.floor((double) item.qty / eligibleCount) : 0;
+            }
+            return share;
+        }
+
+        private List<int[]> ranges(int n) {
+            int size = Math.max(MIN_RANGE, (int) Math.ceil((double) n / (pool.getParallelism() * 4)));
+            List<int[]> ranges = new ArrayList<>();
+            for (int from = 0; from < n; from += size) ranges.add(new int[]{from, Math.min(n, from + size)});
+            return ranges;
+        }
+
+        // Reduces the per-range totals; integer sums, so the order of the tasks cannot change the result
+        private static void setLeftovers(List<Supply> inventory, long[][] distributed) {
+            for (int s = 0; s < inventory.size(); s++) {
+                Supply item = inventory.get(s);
+                if (item.cat == SupplyCategory.SPECIALIZED_MED) { item.setLeftover(item.qty); continue; }
+                long total = 0;
+                for (long[] range : distributed) total += range[s];
+                item.setLeftover(item.qty - total); // Excess relief goods
+            }
+        }
+
+        private void runAll(List<Callable<Void>> tasks) {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                try { f.get(); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new CancellationException("Distribution interrupted"); }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+    }
+
+    // Incremental Distribution
+    // Keeps the allocation state of the last run so one inventory change recomputes one supply column only
+    // Every change returns the rows (family positions) whose packing list changed
+    public static class DistributionSession {
+        private final RationEngine engine;
+        private final FamilyStore store;
+        private EligibilityIndex index;
+        private int totalPop;
+
+        // Full run; the store then holds one column per supply of this inventory
+        public DistributionSession(RationEngine engine, FamilyStore store, List<Supply> inventory) {
+            this.engine = engine;
+            this.store = store;
+            this.index = EligibilityIndex.build(store);
+            this.totalPop = (int) index.totalPopulation();
+            if (inventory != null) engine.distributeWithRounding(store, inventory, totalPop, index);
+        }
+
+        // Picks up a run restored from a snapshot: the store already holds its allocation columns
+        public static DistributionSession resume(RationEngine engine, FamilyStore store) {
+            return new DistributionSession(engine, store, null);
+        }
+
+        public FamilyStore getStore() { return store; }
+        public EligibilityIndex getIndex() { return index; }
+
+        public BitSet addSupply(int supply, Supply item) {
+            store.insertSupply(supply, item);
+            engine.distributeSupply(store, supply, totalPop, index);
+            return changedRows(null, store.allocationsOf(supply), false);
+        }
+
+        public BitSet replaceSupply(int supply, Supply item) {
+            boolean renamed = !store.getSupply(supply).name.equals(item.name);
+            int[] before = store.detachAllocations(supply);
+            store.replaceSupply(supply, item);
+            engine.distributeSupply(store, supply, totalPop, index);
+            return changedRows(before, store.allocationsOf(supply), renamed);
+        }
+
+        public BitSet removeSupply(int supply) {
+            int[] before = store.detachAllocations(supply);
+            store.removeSupply(supply);
+            return changedRows(before, null, false);
+        }
+
+        // Registry refresh: takes back what removed and changed families held, applies the delta to the store, then
+        // recomputes a whole column only if a share really moved: a general supply gives floor(qty / population * size),
+        // so a new population matters only if that changes for some family size; a targeted one gives
+        // floor(qty / eligible families). Every other column only gets the changed and added rows.
+        // Returns the rows (new positions) whose packing list changed.
+        public BitSet applyDelta(RegistryDelta delta, FamilyStore next) {
+            for (int s = 0; s < store.supplyCount(); s++) {
+                int[] col = store.allocationsOf(s);
+                if (col == null) continue;
+                long back = 0;
+                for (int row : delta.removed) back += col[row];
+                for (int row : delta.changed) back += col[row];
+                Supply item = store.getSupply(s);
+                item.setLeftover(item.leftover + back);
+            }
+            int oldPop = totalPop;
+            int[] oldCounts = new int[PriorityAttribute.values().length];
+            for (PriorityAttribute a : PriorityAttribute.values()) oldCounts[a.ordinal()] = index.familyCount(a);
+
+            int[] remap = store.applyDelta(delta, next);
+            index = EligibilityIndex.build(store);
+            totalPop = (int) index.totalPopulation();
+            int[] touched = new int[delta.changed.length + delta.added.length];
+            for (int k = 0; k < delta.changed.length; k++) touched[k] = remap[delta.changed[k]];
+            for (int k = 0; k < delta.added.length; k++) touched[delta.changed.length + k] = store.size() - delta.added.length + k;
+            BitSet changed = new BitSet(store.size());
+            for (int row : touched) changed.set(row);
+
+            int maxMembers = 0;
+            for (int i = 0, n = store.size(); i < n; i++) maxMembers = Math.max(maxMembers, store.getMemberCount(i));
+            for (int s = 0; s < store.supplyCount(); s++) {
+                Supply item = store.getSupply(s);
+                if (item.cat == null || item.cat == SupplyCategory.SPECIALIZED_MED) continue;
+                boolean sharesMoved;
+                if (item.target != null) {
+                    sharesMoved = RationEngine.targetedShare(item, index.familyCount(item.target)) != RationEngine.targetedShare(item, oldCounts[item.target.ordinal()]);
+                } else {
+                    sharesMoved = false;
+                    for (int m = 1; m <= maxMembers && !sharesMoved; m++) sharesMoved = RationEngine.generalShare(item, m, totalPop) != RationEngine.generalShare(item, m, oldPop);
+                }
+                if (sharesMoved) {
+                    int[] before = store.detachAllocations(s);
+                    engine.distributeSupply(store, s, totalPop, index);
+                    changed.or(changedRows(before, store.allocationsOf(s), false));
+                    continue;
+                }
+                int[] col = store.allocationsOf(s);
+                long given = 0;
+                for (int row : touched) {
+                    int qty = RationEngine.allocationFor(item, store.getMemberCount(row), store.getAttributeMask(row), totalPop, index);
+                    if (qty != 0 && col == null) col = store.allocationColumn(s);
+                    if (col != null) col[row] = qty;
+                    given += qty;
+                }
+                item.setLeftover(item.leftover - given);
+            }
+            return changed;
+        }
+
+        // Rows where the column differs (or, after a rename, any row holding the item)
+        private BitSet changedRows(int[] before, int[] after, boolean renamed) {
+            BitSet changed = new BitSet(store.size());
+            for (int i = 0; i < store.size(); i++) {
+                int b = before == null ? 0 : before[i], a = after == null ? 0 : after[i];
+                if (a != b || (renamed && a > 0)) changed.set(i);
+            }
+            return changed;
+        }
+    }
+
+    // Sharded Distribution
+    // One shard per evacuation center: each site keeps its own families and runs the engine on them, and the
+    // coordinator only trades a few numbers per supply with the sites. Three rounds:
+    //   1. census     - every site reports its population, eligible families per need and families per member count
+    //   2. distribute - the coordinator sends the fleet-wide totals back, so every family gets exactly what a
+    //                   single-node run over all sites would give it
+    //   3. top-up     - the units the floors left over are split between the sites by their fractional shortfall
+    //                   (largest remainder), and each site hands them out one by one to the families that lost the most
+    // A site that misses the census is left out of this run. A site that fails later has its exact entitlement
+    // (computed from its census) put on hold, so its goods are never handed to the other sites' families.
+    public static class ShardedDistribution {
+        public static final long DEFAULT_TIMEOUT_MS = 60_000; // per round, for all sites together
+
+        // Round 1 answer; plain numbers so a remote site can send it over any wire
+        public static final class SiteCensus {
+            public final long population;
+            public final int[] eligible;              // families per PriorityAttribute ordinal
+            public final int[] memberCounts, families; // families[k] families have memberCounts[k] members (ascending)
+
+            public SiteCensus(long population, int[] eligible, int[] memberCounts, int[] families) {
+                this.population = population; this.eligible = eligible; this.memberCounts = memberCounts; this.families = families;
+            }
+
+            public static SiteCensus of(FamilyStore store, EligibilityIndex index) {
+                int[] eligible = new int[PriorityAttribute.values().length];
+                for (PriorityAttribute a : PriorityAttribute.values()) eligible[a.ordinal()] = index.familyCount(a);
+                TreeMap<Integer, Integer> sizes = new TreeMap<>();
+                int[] members = store.memberCounts();
+                for (int i = 0; i < store.size(); i++) sizes.merge(members[i], 1, Integer::sum);
+                int[] counts = new int[sizes.size()], families = new int[sizes.size()];
+                int k = 0;
+                for (Map.Entry<Integer, Integer> e : sizes.entrySet()) { counts[k] = e.getKey(); families[k++] = e.getValue(); }
+                return new SiteCensus(index.totalPopulation(), eligible, counts, families);
+            }
+        }
+
+        // Round 2 request: the inventory (read only) and the fleet-wide totals the shares are based on
+        public static final class Plan {
+            public final List<Supply> inventory;
+            public final int totalPopulation;
+            public final int[] eligible;
+
+            Plan(List<Supply> inventory, int totalPopulation, int[] eligible) {
+                this.inventory = Collections.unmodifiableList(new ArrayList<>(inventory));
+                this.totalPopulation = totalPopulation; this.eligible = eligible;
+            }
+        }
+
+        // One shard, local or remote; an exception or a missed deadline marks the site as failed for that round
+        public interface SiteWorker {
+            String site();
+            SiteCensus census() throws IOException;
+            long[] distribute(Plan plan) throws IOException; // units handed out per supply
+            // Up to extra[s] more units of supply s for this site's families; returns how many went out per supply.
+            // All or nothing if it throws, and an interrupted call returns promptly (the coordinator waits for it).
+            long[] topUp(int[] extra) throws IOException;
+        }
+
+        // In-process site over its own FamilyStore: the stand-in for a site machine (tests, batch --sites)
+        public static class LocalSiteWorker implements SiteWorker {
+            private final String site;
+            private final FamilyStore store;
+            private final RationEngine engine;
+            private EligibilityIndex index;
+            private SiteCensus census;
+            private Plan plan;
+            private List<Supply> supplies = new ArrayList<>();
+
+            public LocalSiteWorker(String site, FamilyStore store, RationEngine engine) {
+                this.site = site; this.store = store; this.engine = engine;
+            }
+
+            public String site() { return site; }
+            public FamilyStore store() { return store; }
+            // The site's copy of the inventory: qty = units shipped to this site
+            public List<Supply> inventory() { return supplies; }
+
+            public SiteCensus census() {
+                index = EligibilityIndex.build(store);
+                census = SiteCensus.of(store, index);
+                return census;
+            }
+
+            public long[] distribute(Plan plan) {
+                this.plan = plan;
+                List<Supply> local = new ArrayList<>();
+                for (Supply s : plan.inventory) local.add(new Supply(s.name, s.cat, s.qty, s.target));
+                engine.distributeWithRounding(store, local, plan.totalPopulation, index.withFamilyCounts(plan.eligible));
+                long[] distributed = new long[local.size()];
+                for (int s = 0; s < local.size(); s++) {
+                    Supply item = local.get(s);
+                    distributed[s] = item.qty - (long) item.leftover; // leftover here is against the whole qty, not a real reserve
+                    item.qty = (int) distributed[s];
+                    item.setLeftover(0);
+                }
+                supplies = local;
+                return distributed;
+            }
+
+            // The rows to raise are picked for every supply first (an interrupt there applies nothing), then raised
+            public long[] topUp(int[] extra) throws InterruptedIOException {
+                int[][] raise = new int[extra.length][];
+                for (int s = 0; s < extra.length; s++) {
+                    if (extra[s] <= 0) continue;
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException(site + ": top-up cancelled, nothing handed out");
+                    Supply item = plan.inventory.get(s);
+                    int[] rows = new int[extra[s]]; // one unit per family at most
+                    int picked = 0;
+                    if (item.target != null) {
+                        // Every eligible family lost the same fraction: first ones in registry order
+                        BitSet eligible = index.families(item.target);
+                        for (int i = eligible.nextSetBit(0); i >= 0 && picked < rows.length; i = eligible.nextSetBit(i + 1)) rows[picked++] = i;
+                    } else {
+                        // The fraction lost depends on the member count only: whole sizes by largest fraction, then the
+                        // first families of the size where the units run out
+                        double unitShare = (double) item.qty / plan.totalPopulation;
+                        Integer[] order = new Integer[census.memberCounts.length];
+                        for (int k = 0; k < order.length; k++) order[k] = k;
+                        Arrays.sort(order, (a, b) -> Double.compare(fraction(unitShare, census.memberCounts[b]), fraction(unitShare, census.memberCounts[a])));
+                        Set<Integer> full = new HashSet<>();
+                        int partialSize = -1, partialLeft = 0, left = extra[s];
+                        for (int k : order) {
+                            if (left == 0 || fraction(unitShare, census.memberCounts[k]) <= 0) break;
+                            if (census.families[k] <= left) { full.add(census.memberCounts[k]); left -= census.families[k]; }
+                            else { partialSize = census.memberCounts[k]; partialLeft = left; left = 0; }
+                        }
+                        int[] members = store.memberCounts();
+                        for (int i = 0, n = store.size(); i < n; i++) {
+                            if (full.contains(members[i])) rows[picked++] = i;
+                            else if (members[i] == partialSize && partialLeft > 0) { rows[picked++] = i; partialLeft--; }
+                        }
+                    }
+                    raise[s] = Arrays.copyOf(rows, picked);
+                }
+                if (Thread.interrupted()) throw new InterruptedIOException(site + ": top-up cancelled, nothing handed out");
+
+                long[] applied = new long[extra.length];
+                for (int s = 0; s < extra.length; s++) {
+                    if (raise[s] == null) continue;
+                    int[] col = store.allocationColumn(s);
+                    for (int i : raise[s]) col[i]++;
+                    applied[s] = raise[s].length;
+                    supplies.get(s).qty += raise[s].length;
+                }
+                return applied;
+            }
+        }
+
+        public enum Status { OK, EXCLUDED, FAILED }
+
+        private static final int WAITING = 0, RUNNING = 1, RETURNED = 2; // top-up call of one site
+
+        public static final class SiteOutcome {
+            public final String site;
+            public Status status = Status.OK;
+            public String error;        // why the site was excluded or failed, null when OK
+            public SiteCensus census;   // null when excluded
+            public long[] distributed, extra, held; // per supply: floor round, top-up, kept for the site at the center
+
+            SiteOutcome(String site, int supplies) {
+                this.site = site;
+                distributed = new long[supplies]; extra = new long[supplies]; held = new long[supplies];
+            }
+
+            public long shipped(int supply) { return distributed[supply] + extra[supply]; }
+        }
+
+        public static final class Result {
+            public final List<Supply> inventory;   // leftover = still at the center (held units included)
+            public final List<SiteOutcome> sites;
+            // A failed site that comes back runs distribute(plan) and then topUp() for the rest of its held units
+            public final Plan plan;
+            public final long totalPopulation, nanos;
+
+            Result(List<Supply> inventory, List<SiteOutcome> sites, Plan plan, long nanos) {
+                this.inventory = inventory; this.sites = sites; this.plan = plan; this.totalPopulation = plan.totalPopulation; this.nanos = nanos;
+            }
+
+            public long rebalanced() { long t = 0; for (SiteOutcome o : sites) for (long v : o.extra) t += v; return t; }
+            public long held() { long t = 0; for (SiteOutcome o : sites) for (long v : o.held) t += v; return t; }
+
+            // "4 sites (3 ok, site-2 failed: java.net.ConnectException ...), 1,204 units rebalanced, 380 held, 152 ms"
+            public String summary() {
+                StringBuilder sb = new StringBuilder();
+                int ok = 0;
+                for (SiteOutcome o : sites) {
+                    if (o.status == Status.OK) ok++;
+                    else sb.append(", ").append(o.site).append(' ').append(o.status.name().toLowerCase()).append(": ").append(o.error);
+                }
+                return String.format("%d sites (%d ok%s), %,d units rebalanced, %,d held, %d ms",
+                        sites.size(), ok, sb, rebalanced(), held(), nanos / 1_000_000);
+            }
+        }
+
+        // Sites by Family ID hash, until the registry carries the evacuation center of each family
+        public static List<FamilyStore> partitionById(FamilyStore store, int sites) {
+            List<FamilyStore> parts = new ArrayList<>();
+            for (int k = 0; k < sites; k++) parts.add(new FamilyStore());
+            String[] ids = store.ids(), names = store.names();
+            int[] members = store.memberCounts();
+            long[] masks = store.attributeMasks();
+            for (int i = 0; i < store.size(); i++) parts.get(Math.floorMod(ids[i].hashCode(), sites)).add(ids[i], names[i], members[i], masks[i]);
+            return parts;
+        }
+
+        // Sets every supply's leftover to what stays at the center; the inventory itself is not split
+        public static Result run(List<? extends SiteWorker> workers, List<Supply> inventory, ExecutorService executor,
+                                 long timeoutMillis, boolean rebalance) throws InterruptedException {
+            long start = System.nanoTime();
+            int supplies = inventory.size();
+            List<SiteOutcome> outcomes = new ArrayList<>();
+            for (SiteWorker w : workers) outcomes.add(new SiteOutcome(w.site(), supplies));
+
+            // 1. Census
+            List<Object> answers = callAll(workers, outcomes, executor, timeoutMillis, SiteWorker::census);
+            long population = 0;
+            int[] eligible = new int[PriorityAttribute.values().length];
+            for (int k = 0; k < workers.size(); k++) {
+                SiteOutcome o = outcomes.get(k);
+                if (o.status != Status.OK) { o.status = Status.EXCLUDED; continue; }
+                o.census = (SiteCensus) answers.get(k);
+                population += o.census.population;
+                for (int a = 0; a < eligible.length; a++) eligible[a] += o.census.eligible[a];
+            }
+            Plan plan = new Plan(inventory, (int) population, eligible);
+
+            // 2. Floor allocations, same shares everywhere; a failed site keeps its entitlement on hold
+            answers = callAll(workers, outcomes, executor, timeoutMillis, w -> w.distribute(plan));
+            for (int k = 0; k < workers.size(); k++) {
+                SiteOutcome o = outcomes.get(k);
+                if (o.census == null) continue;
+                for (int s = 0; s < supplies; s++) {
+                    if (o.status == Status.OK) o.distributed[s] = ((long[]) answers.get(k))[s];
+                    else o.held[s] = entitlement(inventory.get(s), o.census, plan);
+                }
+            }
+
+            // 3. Rounding excess
+            if (rebalance) {
+                for (int s = 0; s < supplies; s++) apportion(inventory.get(s), s, outcomes, plan);
+                List<SiteOutcome> before = new ArrayList<>();
+                for (SiteOutcome o : outcomes) before.add(o.status == Status.OK ? o : null);
+                // A site that misses the deadline may still be topping up: the coordinator either stops it before it
+                // starts or waits for its answer, so only the units it did not hand out go on hold
+                AtomicIntegerArray stage = new AtomicIntegerArray(outcomes.size()); // WAITING, RUNNING, RETURNED
+                CountDownLatch[] returned = new CountDownLatch[outcomes.size()];
+                long[][] applied = new long[outcomes.size()][];
+                for (int k = 0; k < returned.length; k++) returned[k] = new CountDownLatch(1);
+                callAll(workers, outcomes, executor, timeoutMillis, w -> {
+                    int k = workers.indexOf(w);
+                    if (!stage.compareAndSet(k, WAITING, RUNNING)) return null; // given up on before it started
+                    try {
+                        SiteOutcome o = outcomes.get(k);
+                        int[] extra = new int[supplies];
+                        boolean any = false;
+                        for (int s = 0; s < supplies; s++) { extra[s] = (int) o.extra[s]; any |= extra[s] > 0; }
+                        applied[k] = any ? w.topUp(extra) : new long[supplies];
+                        return null;
+                    } finally {
+                        stage.set(k, RETURNED);
+                        returned[k].countDown();
+                    }
+                });
+                for (int k = 0; k < outcomes.size(); k++) {
+                    SiteOutcome o = outcomes.get(k);
+                    if (before.get(k) == null) continue;
+                    if (o.status != Status.OK && !stage.compareAndSet(k, WAITING, RETURNED)) returned[k].await();
+                    long[] got = applied[k]; // null: it failed, so nothing was handed out
+                    for (int s = 0; s < supplies; s++) {
+                        long accepted = got == null ? 0 : got[s];
+                        // Units a failed site did not take wait for it; what an OK site had no family for stays at the center
+                        if (o.status != Status.OK) o.held[s] += o.extra[s] - accepted;
+                        o.extra[s] = accepted;
+                    }
+                }
+            }
+
+            for (int s = 0; s < supplies; s++) {
+                long shipped = 0;
+                for (SiteOutcome o : outcomes) shipped += o.shipped(s);
+                inventory.get(s).setLeftover(inventory.get(s).qty - shipped);
+            }
+            return new Result(inventory, outcomes, plan, System.nanoTime() - start);
+        }
+
+        // Same floors as RationEngine.distributeSupply, from the census alone
+        static long entitlement(Supply item, SiteCensus census, Plan plan) {
+            if (item.cat == SupplyCategory.SPECIALIZED_MED) return 0;
+            if (item.target != null) {
+                int a = item.target.ordinal();
+                return (long) RationEngine.targetedShare(item, plan.eligible[a]) * census.eligible[a];
+            }
+            long total = 0;
+            for (int k = 0; k < census.memberCounts.length; k++) {
+                total += (long) RationEngine.generalShare(item, census.memberCounts[k], plan.totalPopulation) * census.families[k];
+            }
+            return total;
+        }
+
+        // Largest remainder over the sites' fractional shortfall; never more extra units than a site has
+        // families that lost a fraction (each family gets at most one)
+        private static void apportion(Supply item, int s, List<SiteOutcome> outcomes, Plan plan) {
+            if (item.cat == SupplyCategory.SPECIALIZED_MED) return;
+            int a = item.target != null ? item.target.ordinal() : -1;
+            if (a >= 0 ? plan.eligible[a] == 0 : plan.totalPopulation <= 0) return;
+            double unitShare = a >= 0 ? (double) item.qty / plan.eligible[a] : (double) item.qty / plan.totalPopulation;
+
+            long given = 0;
+            double shortfall = 0;
+            List<SiteOutcome> sites = new ArrayList<>();
+            List<double[]> quota = new ArrayList<>(); // {shortfall, capacity}
+            for (SiteOutcome o : outcomes) {
+                if (o.census == null) continue;
+                given += o.distributed[s] + o.held[s];
+                double exact = a >= 0 ? unitShare * o.census.eligible[a] : unitShare * o.census.population;
+                long capacity = 0;
+                if (a >= 0) capacity = fraction(unitShare, 1) > 0 ? o.census.eligible[a] : 0;
+                else for (int k = 0; k < o.census.memberCounts.length; k++) if (fraction(unitShare, o.census.memberCounts[k]) > 0) capacity += o.census.families[k];
+                double lost = Math.max(0, exact - (o.distributed[s] + o.held[s]));
+                sites.add(o);
+                quota.add(new double[]{lost, capacity});
+                shortfall += lost;
+            }
+            long excess = item.qty - given;
+            if (excess <= 0 || shortfall <= 0) return;
+
+            long[] extra = new long[sites.size()];
+            double[] remainder = new double[sites.size()];
+            long placed = 0;
+            Integer[] order = new Integer[sites.size()];
+            for (int k = 0; k < sites.size(); k++) {
+                double q = quota.get(k)[0] * excess / shortfall;
+                extra[k] = Math.min((long) Math.floor(q), (long) quota.get(k)[1]);
+                remainder[k] = q - Math.floor(q);
+                placed += extra[k];
+                order[k] = k;
+            }
+            Arrays.sort(order, (x, y) -> Double.compare(remainder[y], remainder[x]));
+            for (int pass = 0; pass < 2 && placed < excess; pass++) { // second pass: whatever a full site could not take
+                for (int k : order) {
+                    if (placed == excess) break;
+                    if (extra[k] < quota.get(k)[1]) { extra[k]++; placed++; }
+                }
+            }
+            for (int k = 0; k < sites.size(); k++) {
+                SiteOutcome o = sites.get(k);
+                if (o.status == Status.OK) o.extra[s] = extra[k];
+                else o.held[s] += extra[k];
+            }
+        }
+
+        private static double fraction(double unitShare, int members) {
+            double exact = unitShare * members;
+            return exact - Math.floor(exact);
+        }
+
+        private interface SiteCall { Object call(SiteWorker worker) throws IOException; }
+
+        // Runs one round on every site still OK, all at once, under one deadline; failures only mark the site
+        private static List<Object> callAll(List<? extends SiteWorker> workers, List<SiteOutcome> outcomes, ExecutorService executor,
+                                            long timeoutMillis, SiteCall call) throws InterruptedException {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int k = 0; k < workers.size(); k++) {
+                SiteWorker w = workers.get(k);
+                futures.add(outcomes.get(k).status == Status.OK ? executor.submit(() -> call.call(w)) : null);
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            List<Object> answers = new ArrayList<>();
+            for (int k = 0; k < futures.size(); k++) {
+                Future<Object> f = futures.get(k);
+                Object answer = null;
+                if (f != null) {
+                    try {
+                        answer = f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (ExecutionException e) {
+                        fail(outcomes.get(k), String.valueOf(e.getCause()));
+                    } catch (TimeoutException e) {
+                        f.cancel(true);
+                        fail(outcomes.get(k), "no answer within " + timeoutMillis + " ms");
+                    }
+                }
+                answers.add(answer);
+            }
+            return answers;
+        }
+
+        private static void fail(SiteOutcome o, String error) {
+            o.status = Status.FAILED;
+            o.error = error;
+        }
+    }
+
+    // Registry Delta
+    // Compares a re-exported registry with the families already loaded. Records are matched by Family ID (the k-th
+    // occurrence of an ID with the k-th occurrence, so duplicate IDs still pair up) and compared by a 64-bit hash of
+    // id, name, size and needs. Matching uses one open-addressing table of row numbers, no HashMap of Strings.
+    public static class RegistryDelta {
+        public final int[] added;     // rows of the new registry that are not loaded yet
+        public final int[] removed;   // loaded rows missing from the new registry (ascending)
+        public final int[] changed;   // loaded rows whose record changed (ascending)...
+        public final int[] changedTo; // ...and their row in the new registry
+        public final int unchanged;
+        public final long nanos;
+
+        RegistryDelta(int[] added, int[] removed, int[] changed, int[] changedTo, int unchanged, long nanos) {
+            this.added = added; this.removed = removed; this.changed = changed; this.changedTo = changedTo;
+            this.unchanged = unchanged; this.nanos = nanos;
+        }
+
+        public boolean isEmpty() { return added.length == 0 && removed.length == 0 && changed.length == 0; }
+
+        public String summary() {
+            return String.format("%,d added, %,d removed, %,d changed, %,d unchanged", added.length, removed.length, changed.length, unchanged);
+        }
+
+        public static RegistryDelta compare(FamilyStore current, FamilyStore next, ForkJoinPool pool) {
+            long start = System.nanoTime();
+            current.decodeStrings(pool);
+            long[] currentHashes = hashes(current, pool), nextHashes = hashes(next, pool);
+
+            // Linear probing keeps the rows of one ID in file order along the probe chain; a matched slot goes negative
+            int n = current.size();
+            int capacity = Integer.highestOneBit(Math.max(2, n) * 2 - 1) << 1;
+            int mask = capacity - 1;
+            int[] slots = new int[capacity]; // row + 1, 0 = empty
+            for (int row = 0; row < n; row++) {
+                int i = spread(current.getId(row).hashCode()) & mask;
+                while (slots[i] != 0) i = (i + 1) & mask;
+                slots[i] = row + 1;
+            }
+
+            boolean[] matched = new boolean[n];
+            int[] pairedWith = new int[n];
+            int[] added = new int[next.size()];
+            int addedCount = 0, unchanged = 0, changedCount = 0;
+            for (int row = 0; row < next.size(); row++) {
+                String id = next.getId(row);
+                int i = spread(id.hashCode()) & mask, hit = -1;
+                for (int slot; (slot = slots[i]) != 0 && hit < 0; i = (i + 1) & mask) {
+                    if (slot > 0 && current.getId(slot - 1).equals(id)) {
+                        hit = slot - 1;
+                        slots[i] = -slot;
+                    }
+                }
+                if (hit < 0) { added[addedCount++] = row; continue; }
+                matched[hit] = true;
+                pairedWith[hit] = row;
+                if (currentHashes[hit] == nextHashes[row]) unchanged++;
+                else changedCount++;
+            }
+
+            int[] removed = new int[n - (next.size() - addedCount)], changed = new int[changedCount], changedTo = new int[changedCount];
+            for (int row = 0, r = 0, c = 0; row < n; row++) {
+                if (!matched[row]) removed[r++] = row;
+                else if (currentHashes[row] != nextHashes[pairedWith[row]]) { changed[c] = row; changedTo[c++] = pairedWith[row]; }
+            }
+            return new RegistryDelta(Arrays.copyOf(added, addedCount), removed, changed, changedTo, unchanged, System.nanoTime() - start);
+        }
+
+        private static int spread(int h) { return (h ^ (h >>> 16)) * 0x9E3779B9; }
+
+        private static long[] hashes(FamilyStore store, ForkJoinPool pool) {
+            long[] hashes = new long[store.size()];
+            pool.invoke(ForkJoinTask.adapt(() -> java.util.stream.IntStream.range(0, store.size()).parallel().forEach(row ->
+                    hashes[row] = recordHash(store.getId(row), store.getHeadOfFamily(row), store.getMemberCount(row), store.getAttributeMask(row)))));
+            return hashes;
+        }
+
+        // FNV-1a over the fields (with a separator so "AB"+"C" differs from "A"+"BC"), finished with a 64-bit mix
+        static long recordHash(String id, String name, int members, long attributes) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < id.length(); i++) h = (h ^ id.charAt(i)) * 0x100000001b3L;
+            h = (h ^ 0x1F) * 0x100000001b3L;
+            for (int i = 0; i < name.length(); i++) h = (h ^ name.charAt(i)) * 0x100000001b3L;
+            h = (h ^ members) * 0x100000001b3L;
+            h = (h ^ attributes) * 0x100000001b3L;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    // Session Snapshot
+    // The whole operation in one binary file: family columns, inventory and (after a run) the allocation columns,
+    // so a session comes back without re-parsing the CSV or typing the inventory in again.
+    // Layout, little-endian: a 48-byte header {magic, version, flags, families, supplies, 0, savedAt, bodyBytes, crc32c}
+    // then the body: label, member counts, attribute masks (1 byte each), ids and names (lengths + UTF-8 bytes),
+    // inventory, and one allocation column per supply. The engine gives every family with the same size and needs the
+    // same amount, so a column is normally just a (size, mask) -> qty table; anything else is stored as bytes, shorts,
+    // ints or sparse (row, qty) pairs, whichever is smallest.
+    // Written to a temp file and moved over the old one, so a crash mid-save keeps the last good one.
+    // Loading maps the file and only copies bytes; ids and names become Strings when first read (FamilyStore).
+    public static class SessionSnapshot {
+        public static final Path DEFAULT_FILE = Paths.get("session.eqs");
+        private static final int MAGIC = 0x45515353; // "EQSS"
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 48;
+        private static final int FLAG_DISTRIBUTED = 1;
+        private static final byte COL_NONE = 0, COL_BYTE = 1, COL_SHORT = 2, COL_INT = 3, COL_SPARSE = 4, COL_KEYED = 5;
+        private static final int MAX_KEYED_SIZE = 1023; // family sizes above this skip the (size, mask) table
+        static {
+            if (PriorityAttribute.values().length > 8) throw new IllegalStateException("Attribute masks no longer fit in one byte");
+        }
+
+        // What a snapshot holds; when distributed, the store also carries the allocation columns
+        public static class Session {
+            public final FamilyStore store;
+            public final List<Supply> inventory;
+            public final boolean distributed;
+            public final String label;
+            public final long savedAt;
+
+            Session(FamilyStore store, List<Supply> inventory, boolean distributed, String label, long savedAt) {
+                this.store = store; this.inventory = inventory; this.distributed = distributed;
+                this.label = label; this.savedAt = savedAt;
+            }
+        }
+
+        // UTF-8 bytes of one string column, copied out of the mapping so the file is not kept open
+        static final class StringColumn {
+            private final byte[] bytes;
+            private final int[] offsets;
+
+            StringColumn(byte[] bytes, int[] offsets) { this.bytes = bytes; this.offsets = offsets; }
+
+            String get(int row) { return new String(bytes, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8); }
+        }
+
+        // distributed = the store's allocation columns belong to this inventory (same supplies, same order)
+        public static void save(Path file, String label, FamilyStore store, List<Supply> inventory, boolean distributed) throws IOException {
+            if (distributed && store.supplyCount() != inventory.size()) throw new IllegalArgumentException("Allocations do not match the inventory");
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ch.position(HEADER_BYTES);
+                    Out out = new Out(ch);
+                    int n = store.size();
+                    out.putString(label);
+                    out.putCounts(store.memberCounts(), n);
+                    long[] masks = store.attributeMasks();
+                    byte[] maskBytes = new byte[n];
+                    for (int i = 0; i < n; i++) maskBytes[i] = (byte) masks[i];
+                    out.putBytes(maskBytes, 0, n);
+                    out.putStrings(store.ids(), n);
+                    out.putStrings(store.names(), n);
+                    for (Supply s : inventory) {
+                        out.putString(s.name);
+                        out.putByte(s.cat == null ? -1 : s.cat.ordinal());
+                        out.putByte(s.target == null ? -1 : s.target.ordinal());
+                        out.putInt(s.qty);
+                        out.putDouble(s.leftover);
+                    }
+                    if (distributed) for (int s = 0; s < inventory.size(); s++) out.putColumn(store.allocationsOf(s), store.memberCounts(), masks, n);
+                    out.flush();
+
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    header.putInt(MAGIC).putInt(VERSION).putInt(distributed ? FLAG_DISTRIBUTED : 0).putInt(n).putInt(inventory.size()).putInt(0)
+                          .putLong(System.currentTimeMillis()).putLong(out.bytes).putLong(out.crc.getValue()).flip();
+                    while (header.hasRemaining()) ch.write(header, header.position());
+                    ch.force(true);
+                }
+                replace(tmp, file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private static void replace(Path tmp, Path file) throws IOException {
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileSystemException e) {
+                // Windows refuses to replace a file that is still mapped; the mapping of the last load
+                // goes away once it is garbage collected, so try once more after a GC
+                System.gc();
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        // Maps the file, checks it, and decodes the allocation columns in parallel on the pool
+        public static Session load(Path file, ForkJoinPool pool) throws IOException {
+            ByteBuffer map;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < HEADER_BYTES) throw new IOException(file.getFileName() + " is not a session snapshot");
+                if (size > Integer.MAX_VALUE) throw new IOException(file.getFileName() + " is too large to map");
+                map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (map.getInt(0) != MAGIC) throw new IOException(file.getFileName() + " is not a session snapshot");
+            int version = map.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + " (this build reads " + VERSION + ")");
+            boolean distributed = (map.getInt(8) & FLAG_DISTRIBUTED) != 0;
+            int n = map.getInt(12), supplies = map.getInt(16);
+            long savedAt = map.getLong(24), bodyBytes = map.getLong(32), crc = map.getLong(40);
+            if (bodyBytes != map.capacity() - HEADER_BYTES) throw new IOException(file.getFileName() + " is truncated");
+            CRC32C check = new CRC32C();
+            check.update(map.slice(HEADER_BYTES, (int) bodyBytes));
+            if (check.getValue() != crc) throw new IOException(file.getFileName() + " is corrupt (checksum mismatch)");
+
+            In in = new In(map, HEADER_BYTES);
+            String label = in.getString();
+            int[] memberCounts = in.getCounts(n);
+            ByteBuffer maskBytes = in.region(n);
+            long[] masks = new long[n];
+            for (int i = 0; i < n; i++) masks[i] = maskBytes.get(i) & 0xFF;
+            StringColumn ids = in.getStrings(n), names = in.getStrings(n);
+
+            SupplyCategory[] cats = SupplyCategory.values();
+            PriorityAttribute[] attrs = PriorityAttribute.values();
+            List<Supply> inventory = new ArrayList<>(supplies);
+            for (int s = 0; s < supplies; s++) {
+                String name = in.getString();
+                int cat = in.map.get(in.pos++), target = in.map.get(in.pos++);
+                Supply item = new Supply(name, cat < 0 ? null : cats[cat], in.getInt(), target < 0 ? null : attrs[target]);
+                item.setLeftover(in.map.getDouble(in.pos));
+                in.pos += 8;
+                inventory.add(item);
+            }
+            int[][] columns = new int[supplies][];
+            List<Callable<Void>> tasks = new ArrayList<>();
+            if (distributed) for (int s = 0; s < supplies; s++) in.column(columns, s, memberCounts, masks, tasks);
+
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                try { f.get(); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException("Snapshot load interrupted"); }
+                catch (ExecutionException e) { throw new IOException("Could not read " + file.getFileName(), e.getCause()); }
+            }
+            FamilyStore store = FamilyStore.wrap(ids, names, memberCounts, masks);
+            if (distributed) store.restoreAllocations(inventory, columns);
+            return new Session(store, inventory, distributed, label, savedAt);
+        }
+
+        // Body writer: one direct buffer, CRC32C taken over every block on its way to the channel
+        private static final class Out {
+            private final FileChannel ch;
+            private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            final CRC32C crc = new CRC32C();
+            long bytes;
+
+            Out(FileChannel ch) { this.ch = ch; }
+
+            private ByteBuffer room(int n) throws IOException {
+                if (buf.remaining() < n) flush();
+                return buf;
+            }
+
+            void flush() throws IOException {
+                buf.flip();
+                crc.update(buf.duplicate());
+                bytes += buf.remaining();
+                while (buf.hasRemaining()) ch.write(buf);
+                buf.clear();
+            }
+
+            void putByte(int v) throws IOException { room(1).put((byte) v); }
+            void putInt(int v) throws IOException { room(4).putInt(v); }
+            void putDouble(double v) throws IOException { room(8).putDouble(v); }
+
+            void putBytes(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int k = Math.min(len, room(1).remaining());
+                    buf.put(b, off, k);
+                    off += k; len -= k;
+                }
+            }
+
+            void putInts(int[] a, int len) throws IOException {
+                for (int off = 0; off < len; ) {
+                    int k = Math.min(len - off, room(4).remaining() / 4);
+                    buf.asIntBuffer().put(a, off, k);
+                    buf.position(buf.position() + 4 * k);
+                    off += k;
+                }
+            }
+
+            void putString(String s) throws IOException {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                putInt(b.length);
+                putBytes(b, 0, b.length);
+            }
+
+            // Width byte, then 1 byte per value when all fit in 0..255 (family sizes, string lengths), else 4
+            void putCounts(int[] a, int n) throws IOException {
+                boolean small = true;
+                for (int i = 0; i < n && small; i++) small = a[i] >= 0 && a[i] <= 0xFF;
+                putByte(small ? 1 : 4);
+                if (!small) { putInts(a, n); return; }
+                byte[] chunk = new byte[Math.min(n, 1 << 16)];
+                for (int off = 0; off < n; off += chunk.length) {
+                    int k = Math.min(chunk.length, n - off);
+                    for (int i = 0; i < k; i++) chunk[i] = (byte) a[off + i];
+                    putBytes(chunk, 0, k);
+                }
+            }
+
+            // Byte lengths, then all the UTF-8 bytes back to back
+            void putStrings(String[] values, int n) throws IOException {
+                int[] lengths = new int[n];
+                byte[][] encoded = new byte[n][];
+                for (int i = 0; i < n; i++) {
+                    encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                    lengths[i] = encoded[i].length;
+                }
+                putCounts(lengths, n);
+                for (byte[] b : encoded) putBytes(b, 0, b.length);
+            }
+
+            void putColumn(int[] col, int[] members, long[] masks, int n) throws IOException {
+                if (col == null) { putByte(COL_NONE); return; }
+                if (putKeyed(col, members, masks, n)) return;
+                int nonZero = 0, max = 0, min = 0;
+                for (int i = 0; i < n; i++) {
+                    int v = col[i];
+                    if (v != 0) nonZero++;
+                    if (v > max) max = v;
+                    if (v < min) min = v;
+                }
+                long dense = min < 0 ? 4L * n : max <= 0xFF ? n : max <= 0xFFFF ? 2L * n : 4L * n;
+                if (8L * nonZero + 4 < dense) {
+                    int[] rows = new int[nonZero], qty = new int[nonZero];
+                    for (int i = 0, k = 0; i < n; i++) if (col[i] != 0) { rows[k] = i; qty[k++] = col[i]; }
+                    putByte(COL_SPARSE);
+                    putInt(nonZero);
+                    putInts(rows, nonZero);
+                    putInts(qty, nonZero);
+                } else if (dense == n) {
+                    putByte(COL_BYTE);
+                    byte[] chunk = new byte[Math.min(n, 1 << 16)];
+                    for (int off = 0; off < n; off += chunk.length) {
+                        int k = Math.min(chunk.length, n - off);
+                        for (int i = 0; i < k; i++) chunk[i] = (byte) col[off + i];
+                        putBytes(chunk, 0, k);
+                    }
+                } else if (dense == 2L * n) {
+                    putByte(COL_SHORT);
+                    for (int i = 0; i < n; i++) room(2).putShort((short) col[i]);
+                } else {
+                    putByte(COL_INT);
+                    putInts(col, n);
+                }
+            }
+
+            // Succeeds only if every (size, mask) pair maps to exactly one quantity
+            private boolean putKeyed(int[] col, int[] members, long[] masks, int n) throws IOException {
+                int[] table = new int[(MAX_KEYED_SIZE + 1) << 8];
+                boolean[] used = new boolean[table.length];
+                int keys = 0;
+                for (int i = 0; i < n; i++) {
+                    if (members[i] < 0 || members[i] > MAX_KEYED_SIZE) return false;
+                    int key = members[i] << 8 | (int) (masks[i] & 0xFF);
+                    if (!used[key]) { used[key] = true; table[key] = col[i]; keys++; }
+                    else if (table[key] != col[i]) return false;
+                }
+                putByte(COL_KEYED);
+                putInt(keys);
+                for (int key = 0; key < table.length; key++) if (used[key]) { putInt(key); putInt(table[key]); }
+                return true;
+            }
+        }
+
+        // Body reader: walks the mapped file once; the bulky parts become tasks over their own slices
+        private static final class In {
+            final ByteBuffer map;
+            int pos;
+
+            In(ByteBuffer map, int pos) { this.map = map; this.pos = pos; }
+
+            int getInt() { int v = map.getInt(pos); pos += 4; return v; }
+
+            ByteBuffer region(long len) throws IOException {
+                if (len < 0 || pos + len > map.capacity()) throw new IOException("Snapshot is truncated");
+                ByteBuffer slice = map.slice(pos, (int) len).order(ByteOrder.LITTLE_ENDIAN);
+                pos += (int) len;
+                return slice;
+            }
+
+            String getString() throws IOException {
+                int len = getInt();
+                byte[] b = new byte[len];
+                region(len).get(b);
+                return new String(b, StandardCharsets.UTF_8);
+            }
+
+            int[] getCounts(int n) throws IOException {
+                int[] a = new int[n];
+                int width = map.get(pos++);
+                if (width == 4) {
+                    region(4L * n).asIntBuffer().get(a);
+                } else {
+                    ByteBuffer bytes = region(n);
+                    for (int i = 0; i < n; i++) a[i] = bytes.get(i) & 0xFF;
+                }
+                return a;
+            }
+
+            StringColumn getStrings(int n) throws IOException {
+                int[] lengths = getCounts(n), offsets = new int[n + 1];
+                for (int i = 0; i < n; i++) offsets[i + 1] = Math.addExact(offsets[i], lengths[i]);
+                byte[] bytes = new byte[offsets[n]];
+                region(offsets[n]).get(bytes);
+                return new StringColumn(bytes, offsets);
+            }
+
+            void column(int[][] columns, int s, int[] members, long[] masks, List<Callable<Void>> tasks) throws IOException {
+                byte kind = map.get(pos++);
+                if (kind == COL_NONE) return;
+                int n = members.length;
+                int[] col = new int[n];
+                columns[s] = col;
+                if (kind == COL_KEYED) {
+                    int keys = getInt();
+                    int[] table = new int[(MAX_KEYED_SIZE + 1) << 8];
+                    IntBuffer pairs = region(8L * keys).asIntBuffer();
+                    for (int k = 0; k < keys; k++) table[pairs.get(2 * k)] = pairs.get(2 * k + 1);
+                    tasks.add(() -> { for (int i = 0; i < n; i++) col[i] = table[members[i] << 8 | (int) masks[i]]; return null; });
+                } else if (kind == COL_SPARSE) {
+                    int count = getInt();
+                    IntBuffer rows = region(4L * count).asIntBuffer(), qty = region(4L * count).asIntBuffer();
+                    tasks.add(() -> { for (int k = 0; k < count; k++) col[rows.get(k)] = qty.get(k); return null; });
+                } else if (kind == COL_BYTE) {
+                    ByteBuffer data = region(n);
+                    tasks.add(() -> { for (int i = 0; i < n; i++) col[i] = data.get(i) & 0xFF; return null; });
+                } else if (kind == COL_SHORT) {
+                    ByteBuffer data = region(2L * n);
+                    tasks.add(() -> { for (int i = 0; i < n; i++) col[i] = data.getShort(2 * i) & 0xFFFF; return null; });
+                } else if (kind == COL_INT) {
+                    IntBuffer data = region(4L * n).asIntBuffer();
+                    tasks.add(() -> { data.get(0, col); return null; });
+                } else {
+                    throw new IOException("Unknown allocation column type " + kind);
+                }
+            }
+        }
+    }
+
+    // makes CVS into HTML for better reading and printting
+    public static class ReportGenerator {
+        public static void generatePackingList(List<Family> fList, String fname) throws IOException {
+            generatePackingList(fList, fname, CsvImporter.Progress.NONE);
+        }
+
+        public static void generatePackingList(List<Family> fList, String fname, CsvImporter.Progress progress) throws IOException {
+            try (PrintWriter pw = openWriter(fname)) {
                 
                 pw.println("<!DOCTYPE html>");
                 pw.println("<html><head><title>EquiEat - Packing List</title></head><body>");
@@ -767,21 +6914,52 @@ static class bootStrapper extends JFrame {
                 pw.println("<nav><h1>EquiEat - Final Packing List</h1></nav>");
                 pw.println("<table><tr><th>Family ID</th><th>Head of Family</th><th>Size</th><th>Priorities</th><th>Ration Allocation</th></tr>");
 
+                // One reused row buffer; allocations come from forEachItem instead of the formatted display string
+                String newline = System.lineSeparator();
+                StringBuilder row = new StringBuilder(256);
+                Map<Long, String> priorities = new HashMap<>();
+                int done = 0;
                 for (Family f : fList) { // Loop condition in creating a table for a family
-                    pw.printf("<tr><td>%s</td><td>%s</td><td>%d</td><td class='priority'>%s</td><td class='allocation'>%s</td></tr>%n",
-                        escapeHtml(f.getId()), 
-                        escapeHtml(f.getHeadOfFamily()), 
-                        f.getMemberCount(),
-                        escapeHtml(f.attributes.toString().replace(",", " ")),
-                        escapeHtml(f.getFormattedPackingList()));
+                    row.setLength(0);
+                    row.append("<tr><td>").append(escapeHtml(f.getId()))
+                       .append("</td><td>").append(escapeHtml(f.getHeadOfFamily()))
+                       .append("</td><td>").append(f.getMemberCount())
+                       .append("</td><td class='priority'>").append(priorities.computeIfAbsent(f.getAttributeMask(),
+                               m -> escapeHtml(PriorityAttribute.fromMask(m).toString().replace(",", " "))))
+                       .append("</td><td class='allocation'>");
+                    int itemsStart = row.length();
+                    f.forEachItem((name, qty) -> {
+                        if (row.length() > itemsStart) row.append(" + ");
+                        row.append(qty).append(" pcs of ").append(escapeHtml(name));
+                    });
+                    row.append("</td></tr>").append(newline);
+                    pw.append(row);
+                    step(++done, progress, fname);
                 }
                 pw.println("</table>"); 
                 pw.println("</body></html>");
-
+                checkWritten(pw, fname);
             }
         }
 
-        private static String escapeHtml(String text){ // convert special Characters into HTML entities
+        // Buffered UTF-8 writer over an NIO file stream
+        static PrintWriter openWriter(String fname) throws IOException {
+            return new PrintWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(fname)), StandardCharsets.UTF_8), 1 << 16));
+        }
+
+        // PrintWriter swallows write errors, so ask before closing
+        static void checkWritten(PrintWriter pw, String fname) throws IOException {
+            if (pw.checkError()) throw new IOException("Could not write " + fname);
+        }
+
+        // Reports progress every 4096 rows and stops a cancelled export
+        static void step(int done, CsvImporter.Progress progress, String fname) throws InterruptedIOException {
+            if ((done & 4095) != 0) return;
+            progress.advance(4096);
+            if (progress.isCancelled()) throw new InterruptedIOException("Export of " + fname + " cancelled");
+        }
+
+        static String escapeHtml(String text){ // convert special Characters into HTML entities
             return text.replace("&", "&amp;")
                        .replace("<", "&lt;")
                        .replace(">", "&gt;")
@@ -790,7 +6968,11 @@ static class bootStrapper extends JFrame {
         }
 
         public static void generateReserveReport(List<Supply> inv, String fname) throws IOException {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(fname))) {
+            generateReserveReport(inv, fname, CsvImporter.Progress.NONE);
+        }
+
+        public static void generateReserveReport(List<Supply> inv, String fname, CsvImporter.Progress progress) throws IOException {
+            try (PrintWriter pw = openWriter(fname)) {
                 pw.println("=== RESERVE & MEDICAL REPORT ===");
                 pw.println("Date: " + new Date());
                 pw.println("----------------------------------------------");
@@ -803,6 +6985,8 @@ static class bootStrapper extends JFrame {
                         pw.printf("%-20s | %-15s | %-15s%n", s.name, s.cat, displayQty);
                     }
                 }
+                progress.advance(inv.size());
+                checkWritten(pw, fname);
             }
         }
     }
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Tamper evidence of the audit journal. The logger is static and writes to ./audit (surefire runs in
+// target/test-run), so every test damages the newest segment and puts the original bytes back afterwards.
+class AuditLoggerTest {
+    static final int ENTRIES = 2_000;
+    static Path segment;
+    static byte[] original;
+    List<String> lines;
+
+    @BeforeAll
+    static void writeEntries() throws Exception {
+        // Start from an empty journal, whatever an earlier run left behind (the writer starts with the first log())
+        if (Files.isDirectory(Paths.get("audit"))) {
+            try (Stream<Path> old = Files.list(Paths.get("audit"))) {
+                for (Path p : (Iterable<Path>) old::iterator) Files.delete(p);
+            }
+        }
+        SmartRationGUI.AuditLogger logger = new SmartRationGUI.AuditLogger();
+        for (int i = 0; i < ENTRIES; i++) assertTrue(logger.log("EXPORT", "Exported report " + i));
+        SmartRationGUI.AuditLogger.flush();
+        try (Stream<Path> files = Files.list(Paths.get("audit"))) {
+            segment = files.filter(p -> p.getFileName().toString().endsWith(".log")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    @BeforeEach
+    void keepOriginal() throws IOException {
+        original = Files.readAllBytes(segment);
+        lines = Files.readAllLines(segment, StandardCharsets.UTF_8);
+        assertTrue(lines.size() >= ENTRIES);
+    }
+
+    @AfterEach
+    void restore() throws Exception {
+        Files.write(segment, original);
+        assertTrue(verify().intact, "restoring the segment must make it intact again");
+    }
+
+    private static SmartRationGUI.AuditLogger.Verification verify() throws Exception {
+        return SmartRationGUI.AuditLogger.verify(ForkJoinPool.commonPool());
+    }
+
+    private void write(List<String> changed) throws IOException {
+        Files.write(segment, changed, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void untouchedLogIsIntact() throws Exception {
+        SmartRationGUI.AuditLogger.Verification v = verify();
+        assertTrue(v.intact, v.summary());
+        assertTrue(v.entries >= ENTRIES);
+    }
+
+    @Test
+    void editedEntryIsReported() throws Exception {
+        int line = lines.size() / 2;
+        lines.set(line, lines.get(line).replace("Exported report", "Exported rep0rt"));
+        write(lines);
+        SmartRationGUI.AuditLogger.Verification v = verify();
+        assertFalse(v.intact);
+        assertEquals(line + 1, v.badLine, v.summary());
+    }
+
+    @Test
+    void removedEntryIsReported() throws Exception {
+        int line = lines.size() / 3;
+        lines.remove(line);
+        write(lines);
+        SmartRationGUI.AuditLogger.Verification v = verify();
+        assertFalse(v.intact);
+        assertEquals(line + 1, v.badLine, v.summary());
+    }
+
+    // The cut-off log still chains; only the count and hash the writer committed show it
+    @Test
+    void truncatedTailIsReported() throws Exception {
+        write(lines.subList(0, lines.size() - 3));
+        SmartRationGUI.AuditLogger.Verification v = verify();
+        assertFalse(v.intact);
+        assertEquals(lines.size() - 2, v.badLine, v.summary());
+        assertTrue(v.reason.contains("3 removed from the end"), v.reason);
+    }
+
+    @Test
+    void emptiedSegmentIsReported() throws Exception {
+        Files.write(segment, new byte[0]);
+        assertFalse(verify().intact);
+    }
+
+    @Test
+    void deletedSegmentIsReported() throws Exception {
+        Files.delete(segment);
+        SmartRationGUI.AuditLogger.Verification v = verify();
+        assertFalse(v.intact);
+        assertTrue(v.reason.contains("deleted"), v.reason);
+    }
+}
@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClaimLedgerTest {
+    static final int FAMILIES = 2_000;
+
+    @TempDir
+    Path dir;
+
+    // Every family gets rice, so every stub can be redeemed
+    static SmartRationGUI.FamilyStore distributedStore() {
+        SmartRationGUI.FamilyStore store = new SmartRationGUI.FamilyStore();
+        Random random = new Random(3);
+        for (int i = 0; i < FAMILIES; i++) store.add("F" + i, "Family " + i, 1 + random.nextInt(8), 0);
+        List<SmartRationGUI.Supply> inventory = new ArrayList<>();
+        inventory.add(new SmartRationGUI.Supply("Rice", SmartRationGUI.SupplyCategory.STAPLE, 100 * FAMILIES, null));
+        SmartRationGUI.EligibilityIndex index = SmartRationGUI.EligibilityIndex.build(store);
+        new SmartRationGUI.RationEngine().distributeWithRounding(store, inventory, (int) index.totalPopulation(), index);
+        return store;
+    }
+
+    @Test
+    void noStubIsRedeemedTwiceUnderContention() throws Exception {
+        SmartRationGUI.FamilyStore store = distributedStore();
+        int desks = 16;
+        AtomicIntegerArray redeemed = new AtomicIntegerArray(FAMILIES);
+        ExecutorService executor = Executors.newFixedThreadPool(desks);
+        try (SmartRationGUI.ClaimLedger ledger = SmartRationGUI.ClaimLedger.open(dir.resolve("claims.wal"), store, "test")) {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<?>> running = new ArrayList<>();
+            for (int d = 0; d < desks; d++) {
+                String desk = "Desk " + d;
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < FAMILIES; i++) order.add(i);
+                Collections.shuffle(order, new Random(d));
+                running.add(executor.submit(() -> {
+                    go.await();
+                    for (int i : order) {
+                        SmartRationGUI.ClaimLedger.Claim c = ledger.claim("F" + i, desk);
+                        if (c.status == SmartRationGUI.ClaimLedger.Status.REDEEMED) redeemed.incrementAndGet(i);
+                        else assertEquals(SmartRationGUI.ClaimLedger.Status.ALREADY_REDEEMED, c.status);
+                    }
+                    return null;
+                }));
+            }
+            go.countDown();
+            for (Future<?> f : running) f.get();
+
+            for (int i = 0; i < FAMILIES; i++) assertEquals(1, redeemed.get(i), "F" + i);
+            assertEquals(FAMILIES, ledger.counts().claimed);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // ...and the log says the same after a reopen
+        try (SmartRationGUI.ClaimLedger ledger = SmartRationGUI.ClaimLedger.open(dir.resolve("claims.wal"), store, "test")) {
+            assertEquals(FAMILIES, ledger.counts().claimed);
+            assertEquals(0, ledger.truncatedBytes());
+        }
+    }
+
+    // A copy of the log taken while the ledger is still open is what a crash leaves behind; a torn record
+    // at the end (the write the crash interrupted) is cut off and everything acknowledged before it replays
+    @Test
+    void acknowledgedClaimsSurviveACrash() throws Exception {
+        SmartRationGUI.FamilyStore store = distributedStore();
+        Path live = dir.resolve("claims.wal"), crashed = dir.resolve("crashed.wal");
+        try (SmartRationGUI.ClaimLedger ledger = SmartRationGUI.ClaimLedger.open(live, store, "test")) {
+            for (int i = 0; i < FAMILIES; i += 2) assertEquals(SmartRationGUI.ClaimLedger.Status.REDEEMED, ledger.claim("F" + i, "Desk " + (i % 3)).status);
+            Files.copy(live, crashed);
+        }
+        byte[] torn = {42, 0, 0, 0, 1, 2, 3}; // length says 42 bytes, the crash left 3
+        Files.write(crashed, torn, StandardOpenOption.APPEND);
+
+        try (SmartRationGUI.ClaimLedger ledger = SmartRationGUI.ClaimLedger.open(crashed, store, "test")) {
+            assertEquals(torn.length, ledger.truncatedBytes());
+            assertEquals(FAMILIES / 2, ledger.counts().claimed);
+            for (int i = 0; i < FAMILIES; i++) {
+                SmartRationGUI.ClaimLedger.Claim c = ledger.lookup("F" + i);
+                if (i % 2 == 0) {
+                    assertEquals(SmartRationGUI.ClaimLedger.Status.ALREADY_REDEEMED, c.status, "F" + i);
+                    assertEquals("Desk " + (i % 3), c.desk);
+                } else {
+                    assertEquals(SmartRationGUI.ClaimLedger.Status.OPEN, c.status, "F" + i);
+                }
+            }
+            assertEquals(SmartRationGUI.ClaimLedger.Status.REDEEMED, ledger.claim("F1", "Desk 9").status); // appends after the cut
+        }
+        try (SmartRationGUI.ClaimLedger ledger = SmartRationGUI.ClaimLedger.open(crashed, store, "test")) {
+            assertEquals(0, ledger.truncatedBytes());
+            assertEquals(FAMILIES / 2 + 1, ledger.counts().claimed);
+            assertEquals("Desk 9", ledger.lookup("F1").desk);
+        }
+    }
+
+    @Test
+    void secondDeskWindowCannotOpenTheSameLog() throws IOException {
+        SmartRationGUI.FamilyStore store = distributedStore();
+        try (SmartRationGUI.ClaimLedger ledger = SmartRationGUI.ClaimLedger.open(dir.resolve("claims.wal"), store, "test")) {
+            IOException e = assertThrows(IOException.class, () -> SmartRationGUI.ClaimLedger.open(dir.resolve("claims.wal"), store, "test"));
+            assertTrue(e.getMessage().contains("in use"), e.getMessage());
+        }
+    }
+}
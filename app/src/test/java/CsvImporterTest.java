@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The parallel import must give exactly what the one-pass import gives, row for row
+class CsvImporterTest {
+    @TempDir
+    static Path dir;
+    static Path registry;
+    static ForkJoinPool pool;
+
+    // ~24 MiB (6 chunks of the parallel import). Almost every byte sits inside a quoted name full of newlines,
+    // commas and "" escapes, so the raw split points land inside quotes and have to be moved to a record start.
+    @BeforeAll
+    static void writeRegistry() throws IOException {
+        pool = new ForkJoinPool(4);
+        registry = dir.resolve("registry.csv");
+        Random random = new Random(7);
+        String[] needs = {"NONE", "HAS_INFANT", "has senior", "PWD;Diabetic", "PREGNANT;LACTATING;INJURED", "unicorn", ""};
+        try (BufferedWriter out = Files.newBufferedWriter(registry, StandardCharsets.UTF_8)) {
+            out.write("ID,Head of Family,Family Size,Priorities\n");
+            long written = 0;
+            for (int i = 1; written < 24L << 20; i++) {
+                StringBuilder name = new StringBuilder("\"Dela Cruz, Juan \"\"Jun\"\" ").append(i);
+                for (int k = random.nextInt(8); k < 12; k++) name.append(k % 3 == 0 ? "\n" : ", ").append("Peña ").append(k);
+                name.append('"');
+                String size = i % 997 == 0 ? "many" : String.valueOf(1 + random.nextInt(12)); // some rows are rejected
+                String line = "F" + i + "," + name + "," + size + "," + needs[random.nextInt(needs.length)] + "\n";
+                out.write(line);
+                written += line.length();
+            }
+        }
+    }
+
+    @AfterAll
+    static void stopPool() { pool.shutdown(); }
+
+    @Test
+    void parallelImportMatchesSerial() throws IOException {
+        check(false);
+    }
+
+    @Test
+    void parallelColumnarImportMatchesSerial() throws IOException {
+        check(true);
+    }
+
+    private static void check(boolean columnar) throws IOException {
+        SmartRationGUI.CsvImporter.ImportResult serial = SmartRationGUI.CsvImporter.importFile(registry.toString(), SmartRationGUI.CsvImporter.Progress.NONE, columnar);
+        SmartRationGUI.CsvImporter.ImportResult parallel = SmartRationGUI.CsvImporter.importFileParallel(registry.toString(), pool, SmartRationGUI.CsvImporter.Progress.NONE, columnar);
+
+        assertTrue(serial.rows > 100_000, "registry too small to be split: " + serial.rows + " rows");
+        assertTrue(serial.rejected > 0 && serial.unknownPriorities > 0);
+        assertEquals(serial.rows, parallel.rows);
+        assertEquals(serial.rejected, parallel.rejected);
+        assertEquals(serial.unknownPriorities, parallel.unknownPriorities);
+
+        List<SmartRationGUI.Family> expected = serial.families, actual = parallel.families;
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            SmartRationGUI.Family e = expected.get(i), a = actual.get(i);
+            assertEquals(e.getId(), a.getId(), "row " + i);
+            assertEquals(e.getHeadOfFamily(), a.getHeadOfFamily(), "row " + i);
+            assertEquals(e.getMemberCount(), a.getMemberCount(), "row " + i);
+            assertEquals(e.getAttributeMask(), a.getAttributeMask(), "row " + i);
+        }
+        assertTrue(expected.get(0).getHeadOfFamily().contains("\n"), "quoted newlines must stay inside the name");
+    }
+}
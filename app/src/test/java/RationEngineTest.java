@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// The parallel engine splits the families into ranges; every family must still get what the serial engine gives it
+class RationEngineTest {
+    static final int FAMILIES = 150_000; // well above RationEngine.MIN_RANGE, so the parallel paths really split
+    static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() { pool = new ForkJoinPool(4); }
+
+    @AfterAll
+    static void stopPool() { pool.shutdown(); }
+
+    static List<SmartRationGUI.Supply> inventory() {
+        List<SmartRationGUI.Supply> inv = new ArrayList<>();
+        inv.add(new SmartRationGUI.Supply("Rice", SmartRationGUI.SupplyCategory.STAPLE, 1_234_567, null));
+        inv.add(new SmartRationGUI.Supply("Sardines", SmartRationGUI.SupplyCategory.PROTEIN, 777_777, null));
+        inv.add(new SmartRationGUI.Supply("Milk", SmartRationGUI.SupplyCategory.PRIORITY_NUTRITION, 99_991, SmartRationGUI.PriorityAttribute.HAS_INFANT));
+        inv.add(new SmartRationGUI.Supply("Vitamins", SmartRationGUI.SupplyCategory.GENERAL_HEALTH, 31_337, SmartRationGUI.PriorityAttribute.HAS_SENIOR));
+        inv.add(new SmartRationGUI.Supply("Insulin", SmartRationGUI.SupplyCategory.SPECIALIZED_MED, 500, SmartRationGUI.PriorityAttribute.DIABETIC));
+        inv.add(new SmartRationGUI.Supply("Tarps", SmartRationGUI.SupplyCategory.STAPLE, 10, null)); // less than one per family
+        return inv;
+    }
+
+    static List<SmartRationGUI.Family> families() {
+        Random random = new Random(42);
+        SmartRationGUI.PriorityAttribute[] attrs = SmartRationGUI.PriorityAttribute.values();
+        List<SmartRationGUI.Family> list = new ArrayList<>();
+        for (int i = 0; i < FAMILIES; i++) {
+            Set<SmartRationGUI.PriorityAttribute> needs = EnumSet.noneOf(SmartRationGUI.PriorityAttribute.class);
+            for (SmartRationGUI.PriorityAttribute a : attrs) if (random.nextInt(6) == 0) needs.add(a);
+            list.add(new SmartRationGUI.Family("F" + i, "Family " + i, 1 + random.nextInt(10), needs));
+        }
+        return list;
+    }
+
+    static int population(List<SmartRationGUI.Family> families) {
+        int total = 0;
+        for (SmartRationGUI.Family f : families) total += f.getMemberCount();
+        return total;
+    }
+
+    @Test
+    void parallelAllocationsMatchSerial() {
+        List<SmartRationGUI.Family> serial = families(), parallel = families();
+        List<SmartRationGUI.Supply> serialInv = inventory(), parallelInv = inventory();
+        new SmartRationGUI.RationEngine().distributeWithRounding(serial, serialInv, population(serial));
+        new SmartRationGUI.RationEngine(pool).distributeWithRounding(parallel, parallelInv, population(parallel));
+
+        for (int i = 0; i < FAMILIES; i++) assertEquals(items(serial.get(i)), items(parallel.get(i)), "family " + i);
+        for (int s = 0; s < serialInv.size(); s++) assertEquals(serialInv.get(s).leftover, parallelInv.get(s).leftover, serialInv.get(s).name);
+    }
+
+    @Test
+    void parallelColumnarAllocationsMatchSerial() {
+        SmartRationGUI.FamilyStore serial = store(), parallel = store();
+        List<SmartRationGUI.Supply> serialInv = inventory(), parallelInv = inventory();
+        new SmartRationGUI.RationEngine().distributeWithRounding(serial, serialInv, (int) SmartRationGUI.EligibilityIndex.build(serial).totalPopulation(),
+                SmartRationGUI.EligibilityIndex.build(serial));
+        new SmartRationGUI.RationEngine(pool).distributeWithRounding(parallel, parallelInv, (int) SmartRationGUI.EligibilityIndex.build(parallel).totalPopulation(),
+                SmartRationGUI.EligibilityIndex.build(parallel));
+
+        for (int s = 0; s < serialInv.size(); s++) {
+            for (int row = 0; row < FAMILIES; row++) assertEquals(serial.getAllocation(row, s), parallel.getAllocation(row, s), "family " + row + ", supply " + s);
+            assertEquals(serialInv.get(s).leftover, parallelInv.get(s).leftover, serialInv.get(s).name);
+        }
+    }
+
+    private static SmartRationGUI.FamilyStore store() {
+        SmartRationGUI.FamilyStore store = new SmartRationGUI.FamilyStore();
+        for (SmartRationGUI.Family f : families()) store.add(f.getId(), f.getHeadOfFamily(), f.getMemberCount(), f.getAttributeMask());
+        return store;
+    }
+
+    // In the order the family got them, which is the order of its packing list
+    private static List<String> items(SmartRationGUI.Family family) {
+        List<String> items = new ArrayList<>();
+        family.forEachItem((name, qty) -> items.add(name + "=" + qty));
+        return items;
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+// A refreshed session must end up exactly where a fresh run over the new registry would: same allocations row for
+// row, same leftovers, whether the delta moves the shares (whole columns recomputed) or not (only touched rows)
+class RegistryDeltaTest {
+    static final int FAMILIES = 20_000;
+    static final long[] MASKS = {0, SmartRationGUI.PriorityAttribute.HAS_INFANT.bit(), SmartRationGUI.PriorityAttribute.HAS_SENIOR.bit(),
+            SmartRationGUI.PriorityAttribute.DIABETIC.bit() | SmartRationGUI.PriorityAttribute.HAS_SENIOR.bit()};
+
+    static List<SmartRationGUI.Supply> inventory() {
+        List<SmartRationGUI.Supply> inv = new ArrayList<>();
+        inv.add(new SmartRationGUI.Supply("Rice", SmartRationGUI.SupplyCategory.STAPLE, 123_457, null));
+        inv.add(new SmartRationGUI.Supply("Sardines", SmartRationGUI.SupplyCategory.PROTEIN, 77_777, null));
+        inv.add(new SmartRationGUI.Supply("Milk", SmartRationGUI.SupplyCategory.PRIORITY_NUTRITION, 9_991, SmartRationGUI.PriorityAttribute.HAS_INFANT));
+        inv.add(new SmartRationGUI.Supply("Vitamins", SmartRationGUI.SupplyCategory.GENERAL_HEALTH, 3_137, SmartRationGUI.PriorityAttribute.HAS_SENIOR));
+        inv.add(new SmartRationGUI.Supply("Insulin", SmartRationGUI.SupplyCategory.SPECIALIZED_MED, 500, SmartRationGUI.PriorityAttribute.DIABETIC));
+        return inv;
+    }
+
+    static final class Row {
+        final String id, name;
+        final int members;
+        final long mask;
+
+        Row(String id, String name, int members, long mask) { this.id = id; this.name = name; this.members = members; this.mask = mask; }
+    }
+
+    static List<Row> registry() {
+        Random random = new Random(11);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < FAMILIES; i++) rows.add(new Row("F" + i, "Family " + i, 1 + random.nextInt(8), MASKS[random.nextInt(MASKS.length)]));
+        return rows;
+    }
+
+    static SmartRationGUI.FamilyStore store(List<Row> rows) {
+        SmartRationGUI.FamilyStore store = new SmartRationGUI.FamilyStore();
+        for (Row r : rows) store.add(r.id, r.name, r.members, r.mask);
+        return store;
+    }
+
+    // Removes every 97th family, changes every 31st (size, needs and name) and adds 500 new ones at the end
+    @Test
+    void deltaThatMovesTheSharesMatchesAFreshRun() {
+        List<Row> next = new ArrayList<>();
+        Random random = new Random(5);
+        List<Row> current = registry();
+        for (int i = 0; i < current.size(); i++) {
+            Row r = current.get(i);
+            if (i % 97 == 0) continue;
+            if (i % 31 == 0) r = new Row(r.id, r.name + " (moved)", 1 + random.nextInt(8), MASKS[random.nextInt(MASKS.length)]);
+            next.add(r);
+        }
+        for (int i = 0; i < 500; i++) next.add(new Row("N" + i, "Newcomer " + i, 1 + random.nextInt(8), MASKS[random.nextInt(MASKS.length)]));
+        BitSet changed = check(current, next, 207, 500);
+        assertTrue(changed.cardinality() > 1_000, "a new population moves the general shares of most families");
+    }
+
+    // Every removed family comes back under a new ID with the same size and needs, and the changed ones swap sizes
+    // in pairs, so the population and the eligible counts stay put and only the touched rows are recomputed
+    @Test
+    void deltaThatKeepsTheSharesMatchesAFreshRun() {
+        List<Row> current = registry(), next = new ArrayList<>(), added = new ArrayList<>();
+        Row held = null;
+        int heldAt = -1;
+        for (int i = 0; i < current.size(); i++) {
+            Row r = current.get(i);
+            if (i % 101 == 0) { added.add(new Row("N" + i, "Newcomer " + i, r.members, r.mask)); continue; }
+            if (i % 37 == 0) {
+                if (held == null || held.members == r.members || held.mask != r.mask) { held = r; heldAt = next.size(); next.add(r); continue; }
+                next.set(heldAt, new Row(held.id, held.name, r.members, held.mask));
+                next.add(new Row(r.id, r.name, held.members, r.mask));
+                held = null;
+                continue;
+            }
+            next.add(r);
+        }
+        next.addAll(added);
+        SmartRationGUI.RegistryDelta delta = SmartRationGUI.RegistryDelta.compare(store(current), store(next), ForkJoinPool.commonPool());
+        BitSet changed = check(current, next, added.size(), added.size());
+        assertTrue(changed.cardinality() <= delta.changed.length + delta.added.length, "only the touched rows may change: " + changed.cardinality());
+    }
+
+    private static BitSet check(List<Row> currentRows, List<Row> nextRows, int expectedRemoved, int expectedAdded) {
+        SmartRationGUI.RationEngine engine = new SmartRationGUI.RationEngine(ForkJoinPool.commonPool());
+        SmartRationGUI.FamilyStore current = store(currentRows), next = store(nextRows);
+        List<SmartRationGUI.Supply> refreshedInv = inventory(), freshInv = inventory();
+        SmartRationGUI.DistributionSession refreshed = new SmartRationGUI.DistributionSession(engine, current, refreshedInv);
+
+        SmartRationGUI.RegistryDelta delta = SmartRationGUI.RegistryDelta.compare(current, next, ForkJoinPool.commonPool());
+        assertEquals(expectedRemoved, delta.removed.length, delta.summary());
+        assertEquals(expectedAdded, delta.added.length, delta.summary());
+        assertFalse(delta.changed.length == 0, delta.summary());
+        BitSet changed = refreshed.applyDelta(delta, next);
+
+        SmartRationGUI.FamilyStore fresh = store(nextRows);
+        new SmartRationGUI.DistributionSession(engine, fresh, freshInv);
+
+        SmartRationGUI.FamilyStore after = refreshed.getStore();
+        assertEquals(fresh.size(), after.size());
+        for (int row = 0; row < fresh.size(); row++) {
+            assertEquals(fresh.getId(row), after.getId(row), "row " + row);
+            assertEquals(fresh.getMemberCount(row), after.getMemberCount(row), "row " + row);
+            assertEquals(fresh.getAttributeMask(row), after.getAttributeMask(row), "row " + row);
+        }
+        for (int s = 0; s < freshInv.size(); s++) {
+            for (int row = 0; row < fresh.size(); row++) {
+                assertEquals(fresh.getAllocation(row, s), after.getAllocation(row, s), "family " + fresh.getId(row) + ", supply " + freshInv.get(s).name);
+            }
+            assertEquals(freshInv.get(s).leftover, refreshedInv.get(s).leftover, freshInv.get(s).name);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// save -> load must give back the same families, inventory and allocations, whichever encoding each column got
+class SessionSnapshotTest {
+    static final int FAMILIES = 5_000;
+    static final String[] NAMES = {"Dela Cruz, Juan", "Peña, Niño \"Jun\"", "Nguyễn, Thị Mai", "O'Brien; Sean", "Santos, Maria\nRosa"};
+
+    @TempDir
+    Path dir;
+
+    static SmartRationGUI.FamilyStore store(int hugeFamilyRow) {
+        Random random = new Random(9);
+        SmartRationGUI.PriorityAttribute[] attrs = SmartRationGUI.PriorityAttribute.values();
+        SmartRationGUI.FamilyStore store = new SmartRationGUI.FamilyStore();
+        for (int i = 0; i < FAMILIES; i++) {
+            long mask = 0;
+            for (SmartRationGUI.PriorityAttribute a : attrs) if (random.nextInt(5) == 0) mask |= a.bit();
+            int members = i == hugeFamilyRow ? 2_000 : 1 + random.nextInt(10);
+            store.add("F-" + i, NAMES[i % NAMES.length] + " " + i, members, mask);
+        }
+        return store;
+    }
+
+    // Engine allocations are one quantity per (size, needs), so they go out as KEYED columns; the reserved
+    // medicine never gets a column (NONE), and an item handed out by hand lands in its own SPARSE column
+    @Test
+    void distributedSessionRoundTrips() throws IOException {
+        SmartRationGUI.FamilyStore store = store(-1);
+        List<SmartRationGUI.Supply> inventory = new ArrayList<>();
+        inventory.add(new SmartRationGUI.Supply("Rice", SmartRationGUI.SupplyCategory.STAPLE, 123_457, null));
+        inventory.add(new SmartRationGUI.Supply("Milk", SmartRationGUI.SupplyCategory.PRIORITY_NUTRITION, 9_991, SmartRationGUI.PriorityAttribute.HAS_INFANT));
+        inventory.add(new SmartRationGUI.Supply("Insulin", SmartRationGUI.SupplyCategory.SPECIALIZED_MED, 500, SmartRationGUI.PriorityAttribute.DIABETIC));
+        new SmartRationGUI.DistributionSession(new SmartRationGUI.RationEngine(), store, inventory);
+        store.family(42).receiveItem("Blanket", 2);
+        store.family(4_321).receiveItem("Blanket", 1);
+        assertNull(store.allocationsOf(2), "reserved medicine is not handed out");
+
+        List<SmartRationGUI.Supply> saved = supplies(store);
+        SmartRationGUI.SessionSnapshot.Session loaded = roundTrip(store, saved, "Evening run");
+        assertEquals("Blanket", loaded.inventory.get(3).name);
+        assertNull(loaded.inventory.get(3).cat);
+        assertEquals(2, loaded.store.getAllocation(42, 3));
+        assertEquals(1, loaded.store.getAllocation(4_321, 3));
+        assertNull(loaded.store.allocationsOf(2));
+    }
+
+    // One family above the keyed size limit (1023 members), so no column can be keyed and each takes the
+    // smallest dense or sparse form of its values; the member counts need 4 bytes each as well
+    @Test
+    void columnsThatCannotBeKeyedRoundTrip() throws IOException {
+        SmartRationGUI.FamilyStore store = store(17);
+        List<SmartRationGUI.Supply> inventory = new ArrayList<>();
+        inventory.add(new SmartRationGUI.Supply("Bytes", SmartRationGUI.SupplyCategory.STAPLE, 1, null));
+        inventory.add(new SmartRationGUI.Supply("Shorts", SmartRationGUI.SupplyCategory.PROTEIN, 2, null));
+        inventory.add(new SmartRationGUI.Supply("Ints", SmartRationGUI.SupplyCategory.GENERAL_HEALTH, 3, SmartRationGUI.PriorityAttribute.HAS_SENIOR));
+        inventory.add(new SmartRationGUI.Supply("Sparse", SmartRationGUI.SupplyCategory.PRIORITY_NUTRITION, 4, SmartRationGUI.PriorityAttribute.PREGNANT));
+        inventory.add(new SmartRationGUI.Supply("None", SmartRationGUI.SupplyCategory.SPECIALIZED_MED, 5, null));
+        inventory.get(1).setLeftover(12.5);
+        store.resetAllocations(inventory);
+        Random random = new Random(4);
+        int[] bytes = store.allocationColumn(0), shorts = store.allocationColumn(1), ints = store.allocationColumn(2), sparse = store.allocationColumn(3);
+        for (int row = 0; row < FAMILIES; row++) {
+            bytes[row] = random.nextInt(256);
+            shorts[row] = random.nextInt(65_536);
+            ints[row] = random.nextInt(Integer.MAX_VALUE);
+            if (row % 500 == 0) sparse[row] = 1 + random.nextInt(1_000_000);
+        }
+
+        SmartRationGUI.SessionSnapshot.Session loaded = roundTrip(store, inventory, "");
+        assertEquals(2_000, loaded.store.getMemberCount(17));
+        assertEquals(12.5, loaded.inventory.get(1).leftover);
+    }
+
+    private static List<SmartRationGUI.Supply> supplies(SmartRationGUI.FamilyStore store) {
+        List<SmartRationGUI.Supply> supplies = new ArrayList<>();
+        for (int s = 0; s < store.supplyCount(); s++) supplies.add(store.getSupply(s));
+        return supplies;
+    }
+
+    private SmartRationGUI.SessionSnapshot.Session roundTrip(SmartRationGUI.FamilyStore store, List<SmartRationGUI.Supply> inventory, String label) throws IOException {
+        Path file = dir.resolve("session.eqs");
+        SmartRationGUI.SessionSnapshot.save(file, label, store, inventory, true);
+        SmartRationGUI.SessionSnapshot.Session loaded = SmartRationGUI.SessionSnapshot.load(file, ForkJoinPool.commonPool());
+        SmartRationGUI.FamilyStore back = loaded.store;
+        assertTrue(loaded.distributed);
+        assertEquals(label, loaded.label);
+        assertEquals(store.size(), back.size());
+
+        // A few strings read one at a time while the columns are still lazy, then all of them after the bulk decode
+        for (int row = FAMILIES - 1; row >= 0; row -= 997) {
+            assertEquals(store.getId(row), back.getId(row));
+            assertEquals(store.getHeadOfFamily(row), back.getHeadOfFamily(row));
+        }
+        back.decodeStrings(ForkJoinPool.commonPool());
+        for (int row = 0; row < store.size(); row++) {
+            assertEquals(store.getId(row), back.getId(row), "row " + row);
+            assertEquals(store.getHeadOfFamily(row), back.getHeadOfFamily(row), "row " + row);
+            assertEquals(store.getMemberCount(row), back.getMemberCount(row), "row " + row);
+            assertEquals(store.getAttributeMask(row), back.getAttributeMask(row), "row " + row);
+        }
+
+        assertEquals(inventory.size(), loaded.inventory.size());
+        assertEquals(inventory.size(), back.supplyCount());
+        for (int s = 0; s < inventory.size(); s++) {
+            SmartRationGUI.Supply e = inventory.get(s), a = loaded.inventory.get(s);
+            assertEquals(e.name, a.name);
+            assertEquals(e.cat, a.cat, e.name);
+            assertEquals(e.target, a.target, e.name);
+            assertEquals(e.qty, a.qty, e.name);
+            assertEquals(e.leftover, a.leftover, e.name);
+            for (int row = 0; row < store.size(); row++) assertEquals(store.getAllocation(row, s), back.getAllocation(row, s), "family " + row + ", supply " + e.name);
+        }
+        for (int row = 0; row < store.size(); row += 101) assertEquals(store.getFormattedPackingList(row), back.getFormattedPackingList(row), "row " + row);
+        return loaded;
+    }
+}
@@ -0,0 +1,101 @@
+import equieat.bench.Fixtures;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Default-package side of the benchmark fixtures: the only benchmark class that touches SmartRationGUI directly
+public class EquiEatFixtures implements Fixtures {
+    private final SmartRationGUI.RationEngine engine = new SmartRationGUI.RationEngine(ForkJoinPool.commonPool());
+
+    // Both registries come from the app's own generator (realistic names and sizes, so duplicate checks and
+    // name columns see real-looking data); density is the flat chance of each priority attribute
+    @Override
+    public void writeRegistry(Path csv, int families, double attributeDensity, long seed) throws IOException {
+        SmartRationGUI.RegistryGenerator.Options o = new SmartRationGUI.RegistryGenerator.Options();
+        o.families = families;
+        o.seed = seed;
+        o.attributeRate = attributeDensity;
+        SmartRationGUI.RegistryGenerator.writeRegistry(csv, o);
+    }
+
+    // Generated, then imported like the GUI does (columnar store)
+    @Override
+    public Object registry(int families, double attributeDensity, long seed) {
+        try {
+            Path csv = Files.createTempFile("equieat-registry", ".csv");
+            try {
+                writeRegistry(csv, families, attributeDensity, seed);
+                return SmartRationGUI.CsvImporter.importFileParallel(csv.toString(), ForkJoinPool.commonPool(), SmartRationGUI.CsvImporter.Progress.NONE, true).families;
+            } finally {
+                Files.delete(csv);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Object inventory(int supplies, long seed) {
+        Random r = new Random(seed);
+        SmartRationGUI.SupplyCategory[] categories = SmartRationGUI.SupplyCategory.values();
+        SmartRationGUI.PriorityAttribute[] attributes = SmartRationGUI.PriorityAttribute.values();
+        List<SmartRationGUI.Supply> inventory = new ArrayList<>();
+        for (int i = 0; i < supplies; i++) {
+            SmartRationGUI.PriorityAttribute target = r.nextInt(3) == 0 ? attributes[r.nextInt(attributes.length)] : null;
+            inventory.add(new SmartRationGUI.Supply("item" + i, categories[r.nextInt(categories.length)], 1 + r.nextInt(2_000_000), target));
+        }
+        return inventory;
+    }
+
+    @Override
+    public Object importCsv(Path csv) throws IOException {
+        return SmartRationGUI.CsvImporter.importFileParallel(csv.toString(), ForkJoinPool.commonPool(), SmartRationGUI.CsvImporter.Progress.NONE, true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void distribute(Object registry, Object inventory) {
+        List<SmartRationGUI.Family> families = (List<SmartRationGUI.Family>) registry;
+        SmartRationGUI.EligibilityIndex index = SmartRationGUI.EligibilityIndex.build(families);
+        engine.distributeWithRounding(families, (List<SmartRationGUI.Supply>) inventory, (int) index.totalPopulation(), index);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String analyze(Object registry) {
+        return SmartRationGUI.DemographicAnalyzer.analyze((List<SmartRationGUI.Family>) registry);
+    }
+
+    @Override
+    public Object auditLogger() {
+        return new SmartRationGUI.AuditLogger();
+    }
+
+    @Override
+    public void log(Object logger, String action, String details) {
+        ((SmartRationGUI.AuditLogger) logger).log(action, details);
+    }
+
+    @Override
+    public void flushAudit() throws IOException, InterruptedException {
+        SmartRationGUI.AuditLogger.flush();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void packingList(Object registry, Path out) throws IOException {
+        SmartRationGUI.ReportGenerator.generatePackingList((List<SmartRationGUI.Family>) registry, out.toString());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void stubs(Object registry, Path out) throws IOException {
+        SmartRationGUI.StubGenerator.generateHTMLStubs((List<SmartRationGUI.Family>) registry, out.toString());
+    }
+}
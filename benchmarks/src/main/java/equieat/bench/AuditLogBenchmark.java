@@ -0,0 +1,41 @@
+package equieat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// AuditLogger.log as seen by the caller (enqueue, plus back-pressure once the writer falls behind).
+// Writes audit/ and audit_log.html into the working directory, so run the jar from a scratch folder.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class AuditLogBenchmark {
+    @Param({"32", "512"})
+    int detailLength;
+
+    private Fixtures fixtures;
+    private Object logger;
+    private String details;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixtures = Fixtures.load();
+        logger = fixtures.auditLogger();
+        details = "x".repeat(detailLength);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws IOException, InterruptedException {
+        fixtures.flushAudit(); // the next iteration starts with an empty queue
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void log() {
+        fixtures.log(logger, "DISTRIBUTION_RUN", details);
+    }
+}
@@ -0,0 +1,43 @@
+package equieat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// CsvImporter.importFileParallel (what the GUI's importCSV runs) on a generated registry file
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CsvImportBenchmark {
+    @Param({"1000", "100000", "1000000", "5000000"})
+    int families;
+
+    @Param({"0.05", "0.3"})
+    double attributeDensity;
+
+    private Fixtures fixtures;
+    private Path csv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixtures = Fixtures.load();
+        csv = Files.createTempFile("equieat-registry", ".csv");
+        fixtures.writeRegistry(csv, families, attributeDensity, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+    @Benchmark
+    public Object importCsv() throws IOException {
+        return fixtures.importCsv(csv);
+    }
+}
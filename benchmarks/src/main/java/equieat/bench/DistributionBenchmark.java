@@ -0,0 +1,44 @@
+package equieat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// RationEngine.distributeWithRounding (eligibility index included) and DemographicAnalyzer.analyze
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DistributionBenchmark {
+    @Param({"1000", "100000", "1000000", "5000000"})
+    int families;
+
+    @Param({"10", "40"})
+    int supplies;
+
+    @Param({"0.05", "0.3"})
+    double attributeDensity;
+
+    private Fixtures fixtures;
+    private Object registry, inventory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixtures = Fixtures.load();
+        registry = fixtures.registry(families, attributeDensity, 42);
+        inventory = fixtures.inventory(supplies, 7);
+    }
+
+    @Benchmark
+    public Object distribute() {
+        fixtures.distribute(registry, inventory); // resets the previous run's allocations itself
+        return registry;
+    }
+
+    @Benchmark
+    public String analyze() {
+        return fixtures.analyze(registry);
+    }
+}
@@ -0,0 +1,55 @@
+package equieat.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// ReportGenerator.generatePackingList and StubGenerator.generateHTMLStubs over a distributed registry
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ExportBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int families;
+
+    @Param({"10", "40"})
+    int supplies;
+
+    @Param({"0.05", "0.3"})
+    double attributeDensity;
+
+    private Fixtures fixtures;
+    private Object registry;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixtures = Fixtures.load();
+        registry = fixtures.registry(families, attributeDensity, 42);
+        fixtures.distribute(registry, fixtures.inventory(supplies, 7));
+        dir = Files.createTempDirectory("equieat-export");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("packing.html"));
+        Files.deleteIfExists(dir.resolve("stubs.html"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void packingList() throws IOException {
+        fixtures.packingList(registry, dir.resolve("packing.html"));
+    }
+
+    @Benchmark
+    public void stubs() throws IOException {
+        fixtures.stubs(registry, dir.resolve("stubs.html"));
+    }
+}
@@ -0,0 +1,41 @@
+package equieat.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// What the benchmarks need from the app. SmartRationGUI lives in the default package, which JMH
+// benchmark classes cannot import, so EquiEatFixtures (default package) implements this and the
+// benchmarks load it once by name. Calls in the measured loop are plain interface calls.
+public interface Fixtures {
+    // Registry CSV with the given number of families; density = chance of each priority attribute per family
+    void writeRegistry(Path csv, int families, double attributeDensity, long seed) throws IOException;
+
+    // In-memory registry (columnar store, like a GUI import)
+    Object registry(int families, double attributeDensity, long seed);
+
+    Object inventory(int supplies, long seed);
+
+    Object importCsv(Path csv) throws IOException;
+
+    void distribute(Object registry, Object inventory);
+
+    String analyze(Object registry);
+
+    Object auditLogger();
+
+    void log(Object logger, String action, String details);
+
+    void flushAudit() throws IOException, InterruptedException;
+
+    void packingList(Object registry, Path out) throws IOException;
+
+    void stubs(Object registry, Path out) throws IOException;
+
+    static Fixtures load() {
+        try {
+            return (Fixtures) Class.forName("EquiEatFixtures").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EquiEatFixtures not on the classpath", e);
+        }
+    }
+}